@@ -0,0 +1,19 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Run settings shared by the benchmarks, which inherit the annotations:
+ * the mode and the time unit are those of each benchmark.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Selenium decodes the Void replies reflectively, java.lang is opened on
+// Java 9 and later; its http client threads never finish, the fork does not
+// wait for them
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED",
+		"-Djmh.shutdownTimeout=1" })
+public abstract class CdpBenchmark {
+}
@@ -0,0 +1,85 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.devtools.DevTools;
+
+import com.github.sergueik.selenium.BrowserPool;
+import com.github.sergueik.selenium.CdpConnection;
+import com.github.sergueik.selenium.FakeCdpServer;
+
+/**
+ * The browser end of the benchmarks: the in-process FakeCdpServer (the
+ * default, measures the client side only) or a local Chrome leased from the
+ * BrowserPool (-p target=chrome, headless with HEADLESS=true or without
+ * DISPLAY). Either way the benchmarks get a driver, a CdpConnection attached
+ * to the page and a DevTools with its own session on the same page.
+ */
+@State(Scope.Benchmark)
+public class CdpTarget {
+
+	@Param({ "fake" })
+	public String target;
+
+	private FakeCdpServer server;
+	private BrowserPool.Lease lease;
+	private ChromiumDriver driver;
+	private CdpConnection connection;
+	private DevTools devTools;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		if ("chrome".equals(target)) {
+			lease = BrowserPool.getDefault().acquire();
+			driver = lease.getDriver();
+			connection = lease.getConnection();
+		} else if ("fake".equals(target)) {
+			server = new FakeCdpServer();
+			driver = server.createDriver();
+			connection = CdpConnection.create(driver);
+		} else {
+			throw new IllegalArgumentException("Unknown target: " + target);
+		}
+		devTools = driver.getDevTools();
+		devTools.createSession();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (server != null) {
+			devTools.close();
+			connection.close();
+			driver.quit();
+			server.close();
+		}
+		if (lease != null) {
+			lease.close();
+		}
+	}
+
+	public boolean isFake() {
+		return server != null;
+	}
+
+	// scripts the responses of the benchmark, null when run against Chrome
+	public FakeCdpServer getServer() {
+		return server;
+	}
+
+	public CdpConnection getConnection() {
+		return connection;
+	}
+
+	public DevTools getDevTools() {
+		return devTools;
+	}
+
+	public ChromiumDriver getDriver() {
+		return driver;
+	}
+}
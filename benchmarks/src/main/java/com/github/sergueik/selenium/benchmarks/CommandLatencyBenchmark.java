@@ -0,0 +1,63 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openqa.selenium.devtools.browser.Browser;
+
+import com.github.sergueik.selenium.CdpConnection;
+
+/**
+ * Round trip of a command with a small reply (Browser.getVersion): the raw
+ * CdpConnection map, the typed DevTools.send decoding into the model class,
+ * a window of commands in flight at once, and (-p target=chrome only) the
+ * chromedriver HTTP hop of ChromiumDriver.executeCdpCommand.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommandLatencyBenchmark extends CdpBenchmark {
+
+	private static final String method = "Browser.getVersion";
+	private static final int window = 16;
+
+	@Benchmark
+	public Map<String, Object> raw(CdpTarget target) {
+		return target.getConnection().execute(null, method, new HashMap<>());
+	}
+
+	@Benchmark
+	public Browser.GetVersionResponse typed(CdpTarget target) {
+		return target.getDevTools().send(Browser.getVersion());
+	}
+
+	// throughput of the connection: the commands are written back to back,
+	// the replies awaited together
+	@Benchmark
+	@OperationsPerInvocation(window)
+	public void pipelined(CdpTarget target, Blackhole blackhole) {
+		CdpConnection connection = target.getConnection();
+		List<CompletableFuture<Map<String, Object>>> replies = new ArrayList<>();
+		for (int cnt = 0; cnt < window; cnt++) {
+			replies.add(connection.send(null, method, new HashMap<>()));
+		}
+		for (CompletableFuture<Map<String, Object>> reply : replies) {
+			blackhole.consume(CdpConnection.await(reply, method, Duration.ofSeconds(10)));
+		}
+	}
+
+	@Benchmark
+	public Map<String, Object> executeCdpCommand(CdpTarget target) {
+		return target.getDriver().executeCdpCommand(method, new HashMap<>());
+	}
+}
@@ -0,0 +1,122 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openqa.selenium.devtools.dom.DOM;
+import org.openqa.selenium.devtools.dom.model.Node;
+
+/**
+ * DOM.getDocument of a tree of fanout^levels elements (4^6: 5461 nodes)
+ * returned to the depth given, -1 for the whole tree, as the raw map and
+ * decoded into the typed Node model.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DomDocumentBenchmark extends CdpBenchmark {
+
+	private static final int fanout = 4;
+	private static final int levels = 6;
+
+	@Param({ "1", "3", "-1" })
+	public int depth;
+
+	@Setup(Level.Trial)
+	public void setUp(CdpTarget target) {
+		if (target.isFake()) {
+			Map<Integer, Map<String, Object>> documents = new ConcurrentHashMap<>();
+			target.getServer().on("DOM.getDocument", exchange -> {
+				Object value = exchange.getParams().get("depth");
+				int requested = (value == null) ? 1 : ((Number) value).intValue();
+				Map<String, Object> result = new HashMap<>();
+				result.put("root", documents.computeIfAbsent(requested, o -> buildDocument(o)));
+				return result;
+			});
+		} else {
+			// the same shape in the page
+			Map<String, Object> params = new HashMap<>();
+			params.put("expression", String.format("(function build(parent, level) {\n"
+					+ "  if (level == %d) return;\n" + "  for (var i = 0; i < %d; i++) {\n"
+					+ "    var div = document.createElement('div');\n" + "    div.className = 'level-' + level;\n"
+					+ "    parent.appendChild(div);\n" + "    build(div, level + 1);\n" + "  }\n"
+					+ "})(document.body, 1)", levels, fanout));
+			target.getConnection().execute("Runtime.evaluate", params);
+		}
+	}
+
+	@Benchmark
+	public Map<String, Object> raw(CdpTarget target) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("depth", depth);
+		return target.getConnection().execute("DOM.getDocument", params);
+	}
+
+	@Benchmark
+	public Node typed(CdpTarget target) {
+		return target.getDevTools().send(DOM.getDocument(Optional.of(depth), Optional.empty()));
+	}
+
+	// #document > html > body > the divs, the shape of the page built above
+	private static Map<String, Object> buildDocument(int depth) {
+		AtomicInteger ids = new AtomicInteger(0);
+		Map<String, Object> document = node(ids, 9, "#document", 1);
+		document.put("documentURL", "about:blank");
+		document.put("baseURL", "about:blank");
+		Map<String, Object> html = node(ids, 1, "HTML", 1);
+		Map<String, Object> body = node(ids, 1, "BODY", fanout);
+		if (depth != 0) {
+			document.put("children", Arrays.asList(html));
+			if (depth < 0 || depth > 1) {
+				html.put("children", Arrays.asList(body));
+				if (depth < 0 || depth > 2) {
+					body.put("children", elements(ids, 1, depth - 3));
+				}
+			}
+		}
+		return document;
+	}
+
+	// the divs of the level, children included down to the remaining depth
+	private static List<Object> elements(AtomicInteger ids, int level, int remaining) {
+		List<Object> nodes = new ArrayList<>();
+		for (int cnt = 0; cnt < fanout; cnt++) {
+			Map<String, Object> div = node(ids, 1, "DIV", (level < levels) ? fanout : 0);
+			div.put("attributes", Arrays.asList("class", "level-" + level));
+			if (level < levels && remaining != 0) {
+				div.put("children", elements(ids, level + 1, remaining - 1));
+			}
+			nodes.add(div);
+		}
+		return nodes;
+	}
+
+	private static Map<String, Object> node(AtomicInteger ids, int nodeType, String nodeName, int childNodeCount) {
+		int id = ids.incrementAndGet();
+		Map<String, Object> node = new HashMap<>();
+		node.put("nodeId", id);
+		node.put("backendNodeId", id);
+		node.put("nodeType", nodeType);
+		node.put("nodeName", nodeName);
+		node.put("localName", (nodeType == 1) ? nodeName.toLowerCase() : "");
+		node.put("nodeValue", "");
+		node.put("childNodeCount", childNodeCount);
+		return node;
+	}
+}
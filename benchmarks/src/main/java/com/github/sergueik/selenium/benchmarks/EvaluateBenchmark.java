@@ -0,0 +1,106 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openqa.selenium.devtools.runtime.Runtime;
+
+/**
+ * Runtime.evaluate of an object of items objects, returned by value (the
+ * whole object serialized into the reply) or as a remote object reference.
+ * The references are kept in an object group released after each
+ * iteration. The typed RemoteObject of Selenium only decodes object values,
+ * not arrays.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EvaluateBenchmark extends CdpBenchmark {
+
+	private static final String objectGroup = "benchmark";
+	private static final Pattern length = Pattern.compile("length: (\\d+)");
+
+	@Param({ "true", "false" })
+	public boolean returnByValue;
+
+	@Param({ "10", "1000" })
+	public int items;
+
+	private String expression;
+
+	@Setup(Level.Trial)
+	public void setUp(CdpTarget target) {
+		expression = String.format(
+				"Object.fromEntries(Array.from({ length: %d }, (v, i) => ['item' + i, { index: i, name: 'item ' + i }]))",
+				items);
+		if (target.isFake()) {
+			AtomicLong objectIds = new AtomicLong(0);
+			target.getServer().on("Runtime.evaluate", exchange -> {
+				Matcher matcher = length.matcher((String) exchange.getParams().get("expression"));
+				int count = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+				Map<String, Object> remoteObject = new HashMap<>();
+				remoteObject.put("type", "object");
+				if (Boolean.TRUE.equals(exchange.getParams().get("returnByValue"))) {
+					Map<String, Object> value = new LinkedHashMap<>();
+					for (int cnt = 0; cnt < count; cnt++) {
+						Map<String, Object> item = new HashMap<>();
+						item.put("index", cnt);
+						item.put("name", "item " + cnt);
+						value.put("item" + cnt, item);
+					}
+					remoteObject.put("value", value);
+				} else {
+					remoteObject.put("className", "Object");
+					remoteObject.put("description", "Object");
+					remoteObject.put("objectId", String.format("{\"injectedScriptId\":1,\"id\":%d}", objectIds.incrementAndGet()));
+				}
+				Map<String, Object> result = new HashMap<>();
+				result.put("result", remoteObject);
+				return result;
+			});
+		}
+	}
+
+	// the references made during the iteration are not kept alive in the
+	// page: the groups are those of each session
+	@TearDown(Level.Iteration)
+	public void release(CdpTarget target) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("objectGroup", objectGroup);
+		target.getConnection().execute("Runtime.releaseObjectGroup", params);
+		target.getDevTools().send(Runtime.releaseObjectGroup(objectGroup));
+	}
+
+	@Benchmark
+	public Map<String, Object> raw(CdpTarget target) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("expression", expression);
+		params.put("returnByValue", returnByValue);
+		params.put("objectGroup", objectGroup);
+		return target.getConnection().execute("Runtime.evaluate", params);
+	}
+
+	@Benchmark
+	public Runtime.EvaluateResponse typed(CdpTarget target) {
+		return target.getDevTools()
+				.send(Runtime.evaluate(expression, Optional.of(objectGroup), Optional.empty(), Optional.empty(),
+						Optional.empty(), Optional.of(returnByValue), Optional.empty(), Optional.empty(),
+						Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
+	}
+}
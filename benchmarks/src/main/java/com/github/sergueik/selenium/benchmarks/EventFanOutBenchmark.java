@@ -0,0 +1,183 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.devtools.runtime.Runtime;
+
+import com.github.sergueik.selenium.EventBus;
+
+/**
+ * Events delivered per second to the listeners of Runtime.consoleAPICalled,
+ * the page logging a burst of events per invocation: the raw CdpConnection
+ * listeners on the event thread, the same handlers behind the EventBus, and
+ * the typed DevTools listeners decoding into the model class. The page logs
+ * objects: the typed RemoteObject of Selenium only decodes object values.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventFanOutBenchmark extends CdpBenchmark {
+
+	private static final int events = 1000;
+	private static final String event = "Runtime.consoleAPICalled";
+	private static final String expression = String.format("for (let i = 0; i < %d; i++) console.log({ index: i })", events);
+	private static final Pattern count = Pattern.compile("i < (\\d+)");
+
+	@State(Scope.Benchmark)
+	public static class ConnectionListeners {
+		@Param({ "1", "8" })
+		public int listeners;
+
+		private final LongAdder delivered = new LongAdder();
+		private long expected = 0;
+
+		@Setup(Level.Trial)
+		public void setUp(CdpTarget target) {
+			script(target);
+			for (int cnt = 0; cnt < listeners; cnt++) {
+				target.getConnection().addListener(event, o -> delivered.increment());
+			}
+			target.getConnection().execute("Runtime.enable", new HashMap<>());
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class BusListeners {
+		@Param({ "1", "8" })
+		public int listeners;
+
+		private final LongAdder delivered = new LongAdder();
+		private EventBus bus;
+		private long expected = 0;
+
+		@Setup(Level.Trial)
+		public void setUp(CdpTarget target) {
+			script(target);
+			bus = new EventBus();
+			bus.setCapacity(event, events * 2, EventBus.OverflowPolicy.BLOCK);
+			for (int cnt = 0; cnt < listeners; cnt++) {
+				bus.subscribe(target.getConnection(), event, o -> delivered.increment());
+			}
+			target.getConnection().execute("Runtime.enable", new HashMap<>());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			bus.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class DevToolsListeners {
+		@Param({ "1", "8" })
+		public int listeners;
+
+		private final LongAdder delivered = new LongAdder();
+		private long expected = 0;
+
+		@Setup(Level.Trial)
+		public void setUp(CdpTarget target) {
+			script(target);
+			for (int cnt = 0; cnt < listeners; cnt++) {
+				target.getDevTools().addListener(Runtime.consoleAPICalled(), o -> delivered.increment());
+			}
+			target.getDevTools().send(Runtime.enable());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(events)
+	public void connection(CdpTarget target, ConnectionListeners state) {
+		state.expected += events * state.listeners;
+		target.getConnection().execute("Runtime.evaluate", evaluateParams());
+		await(state.delivered, state.expected);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(events)
+	public void eventBus(CdpTarget target, BusListeners state) {
+		state.expected += events * state.listeners;
+		target.getConnection().execute("Runtime.evaluate", evaluateParams());
+		await(state.delivered, state.expected);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(events)
+	public void devTools(CdpTarget target, DevToolsListeners state) {
+		state.expected += events * state.listeners;
+		target.getDevTools().send(Runtime.evaluate(expression, Optional.empty(), Optional.empty(), Optional.empty(),
+				Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(),
+				Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
+		await(state.delivered, state.expected);
+	}
+
+	private static Map<String, Object> evaluateParams() {
+		Map<String, Object> params = new HashMap<>();
+		params.put("expression", expression);
+		return params;
+	}
+
+	// the events may be delivered after the reply of the command
+	private static void await(LongAdder delivered, long expected) {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (delivered.sum() < expected) {
+			if (System.nanoTime() > deadline) {
+				throw new TimeoutException(
+						String.format("%d of %d events delivered in 10 seconds", delivered.sum(), expected));
+			}
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+		}
+	}
+
+	// the fake server logs the count of the loop to the session evaluating it
+	private static void script(CdpTarget target) {
+		if (!target.isFake()) {
+			return;
+		}
+		target.getServer().on("Runtime.evaluate", exchange -> {
+			Matcher matcher = count.matcher((String) exchange.getParams().get("expression"));
+			int total = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+			for (int cnt = 0; cnt < total; cnt++) {
+				Map<String, Object> argument = new HashMap<>();
+				argument.put("type", "object");
+				argument.put("className", "Object");
+				argument.put("description", "Object");
+				argument.put("objectId", String.format("{\"injectedScriptId\":1,\"id\":%d}", cnt + 1));
+				List<Object> args = new ArrayList<>();
+				args.add(argument);
+				Map<String, Object> params = new HashMap<>();
+				params.put("type", "log");
+				params.put("args", args);
+				params.put("executionContextId", 1);
+				params.put("timestamp", (double) System.currentTimeMillis());
+				exchange.emit(event, params);
+			}
+			Map<String, Object> remoteObject = new HashMap<>();
+			remoteObject.put("type", "undefined");
+			Map<String, Object> result = new HashMap<>();
+			result.put("result", remoteObject);
+			return result;
+		});
+	}
+}
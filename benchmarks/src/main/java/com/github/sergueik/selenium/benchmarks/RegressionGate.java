@@ -0,0 +1,101 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.TypeToken;
+
+/**
+ * Compares a JMH result file (-rf json -rff results.json) with a baseline
+ * one and fails (exit code 1) when a benchmark of the baseline got slower by
+ * more than the tolerance: a higher score in the time modes, a lower one in
+ * thrpt, e.g.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar -rf json -rff results.json
+ * java -cp target/benchmarks.jar com.github.sergueik.selenium.benchmarks.RegressionGate baseline.json results.json 0.10
+ * </pre>
+ *
+ * The tolerance should stay above the score error of the benchmarks: the
+ * timings of the chrome target are noisier than those of the fake server.
+ */
+public class RegressionGate {
+
+	private static final Json json = new Json();
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: RegressionGate <baseline.json> <results.json> [tolerance]");
+			System.exit(2);
+		}
+		double tolerance = (args.length > 2) ? Double.parseDouble(args[2]) : 0.10;
+		List<String> regressions = compare(load(Paths.get(args[0])), load(Paths.get(args[1])), tolerance);
+		for (String regression : regressions) {
+			System.err.println(regression);
+		}
+		System.exit(regressions.isEmpty() ? 0 : 1);
+	}
+
+	// the descriptions of the regressions, empty when there are none
+	public static List<String> compare(Map<String, Map<String, Object>> baseline,
+			Map<String, Map<String, Object>> results, double tolerance) {
+		List<String> regressions = new ArrayList<>();
+		for (Map.Entry<String, Map<String, Object>> entry : baseline.entrySet()) {
+			Map<String, Object> result = results.get(entry.getKey());
+			if (result == null) {
+				System.err.println("Not run (ignored): " + entry.getKey());
+				continue;
+			}
+			double before = getScore(entry.getValue());
+			double after = getScore(result);
+			boolean throughput = "thrpt".equals(result.get("mode"));
+			double change = throughput ? (before - after) / before : (after - before) / before;
+			String line = String.format("%s: %.3f -> %.3f %s (%+.1f%%)", entry.getKey(), before, after,
+					getUnit(result), 100 * (after - before) / before);
+			if (change > tolerance) {
+				regressions.add("Regression " + line);
+			} else {
+				System.err.println(line);
+			}
+		}
+		return regressions;
+	}
+
+	// the results by benchmark and parameters
+	@SuppressWarnings("unchecked")
+	public static Map<String, Map<String, Object>> load(Path path) throws IOException {
+		Map<String, Map<String, Object>> results = new TreeMap<>();
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			List<Map<String, Object>> entries = json.toType(reader, new TypeToken<List<Map<String, Object>>>() {
+			}.getType());
+			for (Map<String, Object> entry : entries) {
+				Map<String, Object> params = (Map<String, Object>) entry.get("params");
+				String key = (String) entry.get("benchmark");
+				if (params != null) {
+					key += new TreeMap<>(params).toString();
+				}
+				results.put(key, entry);
+			}
+		}
+		return results;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static double getScore(Map<String, Object> result) {
+		return ((Number) ((Map<String, Object>) result.get("primaryMetric")).get("score")).doubleValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String getUnit(Map<String, Object> result) {
+		return (String) ((Map<String, Object>) result.get("primaryMetric")).get("scoreUnit");
+	}
+}
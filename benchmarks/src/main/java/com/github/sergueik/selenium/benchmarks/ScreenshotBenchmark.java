@@ -0,0 +1,152 @@
+package com.github.sergueik.selenium.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openqa.selenium.devtools.page.Page;
+import org.openqa.selenium.devtools.page.model.Viewport;
+
+import com.github.sergueik.selenium.ScreenshotSink;
+
+/**
+ * Page.captureScreenshot of a side x side clip: the capture with the base64
+ * payload decoded to the PNG bytes (raw and typed), the PNG decode and
+ * encode of the image on the client side, and the ScreenshotSink path from
+ * the base64 payload to the dimensions and to the file, next to the
+ * Base64.getDecoder() byte[] and ImageIO it replaces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ScreenshotBenchmark extends CdpBenchmark {
+
+	@Param({ "256", "1024" })
+	public int side;
+
+	private byte[] png;
+	private String data;
+	private BufferedImage image;
+	private ScreenshotSink sink;
+	private Path path;
+
+	@Setup(Level.Trial)
+	public void setUp(CdpTarget target) throws IOException {
+		if (target.isFake()) {
+			String data = Base64.getEncoder().encodeToString(encode(createImage(side)));
+			target.getServer().on("Page.captureScreenshot", exchange -> {
+				Map<String, Object> result = new HashMap<>();
+				result.put("data", data);
+				return result;
+			});
+		}
+		png = captureRaw(target);
+		data = Base64.getEncoder().encodeToString(png);
+		image = ImageIO.read(new ByteArrayInputStream(png));
+		sink = new ScreenshotSink();
+		path = Files.createTempFile("screenshot", ".png");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		sink.close();
+		Files.deleteIfExists(path);
+	}
+
+	@Benchmark
+	public byte[] captureRaw(CdpTarget target) {
+		Map<String, Object> clip = new HashMap<>();
+		clip.put("x", 0);
+		clip.put("y", 0);
+		clip.put("width", side);
+		clip.put("height", side);
+		clip.put("scale", 1);
+		Map<String, Object> params = new HashMap<>();
+		params.put("format", "png");
+		params.put("clip", clip);
+		String data = (String) target.getConnection().execute("Page.captureScreenshot", params).get("data");
+		return Base64.getDecoder().decode(data);
+	}
+
+	@Benchmark
+	public byte[] captureTyped(CdpTarget target) {
+		String data = target.getDevTools().send(Page.captureScreenshot(Optional.of(Page.CaptureScreenshotFormat.PNG),
+				Optional.empty(), Optional.of(new Viewport(0, 0, side, side, 1)), Optional.empty()));
+		return Base64.getDecoder().decode(data);
+	}
+
+	@Benchmark
+	public BufferedImage decode() throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(png));
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return encode(image);
+	}
+
+	// the dimensions of the screenshot: from the image, then from the header
+	// of the pooled buffer
+	@Benchmark
+	public int[] imageDimensions() throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(data)));
+		return new int[] { image.getWidth(), image.getHeight() };
+	}
+
+	@Benchmark
+	public int[] sinkDimensions() {
+		return sink.getDimensions(data);
+	}
+
+	// the payload to the file: through the decoded byte[], then through the
+	// pooled direct buffer and FileChannel
+	@Benchmark
+	public Path bytesWrite() throws IOException {
+		return Files.write(path, Base64.getDecoder().decode(data));
+	}
+
+	@Benchmark
+	public ScreenshotSink.Screenshot sinkWrite() throws IOException {
+		return sink.write(data, path);
+	}
+
+	private static byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", data);
+		return data.toByteArray();
+	}
+
+	// gradients with some noise, compresses about as well as a page does
+	private static BufferedImage createImage(int side) {
+		BufferedImage image = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(side);
+		for (int y = 0; y < side; y++) {
+			for (int x = 0; x < side; x++) {
+				int noise = (random.nextInt(8) == 0) ? random.nextInt(64) : 0;
+				image.setRGB(x, y, (((x * 255 / side) ^ noise) << 16) | ((y * 255 / side) << 8) | (255 - noise));
+			}
+		}
+		return image;
+	}
+}
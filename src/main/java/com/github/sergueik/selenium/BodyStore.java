@@ -0,0 +1,271 @@
+package com.github.sergueik.selenium;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size capped store of response bodies outside of the java heap: one direct
+ * buffer arena cut into fixed size blocks, a body is the chain of blocks it
+ * was written into. When the arena is full the least recently used bodies
+ * are evicted and their blocks reused, so a long recording neither grows the
+ * heap nor relies on the collector to release direct memory.
+ *
+ * Bodies are kept the way Network.getResponseBody returns them: text as
+ * UTF-8, binary content as its base64 text, which is also the HAR encoding.
+ */
+public class BodyStore {
+
+	private static boolean debug = false;
+
+	private final ByteBuffer arena;
+	private final int blockSize;
+	private final int[] freeBlocks;
+	private int freeCount;
+	// access ordered: the eldest entry is the least recently used
+	private final LinkedHashMap<String, Body> bodies = new LinkedHashMap<>(16, 0.75f, true);
+	private long evicted = 0;
+
+	public BodyStore(int capacity) {
+		this(capacity, 16 * 1024);
+	}
+
+	public BodyStore(int capacity, int blockSize) {
+		this.blockSize = blockSize;
+		int blocks = Math.max(1, capacity / blockSize);
+		arena = ByteBuffer.allocateDirect(blocks * blockSize);
+		freeBlocks = new int[blocks];
+		for (int block = 0; block < blocks; block++) {
+			freeBlocks[block] = blocks - 1 - block;
+		}
+		freeCount = blocks;
+	}
+
+	public int getCapacity() {
+		return arena.capacity();
+	}
+
+	public synchronized int getUsed() {
+		return (freeBlocks.length - freeCount) * blockSize;
+	}
+
+	public synchronized int size() {
+		return bodies.size();
+	}
+
+	// number of bodies evicted to make room
+	public synchronized long getEvictedCount() {
+		return evicted;
+	}
+
+	public synchronized boolean contains(String key) {
+		return bodies.containsKey(key);
+	}
+
+	// false when the body is larger than the whole store
+	public synchronized boolean put(String key, CharSequence text, boolean base64Encoded) {
+		remove(key);
+		// every char takes at least one byte
+		if (text.length() > arena.capacity()) {
+			return false;
+		}
+		// a lone surrogate would otherwise stop the encoder
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer input = CharBuffer.wrap(text);
+		// the encoder may leave a block partially filled, the blocks are
+		// filled through a small staging buffer instead
+		ByteBuffer staging = ByteBuffer.allocate(Math.min(blockSize, 4096));
+		int[] blocks = new int[4];
+		int count = 0;
+		int length = 0;
+		boolean done = false;
+		while (!done) {
+			CoderResult result = encoder.encode(input, staging, true);
+			if (result.isUnderflow()) {
+				encoder.flush(staging);
+				done = true;
+			}
+			staging.flip();
+			while (staging.hasRemaining()) {
+				if (length == count * blockSize) {
+					if (count == freeBlocks.length) {
+						release(blocks, count);
+						return false;
+					}
+					if (count == blocks.length) {
+						blocks = Arrays.copyOf(blocks, count * 2);
+					}
+					blocks[count++] = allocate(key);
+				}
+				int size = Math.min(staging.remaining(), count * blockSize - length);
+				ByteBuffer output = arena.duplicate();
+				output.position(blocks[count - 1] * blockSize + length % blockSize);
+				ByteBuffer chunk = staging.duplicate();
+				chunk.limit(chunk.position() + size);
+				output.put(chunk);
+				staging.position(staging.position() + size);
+				length += size;
+			}
+			staging.clear();
+		}
+		bodies.put(key, new Body(Arrays.copyOf(blocks, count), length, base64Encoded));
+		if (debug) {
+			System.err.println(String.format("Stored %d bytes of %s in %d blocks", length, key, count));
+		}
+		return true;
+	}
+
+	public synchronized boolean remove(String key) {
+		Body body = bodies.remove(key);
+		if (body == null) {
+			return false;
+		}
+		release(body.blocks, body.blocks.length);
+		return true;
+	}
+
+	public synchronized void clear() {
+		for (Body body : bodies.values()) {
+			release(body.blocks, body.blocks.length);
+		}
+		bodies.clear();
+	}
+
+	// -1 when not stored
+	public synchronized int getLength(String key) {
+		Body body = bodies.get(key);
+		return (body == null) ? -1 : body.length;
+	}
+
+	public synchronized boolean isBase64Encoded(String key) {
+		Body body = bodies.get(key);
+		return body != null && body.base64Encoded;
+	}
+
+	// null when not stored (or evicted)
+	public synchronized String getText(String key) {
+		Body body = bodies.get(key);
+		if (body == null) {
+			return null;
+		}
+		byte[] data = new byte[body.length];
+		new BodyInputStream(body).read(data, 0, data.length);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	// copies the stored bytes, returns false when not stored
+	public synchronized boolean copyTo(String key, OutputStream output) throws IOException {
+		Body body = bodies.get(key);
+		if (body == null) {
+			return false;
+		}
+		byte[] buffer = new byte[blockSize];
+		InputStream input = new BodyInputStream(body);
+		for (int size = input.read(buffer); size > 0; size = input.read(buffer)) {
+			output.write(buffer, 0, size);
+		}
+		return true;
+	}
+
+	// decodes the stored text into the writer, without materializing the body
+	// as a String
+	public synchronized boolean copyTo(String key, Writer writer) throws IOException {
+		Body body = bodies.get(key);
+		if (body == null) {
+			return false;
+		}
+		Reader reader = new InputStreamReader(new BodyInputStream(body), StandardCharsets.UTF_8);
+		char[] buffer = new char[4096];
+		for (int size = reader.read(buffer); size > 0; size = reader.read(buffer)) {
+			writer.write(buffer, 0, size);
+		}
+		return true;
+	}
+
+	// frees the least recently used bodies until a block is available
+	private int allocate(String key) {
+		Iterator<Map.Entry<String, Body>> iterator = bodies.entrySet().iterator();
+		while (freeCount == 0 && iterator.hasNext()) {
+			Map.Entry<String, Body> eldest = iterator.next();
+			iterator.remove();
+			release(eldest.getValue().blocks, eldest.getValue().blocks.length);
+			evicted++;
+			if (debug) {
+				System.err.println(String.format("Evicted %s for %s", eldest.getKey(), key));
+			}
+		}
+		return freeBlocks[--freeCount];
+	}
+
+	private void release(int[] blocks, int count) {
+		for (int index = 0; index < count; index++) {
+			freeBlocks[freeCount++] = blocks[index];
+		}
+	}
+
+	private static class Body {
+		private final int[] blocks;
+		private final int length;
+		private final boolean base64Encoded;
+
+		Body(int[] blocks, int length, boolean base64Encoded) {
+			this.blocks = blocks;
+			this.length = length;
+			this.base64Encoded = base64Encoded;
+		}
+	}
+
+	// reads the chain of blocks, valid while the store lock is held
+	private class BodyInputStream extends InputStream {
+		private final Body body;
+		private int position = 0;
+
+		BodyInputStream(Body body) {
+			this.body = body;
+		}
+
+		@Override
+		public int read() {
+			if (position >= body.length) {
+				return -1;
+			}
+			int block = body.blocks[position / blockSize];
+			return arena.get(block * blockSize + position++ % blockSize) & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] data, int offset, int length) {
+			if (position >= body.length) {
+				return -1;
+			}
+			int total = 0;
+			while (length > 0 && position < body.length) {
+				int block = body.blocks[position / blockSize];
+				int inBlock = position % blockSize;
+				int size = Math.min(Math.min(length, blockSize - inBlock), body.length - position);
+				ByteBuffer buffer = arena.duplicate();
+				buffer.position(block * blockSize + inBlock);
+				buffer.get(data, offset, size);
+				position += size;
+				offset += size;
+				length -= size;
+				total += size;
+			}
+			return total;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.NoSuchWindowException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.chromium.ChromiumDriver;
+
+/**
+ * Keeps a number of pre-launched Chrome sessions sharing the same options and
+ * hands them out as leases, so that the chromedriver and browser launch cost
+ * is paid once per JVM instead of once per test class. The browser state is
+ * cleared through CDP when the lease is returned, browsers failing the reset
+ * or the health check are quit and replaced. A failed launch is retried with
+ * backoff; when no browser could be launched at all, acquire fails at once
+ * instead of waiting out its timeout.
+ *
+ * <pre>
+ * lease = BrowserPool.getDefault().acquire();
+ * driver = lease.getDriver();
+ * ...
+ * lease.close();
+ * </pre>
+ */
+public class BrowserPool implements Closeable {
+
+	private static boolean debug = false;
+	private static BrowserPool defaultPool = null;
+	private static final int launchAttempts = 3;
+
+	private final ChromeOptions options;
+	private final int size;
+	private final BlockingQueue<Browser> idle = new LinkedBlockingQueue<>();
+	private final List<Browser> browsers = new CopyOnWriteArrayList<>();
+	private final AtomicInteger evicted = new AtomicInteger(0);
+	private final AtomicInteger failedLaunches = new AtomicInteger(0);
+	// launches queued or in progress, retries included
+	private final AtomicInteger launching = new AtomicInteger(0);
+	private volatile RuntimeException launchFailure = null;
+	private final ExecutorService launcher;
+	private volatile boolean closed = false;
+	private Duration healthCheckTimeout = Duration.ofSeconds(5);
+
+	public BrowserPool(int size, ChromeOptions options) {
+		this.size = size;
+		this.options = options;
+		launcher = Executors.newFixedThreadPool(size, runnable -> {
+			Thread thread = new Thread(runnable, "browser-pool-launcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int cnt = 0; cnt < size; cnt++) {
+			scheduleLaunch();
+		}
+	}
+
+	// pool shared by the test classes of the JVM, size is set through the
+	// browser.pool.size system property
+	public static synchronized BrowserPool getDefault() {
+		if (defaultPool == null) {
+			int size = Integer.parseInt(System.getProperty("browser.pool.size", "1"));
+			defaultPool = new BrowserPool(size, getDefaultOptions());
+			Runtime.getRuntime().addShutdownHook(new Thread(defaultPool::close));
+		}
+		return defaultPool;
+	}
+
+	// same options the test classes used to build in beforeClass
+	public static ChromeOptions getDefaultOptions() {
+		String osName = Utils.getOSName();
+		if (System.getProperty("webdriver.chrome.driver") == null) {
+			System.setProperty("webdriver.chrome.driver",
+					Paths.get(System.getProperty("user.home")).resolve("Downloads")
+							.resolve(osName.equals("windows") ? "chromedriver.exe" : "chromedriver").toAbsolutePath()
+							.toString());
+		}
+		ChromeOptions options = new ChromeOptions();
+		options.addArguments("--ssl-protocol=any", "--ignore-ssl-errors=true", "--disable-extensions",
+				"--ignore-certificate-errors");
+		options.setExperimentalOption("useAutomationExtension", false);
+		if ((System.getenv().containsKey("HEADLESS") && System.getenv("HEADLESS").matches("(?:true|yes|1)"))
+				|| (!(osName.equals("windows")) && !(System.getenv().containsKey("DISPLAY")))) {
+			options.addArguments("--headless", "--disable-gpu");
+		}
+		return options;
+	}
+
+	public Lease acquire() {
+		return acquire(Duration.ofSeconds(60));
+	}
+
+	public Lease acquire(Duration timeout) {
+		long deadline = System.currentTimeMillis() + timeout.toMillis();
+		while (!closed) {
+			Browser browser;
+			try {
+				browser = idle.poll(Math.min(250, Math.max(0, deadline - System.currentTimeMillis())),
+						TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Thread has been interrupted", e);
+			}
+			if (browser == null) {
+				// none running and none being launched: none will become available
+				if (browsers.isEmpty() && launching.get() == 0 && launchFailure != null) {
+					throw new WebDriverException("No browser could be launched", launchFailure);
+				}
+				if (System.currentTimeMillis() >= deadline) {
+					throw new TimeoutException(String.format("No browser available in %s", timeout));
+				}
+				continue;
+			}
+			if (isHealthy(browser)) {
+				return new Lease(browser);
+			}
+			evict(browser);
+		}
+		throw new IllegalStateException("Browser pool is closed");
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public int getEvictedCount() {
+		return evicted.get();
+	}
+
+	// launch attempts that failed, retries included
+	public int getFailedLaunchCount() {
+		return failedLaunches.get();
+	}
+
+	public void setHealthCheckTimeout(Duration healthCheckTimeout) {
+		this.healthCheckTimeout = healthCheckTimeout;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		launcher.shutdownNow();
+		for (Browser browser : browsers) {
+			browser.quit();
+		}
+		browsers.clear();
+		idle.clear();
+	}
+
+	private void scheduleLaunch() {
+		launching.incrementAndGet();
+		launcher.execute(this::launch);
+	}
+
+	// waits 1 and 2 seconds before the retries
+	private void launch() {
+		try {
+			for (int attempt = 1; attempt <= launchAttempts && !closed; attempt++) {
+				try {
+					long started = System.currentTimeMillis();
+					Browser browser = new Browser(new ChromeDriver(options));
+					browsers.add(browser);
+					if (debug) {
+						System.err.println("Launched browser in " + (System.currentTimeMillis() - started) + " ms");
+					}
+					idle.add(browser);
+					return;
+				} catch (RuntimeException e) {
+					// e.g. IllegalStateException when the chromedriver is missing
+					failedLaunches.incrementAndGet();
+					launchFailure = e;
+					System.err.println(String.format("Exception launching browser (attempt %d of %d): %s", attempt,
+							launchAttempts, e.toString()));
+					if (attempt < launchAttempts) {
+						Utils.sleep(1000 << (attempt - 1));
+					}
+				}
+			}
+		} finally {
+			launching.decrementAndGet();
+		}
+	}
+
+	private boolean isHealthy(Browser browser) {
+		try {
+			CdpConnection connection = browser.getConnection();
+			CdpConnection.await(connection.send(null, "Browser.getVersion", new HashMap<>()), "Browser.getVersion",
+					healthCheckTimeout);
+			return true;
+		} catch (RuntimeException e) {
+			System.err.println("Browser failed health check (evicting): " + e.toString());
+			return false;
+		}
+	}
+
+	private void evict(Browser browser) {
+		evicted.incrementAndGet();
+		browsers.remove(browser);
+		browser.quit();
+		scheduleLaunch();
+	}
+
+	private void release(Browser browser) {
+		if (closed) {
+			browser.quit();
+			return;
+		}
+		try {
+			browser.reset();
+			idle.add(browser);
+		} catch (RuntimeException e) {
+			System.err.println("Browser failed to reset (evicting): " + e.toString());
+			evict(browser);
+		}
+	}
+
+	public class Lease implements AutoCloseable {
+		private final Browser browser;
+		private boolean released = false;
+
+		private Lease(Browser browser) {
+			this.browser = browser;
+		}
+
+		public ChromiumDriver getDriver() {
+			return browser.driver;
+		}
+
+		// devtools connection attached to the current window of the driver
+		public CdpConnection getConnection() {
+			return browser.getConnection();
+		}
+
+		// clears the browser state between the tests of the lease, same as is
+		// done when the lease is returned
+		public void reset() {
+			browser.reset();
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!released) {
+				released = true;
+				release(browser);
+			}
+		}
+	}
+
+	private static class Browser {
+		private final ChromiumDriver driver;
+		private CdpConnection connection = null;
+		private SessionReset sessionReset = null;
+		private String targetId = null;
+
+		Browser(ChromiumDriver driver) {
+			this.driver = driver;
+		}
+
+		synchronized CdpConnection getConnection() {
+			String currentTargetId = CdpConnection.getTargetId(driver.getWindowHandle());
+			if (connection == null || connection.isClosed()) {
+				// releases the socket and the event thread of the dropped one
+				if (connection != null) {
+					connection.close();
+				}
+				connection = CdpConnection.create(driver);
+				sessionReset = new SessionReset(connection);
+			} else if (!currentTargetId.equals(targetId)) {
+				connection.setSessionId(connection.attachToTarget(currentTargetId));
+			} else {
+				return connection;
+			}
+			targetId = currentTargetId;
+			// origins visited during the lease, their storage is cleared on reset
+			sessionReset.track();
+			return connection;
+		}
+
+		synchronized void reset() {
+			// the window the driver is on may have been closed by the test
+			try {
+				driver.getWindowHandle();
+			} catch (NoSuchWindowException e) {
+				driver.switchTo().window(driver.getWindowHandles().iterator().next());
+			}
+			getConnection();
+			// other tabs are closed by the reset
+			sessionReset.reset();
+		}
+
+		void quit() {
+			try {
+				if (connection != null) {
+					connection.close();
+				}
+				driver.quit();
+			} catch (WebDriverException e) {
+				System.err.println("Exception quitting browser (ignored): " + e.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.devtools.Command;
+import org.openqa.selenium.devtools.DevToolsException;
+import org.openqa.selenium.devtools.Event;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonInput;
+
+/**
+ * Non-blocking counterpart of driver.executeCdpCommand and
+ * chromeDevTools.send: every call returns a CompletableFuture right after the
+ * command is written to the websocket, so one test thread can keep several
+ * commands (screenshot, cookies, metrics) in flight at once. Each command has
+ * a deadline, cancelling the future forgets the pending reply.
+ */
+public class CdpAsyncClient implements Closeable {
+
+	private static final Json json = new Json();
+	// shared timer for the command deadlines and EventWait
+	static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "cdp-deadlines");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final CdpConnection connection;
+	private final boolean ownsConnection;
+	private Duration timeout = Duration.ofSeconds(10);
+
+	public CdpAsyncClient(CdpConnection connection) {
+		this(connection, false);
+	}
+
+	private CdpAsyncClient(CdpConnection connection, boolean ownsConnection) {
+		this.connection = connection;
+		this.ownsConnection = ownsConnection;
+	}
+
+	public static CdpAsyncClient create(ChromiumDriver driver) {
+		return new CdpAsyncClient(CdpConnection.create(driver), true);
+	}
+
+	public CdpConnection getConnection() {
+		return connection;
+	}
+
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	// default deadline of the commands sent without explicit timeout
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	public CompletableFuture<Map<String, Object>> send(String method, Map<String, Object> params) {
+		return send(method, params, timeout);
+	}
+
+	public CompletableFuture<Map<String, Object>> send(String method, Map<String, Object> params, Duration timeout) {
+		return withDeadline(connection.send(method, params), method, timeout);
+	}
+
+	// typed commands of the selenium-devtools e.g. Performance.getMetrics()
+	public <X> CompletableFuture<X> send(Command<X> command) {
+		return send(command, timeout);
+	}
+
+	public <X> CompletableFuture<X> send(Command<X> command, Duration timeout) {
+		CompletableFuture<Map<String, Object>> raw = connection.send(command.getMethod(), command.getParams());
+		if (!command.getSendsResponse()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		Function<JsonInput, X> mapper = getMapper(command);
+		CompletableFuture<X> result = raw.thenApply(data -> {
+			// commands like Performance.enable() reply with empty result and are
+			// typed Void, which the selenium json cannot instantiate on newer JDK
+			if (data.isEmpty()) {
+				return null;
+			}
+			try (JsonInput input = json.newInput(new StringReader(json.toJson(data)))) {
+				return mapper.apply(input);
+			} catch (RuntimeException e) {
+				throw new DevToolsException(e);
+			}
+		});
+		// a cancelled or expired typed future releases the pending raw command
+		result.whenComplete((data, e) -> {
+			if (!raw.isDone()) {
+				raw.cancel(true);
+			}
+		});
+		return withDeadline(result, command.getMethod(), timeout);
+	}
+
+	// completes with the parameters of the next event of the given method
+	public CompletableFuture<Map<String, Object>> next(String method, Duration timeout) {
+		CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+		Consumer<Map<String, Object>> listener = result::complete;
+		connection.addListener(method, listener);
+		result.whenComplete((data, e) -> connection.removeListener(method, listener));
+		return withDeadline(result, method, timeout);
+	}
+
+	public <X> CompletableFuture<X> next(Event<X> event, Duration timeout) {
+		Function<JsonInput, X> mapper = getMapper(event);
+		return next(event.getMethod(), timeout).thenApply(data -> {
+			try (JsonInput input = json.newInput(new StringReader(json.toJson(data)))) {
+				return mapper.apply(input);
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		if (ownsConnection) {
+			connection.close();
+		}
+	}
+
+	static <X> CompletableFuture<X> withDeadline(CompletableFuture<X> future, String method,
+			Duration timeout) {
+		if (timeout == null || future.isDone()) {
+			return future;
+		}
+		ScheduledFuture<?> deadline = scheduler.schedule(() -> {
+			TimeoutException e = new TimeoutException(String.format("%s did not complete in %s", method, timeout));
+			// NOTE: WebDriverException.getMessage() fills a HashMap on first call,
+			// the dependent stages and the waiting thread would race on it
+			e.getMessage();
+			future.completeExceptionally(e);
+		}, timeout.toMillis(), TimeUnit.MILLISECONDS);
+		future.whenComplete((data, e) -> deadline.cancel(false));
+		return future;
+	}
+
+	// NOTE: the result mapper of the generated commands and events is package
+	// private in selenium-devtools
+	@SuppressWarnings("unchecked")
+	private static <X> Function<JsonInput, X> getMapper(Object commandOrEvent) {
+		try {
+			Method method = commandOrEvent.getClass().getDeclaredMethod("getMapper");
+			method.setAccessible(true);
+			return (Function<JsonInput, X>) method.invoke(commandOrEvent);
+		} catch (ReflectiveOperationException e) {
+			throw new DevToolsException("Unable to read the result mapper of " + commandOrEvent, e);
+		}
+	}
+}
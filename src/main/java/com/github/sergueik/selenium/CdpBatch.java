@@ -0,0 +1,170 @@
+package com.github.sergueik.selenium;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queues CDP commands and sends them over one CdpConnection websocket
+ * without waiting for the replies in between. A command may reference a
+ * field of an earlier result e.g.
+ *
+ * <pre>
+ * CdpBatch batch = new CdpBatch(connection);
+ * int document = batch.add("DOM.getDocument", params);
+ * params = new HashMap<>();
+ * params.put("nodeId", batch.ref(document, "root.nodeId"));
+ * params.put("selector", "img#hplogo");
+ * int node = batch.add("DOM.querySelector", params);
+ * List<Map<String, Object>> results = batch.execute();
+ * </pre>
+ *
+ * Commands are written in the order they were added. A command is held back
+ * only until the results it references arrive, every command after it waits
+ * with it so the page observes the same order as with serial calls.
+ */
+public class CdpBatch {
+
+	private final CdpConnection connection;
+	private final String sessionId;
+	private final List<String> methods = new ArrayList<>();
+	private final List<Map<String, Object>> paramsList = new ArrayList<>();
+
+	public CdpBatch(CdpConnection connection) {
+		this(connection, connection.getSessionId());
+	}
+
+	public CdpBatch(CdpConnection connection, String sessionId) {
+		this.connection = connection;
+		this.sessionId = sessionId;
+	}
+
+	// returns the index of the command to use in ref()
+	public int add(String method, Map<String, Object> params) {
+		methods.add(method);
+		paramsList.add((params == null) ? new HashMap<>() : new HashMap<>(params));
+		return methods.size() - 1;
+	}
+
+	// dot separated path into the result of the earlier command, list
+	// elements are addressed by index e.g. "nodeIds.0"
+	public Reference ref(int index, String path) {
+		if (index < 0 || index >= methods.size()) {
+			throw new IllegalArgumentException(String.format("No command #%d in batch of %d", index, methods.size()));
+		}
+		return new Reference(index, path);
+	}
+
+	public int size() {
+		return methods.size();
+	}
+
+	public List<Map<String, Object>> execute() {
+		return CdpConnection.await(executeAsync(), "batch of " + methods.size() + " commands",
+				connection.getTimeout());
+	}
+
+	public CompletableFuture<List<Map<String, Object>>> executeAsync() {
+		int size = methods.size();
+		List<CompletableFuture<Map<String, Object>>> results = new ArrayList<>(size);
+		CompletableFuture<Void> previousSent = CompletableFuture.completedFuture(null);
+		for (int index = 0; index < size; index++) {
+			String method = methods.get(index);
+			Map<String, Object> params = paramsList.get(index);
+			Set<Integer> dependencies = new HashSet<>();
+			collectReferences(params, dependencies);
+			List<CompletableFuture<?>> waitFor = new ArrayList<>();
+			waitFor.add(previousSent);
+			for (int dependency : dependencies) {
+				waitFor.add(results.get(dependency));
+			}
+			CompletableFuture<Void> ready = CompletableFuture.allOf(waitFor.toArray(new CompletableFuture<?>[0]));
+			CompletableFuture<CompletableFuture<Map<String, Object>>> sent = ready
+					.thenApply(o -> connection.send(sessionId, method, resolve(params, results)));
+			results.add(sent.thenCompose(o -> o));
+			previousSent = sent.thenApply(o -> null);
+		}
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(o -> {
+			List<Map<String, Object>> data = new ArrayList<>(size);
+			for (CompletableFuture<Map<String, Object>> result : results) {
+				data.add(result.join());
+			}
+			return data;
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void collectReferences(Object value, Set<Integer> dependencies) {
+		if (value instanceof Reference) {
+			dependencies.add(((Reference) value).index);
+		} else if (value instanceof Map) {
+			for (Object item : ((Map<String, Object>) value).values()) {
+				collectReferences(item, dependencies);
+			}
+		} else if (value instanceof List) {
+			for (Object item : (List<Object>) value) {
+				collectReferences(item, dependencies);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T resolve(T value, List<CompletableFuture<Map<String, Object>>> results) {
+		if (value instanceof Reference) {
+			Reference reference = (Reference) value;
+			return (T) select(results.get(reference.index).join(), reference.path);
+		} else if (value instanceof Map) {
+			Map<String, Object> copy = new HashMap<>();
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				copy.put(entry.getKey(), resolve(entry.getValue(), results));
+			}
+			return (T) copy;
+		} else if (value instanceof List) {
+			List<Object> copy = new ArrayList<>();
+			for (Object item : (List<Object>) value) {
+				copy.add(resolve(item, results));
+			}
+			return (T) copy;
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static Object select(Map<String, Object> data, String path) {
+		Object value = data;
+		for (String key : path.split("\\.")) {
+			if (value instanceof Map) {
+				value = ((Map<String, Object>) value).get(key);
+			} else if (value instanceof List && key.matches("\\d+")) {
+				List<Object> list = (List<Object>) value;
+				int position = Integer.parseInt(key);
+				value = (position < list.size()) ? list.get(position) : null;
+			} else {
+				value = null;
+			}
+			if (value == null) {
+				throw new IllegalArgumentException(String.format("No \"%s\" in %s", path, data));
+			}
+		}
+		return value;
+	}
+
+	public static class Reference {
+		private final int index;
+		private final String path;
+
+		private Reference(int index, String path) {
+			this.index = index;
+			this.path = path;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("$%d.%s", index, path);
+		}
+	}
+}
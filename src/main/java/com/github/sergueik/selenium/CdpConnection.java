@@ -0,0 +1,371 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chromium.ChromiumDevToolsLocator;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.devtools.DevToolsException;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.remote.http.ClientConfig;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.WebSocket;
+
+/**
+ * Raw Chrome DevTools Protocol client talking to the browser over a single
+ * websocket, with pipelined message ids, instead of one
+ * POST /session/$sessionId/goog/cdp/execute per command.
+ * Commands and results are plain maps, same as with
+ * ChromiumDriver.executeCdpCommand
+ * https://chromedevtools.github.io/devtools-protocol/#endpoints
+ * https://chromedevtools.github.io/devtools-protocol/tot/Target/#method-attachToTarget
+ */
+public class CdpConnection implements Closeable {
+
+	private static final Json json = new Json();
+	private static boolean debug = false;
+
+	private final AtomicLong nextId = new AtomicLong(1);
+	private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+	private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+	// session id to target id of the attached targets
+	private final Map<String, String> targets = new ConcurrentHashMap<>();
+	// events are delivered in order on a dedicated thread, so that listeners
+	// are free to send commands and wait for the results
+	private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "cdp-events");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final WebSocket socket;
+	private volatile boolean closed = false;
+	// the socket and the event thread are released once, also after the
+	// browser closed the connection
+	private final AtomicBoolean released = new AtomicBoolean(false);
+	private volatile String sessionId = null;
+	private volatile CdpMetrics metrics = CdpMetrics.isEnabled() ? CdpMetrics.getDefault() : null;
+	private Duration timeout = Duration.ofSeconds(10);
+
+	public CdpConnection(URI webSocketUri) {
+		HttpClient client = HttpClient.Factory.createDefault()
+				.createClient(ClientConfig.defaultConfig().baseUri(webSocketUri));
+		socket = client.openSocket(new HttpRequest(HttpMethod.GET, webSocketUri.toString()), new WebSocket.Listener() {
+			@Override
+			public void onText(CharSequence data) {
+				handle(data.toString());
+			}
+
+			@Override
+			public void onClose(int code, String reason) {
+				abort(new DevToolsException(String.format("Connection closed: %d %s", code, reason)));
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				abort(new DevToolsException(cause));
+			}
+		});
+	}
+
+	// connects to the browser behind the driver and attaches to the page
+	// target of the current window
+	public static CdpConnection create(ChromiumDriver driver) {
+		URI webSocketUri = ChromiumDevToolsLocator.getReportedUri("goog:chromeOptions", driver.getCapabilities())
+				.flatMap(uri -> ChromiumDevToolsLocator.getCdpEndPoint(HttpClient.Factory.createDefault(), uri))
+				.orElseThrow(() -> new WebDriverException("Unable to locate the devtools endpoint of the browser"));
+		CdpConnection connection = new CdpConnection(webSocketUri);
+		connection.setSessionId(connection.attachToTarget(getTargetId(driver.getWindowHandle())));
+		return connection;
+	}
+
+	// chromedriver window handles are the page target ids e.g.
+	// CDwindow-3D8C1B2F6A0E4F5C9E1A2B3C4D5E6F70
+	public static String getTargetId(String windowHandle) {
+		return windowHandle.replaceFirst("^CDwindow-", "");
+	}
+
+	@SuppressWarnings("unchecked")
+	public String attachToTarget(String targetId) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("targetId", targetId);
+		params.put("flatten", true);
+		String sessionId = null;
+		try {
+			sessionId = (String) execute(null, "Target.attachToTarget", params).get("sessionId");
+		} catch (CdpException e) {
+			// window handle is not a target id - pick the first page
+			for (Map<String, Object> targetInfo : (List<Map<String, Object>>) execute(null, "Target.getTargets",
+					new HashMap<>()).get("targetInfos")) {
+				if ("page".equals(targetInfo.get("type"))) {
+					params.put("targetId", targetInfo.get("targetId"));
+					sessionId = (String) execute(null, "Target.attachToTarget", params).get("sessionId");
+					break;
+				}
+			}
+			if (sessionId == null) {
+				throw e;
+			}
+		}
+		targets.put(sessionId, (String) params.get("targetId"));
+		return sessionId;
+	}
+
+	// target id of the default session
+	public String getAttachedTargetId() {
+		return (sessionId == null) ? null : targets.get(sessionId);
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public void setSessionId(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	public CdpMetrics getMetrics() {
+		return metrics;
+	}
+
+	// records the command round trips and the events received, null to stop
+	public void setMetrics(CdpMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	// sends the command to the default (page) session
+	public CompletableFuture<Map<String, Object>> send(String method, Map<String, Object> params) {
+		return send(sessionId, method, params);
+	}
+
+	// the command is written to the socket immediately, the future completes
+	// when the reply with the same id arrives
+	public CompletableFuture<Map<String, Object>> send(String sessionId, String method, Map<String, Object> params) {
+		CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+		if (closed) {
+			result.completeExceptionally(new DevToolsException("Connection is closed"));
+			return result;
+		}
+		long id = nextId.getAndIncrement();
+		Map<String, Object> message = new HashMap<>();
+		message.put("id", id);
+		message.put("method", method);
+		message.put("params", (params == null) ? new HashMap<>() : params);
+		if (sessionId != null) {
+			message.put("sessionId", sessionId);
+		}
+		String text = json.toJson(message);
+		pending.put(id, new Pending(method, result, (metrics == null) ? 0 : CdpMetrics.utf8Length(text)));
+		// cancelled commands do not hold the slot until the reply arrives
+		result.whenComplete((data, e) -> {
+			Pending entry = pending.remove(id);
+			// still pending: cancelled, expired or the connection was lost
+			if (entry != null && e != null && metrics != null) {
+				metrics.record(method, System.nanoTime() - entry.started, entry.length, 0,
+						(e instanceof CancellationException) ? "cancelled"
+								: (e instanceof TimeoutException) ? "timeout" : e.getClass().getSimpleName());
+			}
+		});
+		if (debug) {
+			System.err.println("-> " + text);
+		}
+		try {
+			socket.sendText(text);
+		} catch (RuntimeException e) {
+			result.completeExceptionally(new DevToolsException(e));
+		}
+		return result;
+	}
+
+	// blocking variant, mirrors ChromiumDriver.executeCdpCommand
+	public Map<String, Object> execute(String method, Map<String, Object> params) {
+		return execute(sessionId, method, params);
+	}
+
+	public Map<String, Object> execute(String sessionId, String method, Map<String, Object> params) {
+		return await(send(sessionId, method, params), method, timeout);
+	}
+
+	public static <T> T await(CompletableFuture<T> future, String description, Duration timeout) {
+		try {
+			return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Thread has been interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof WebDriverException) {
+				throw (WebDriverException) e.getCause();
+			}
+			throw new DevToolsException(e.getCause());
+		} catch (java.util.concurrent.TimeoutException e) {
+			TimeoutException timeoutException = new TimeoutException(
+					String.format("%s did not complete in %s", description, timeout), e);
+			// NOTE: fills the message before the dependent stages can race on it,
+			// see CdpAsyncClient.withDeadline
+			timeoutException.getMessage();
+			// expired rather than cancelled: the pending command is released and
+			// counted as a timeout
+			future.completeExceptionally(timeoutException);
+			throw timeoutException;
+		}
+	}
+
+	// listens to the event on the default (page) session
+	public void addListener(String method, Consumer<Map<String, Object>> listener) {
+		addListener(sessionId, method, listener);
+	}
+
+	// browser level events e.g. Target.targetCreated are sent without session
+	// id: pass null to listen to those
+	public void addListener(String sessionId, String method, Consumer<Map<String, Object>> listener) {
+		listeners.computeIfAbsent(method, o -> new CopyOnWriteArrayList<>()).add(new Listener(sessionId, listener));
+	}
+
+	public void removeListener(String method, Consumer<Map<String, Object>> listener) {
+		List<Listener> entries = listeners.get(method);
+		if (entries != null) {
+			entries.removeIf(o -> o.consumer == listener);
+		}
+	}
+
+	public void clearListeners() {
+		listeners.clear();
+	}
+
+	// completes once the events received so far have been delivered to the
+	// listeners: e.g. after awaiting a command, its side effect events
+	public CompletableFuture<Void> flushEvents() {
+		return CompletableFuture.runAsync(() -> {
+		}, eventExecutor);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			abort(new DevToolsException("Connection is closed"));
+		}
+		if (released.compareAndSet(false, true)) {
+			socket.close();
+			eventExecutor.shutdown();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void handle(String text) {
+		if (debug) {
+			System.err.println("<- " + text);
+		}
+		Map<String, Object> message = json.toType(text, Json.MAP_TYPE);
+		if (message.get("id") instanceof Number) {
+			Pending entry = pending.remove(((Number) message.get("id")).longValue());
+			if (entry == null) {
+				return;
+			}
+			CdpMetrics metrics = this.metrics;
+			if (message.containsKey("error")) {
+				CdpException e = CdpException.fromError(entry.method, (Map<String, Object>) message.get("error"));
+				if (metrics != null) {
+					metrics.record(entry.method, System.nanoTime() - entry.started, entry.length, CdpMetrics.utf8Length(text),
+							String.valueOf(e.getCode()));
+				}
+				entry.result.completeExceptionally(e);
+			} else {
+				if (metrics != null) {
+					metrics.record(entry.method, System.nanoTime() - entry.started, entry.length, CdpMetrics.utf8Length(text),
+							null);
+				}
+				Map<String, Object> result = (Map<String, Object>) message.get("result");
+				entry.result.complete((result == null) ? new HashMap<>() : result);
+			}
+		} else if (message.get("method") instanceof String) {
+			String method = (String) message.get("method");
+			if (metrics != null) {
+				metrics.recordEvent(method, CdpMetrics.utf8Length(text));
+			}
+			List<Listener> entries = listeners.get(method);
+			if (entries == null || entries.isEmpty()) {
+				return;
+			}
+			String eventSessionId = (String) message.get("sessionId");
+			Map<String, Object> params = (message.get("params") == null) ? new HashMap<>()
+					: (Map<String, Object>) message.get("params");
+			eventExecutor.execute(() -> {
+				for (Listener listener : entries) {
+					if (listener.matches(eventSessionId)) {
+						try {
+							listener.consumer.accept(params);
+						} catch (RuntimeException e) {
+							System.err.println("Exception in " + method + " listener (ignored): " + e.toString());
+						}
+					}
+				}
+			});
+		}
+	}
+
+	private void abort(WebDriverException cause) {
+		closed = true;
+		for (Pending entry : pending.values()) {
+			entry.result.completeExceptionally(cause);
+		}
+		pending.clear();
+	}
+
+	private static class Pending {
+		private final String method;
+		private final CompletableFuture<Map<String, Object>> result;
+		// UTF-8 length of the command and send time, for the metrics
+		private final long length;
+		private final long started = System.nanoTime();
+
+		Pending(String method, CompletableFuture<Map<String, Object>> result, long length) {
+			this.method = method;
+			this.result = result;
+			this.length = length;
+		}
+	}
+
+	private static class Listener {
+		private final String sessionId;
+		private final Consumer<Map<String, Object>> consumer;
+
+		Listener(String sessionId, Consumer<Map<String, Object>> consumer) {
+			this.sessionId = sessionId;
+			this.consumer = consumer;
+		}
+
+		boolean matches(String eventSessionId) {
+			return (sessionId == null) ? eventSessionId == null : sessionId.equals(eventSessionId);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.github.sergueik.selenium;
+
+import java.util.Map;
+
+import org.openqa.selenium.devtools.DevToolsException;
+
+/**
+ * Error reply of a Chrome DevTools Protocol command e.g.
+ * {"code":-32000,"message":"PrintToPDF is not implemented"}
+ * The message keeps the raw error JSON in the same format chromedriver
+ * reports it, so that Utils.processExceptionMessage can be applied.
+ */
+public class CdpException extends DevToolsException {
+
+	private static final long serialVersionUID = 1L;
+	private final String method;
+	private final long code;
+	private final String errorMessage;
+
+	public CdpException(String method, long code, String message) {
+		super(String.format("unhandled inspector error: {\"code\":%d,\"message\":\"%s\"} in %s", code,
+				message == null ? "" : message.replace("\"", "\\\""), method));
+		this.method = method;
+		this.code = code;
+		this.errorMessage = message;
+	}
+
+	public static CdpException fromError(String method, Map<String, Object> error) {
+		long code = (error.get("code") instanceof Number) ? ((Number) error.get("code")).longValue() : 0;
+		return new CdpException(method, code, (String) error.get("message"));
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public long getCode() {
+		return code;
+	}
+
+	// the message of the error reply as is
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+}
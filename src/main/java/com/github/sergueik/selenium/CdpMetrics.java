@@ -0,0 +1,550 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.devtools.Command;
+import org.openqa.selenium.devtools.DevTools;
+import org.openqa.selenium.json.Json;
+
+/**
+ * Per CDP method call counts, latency histogram, payload sizes and error
+ * codes, and per event method counts and rates, kept in LongAdders so the
+ * recording threads do not contend, e.g. to find the commands the suite
+ * spends its time in:
+ *
+ * <pre>
+ * CdpMetrics metrics = CdpMetrics.getDefault();
+ * connection.setMetrics(metrics);
+ * metrics.executeCdpCommand(driver, "Page.printToPDF", params);
+ * metrics.send(chromeDevTools, Performance.getMetrics());
+ * metrics.startDump(Paths.get("target/cdp-metrics.json"), Duration.ofSeconds(10));
+ * CdpMetrics.Snapshot snapshot = metrics.snapshot();
+ * snapshot.getMethod("Page.printToPDF").getErrorCodes(); // {-32000=1}
+ * snapshot.getMethodsByTotalTime();
+ * </pre>
+ *
+ * Every CdpConnection records to the default instance when run with
+ * -Dcdp.metrics=true, -Dcdp.metrics.dump=path also writes it to the file
+ * every cdp.metrics.interval seconds (10) and on exit.
+ */
+public class CdpMetrics implements Closeable {
+
+	private static final Json json = new Json();
+	// the error JSON chromedriver and DevTools put in the exception message
+	private static final Pattern errorCode = Pattern.compile("\"code\"\\s*:\\s*(-?\\d+)");
+	private static CdpMetrics defaultMetrics = null;
+
+	private final Map<String, MethodStats> methods = new ConcurrentHashMap<>();
+	private final Map<String, EventStats> events = new ConcurrentHashMap<>();
+	private volatile long started = System.nanoTime();
+	private ScheduledExecutorService scheduler = null;
+	private ScheduledFuture<?> dump = null;
+
+	public static boolean isEnabled() {
+		return Boolean.getBoolean("cdp.metrics") || System.getProperty("cdp.metrics.dump") != null;
+	}
+
+	public static synchronized CdpMetrics getDefault() {
+		if (defaultMetrics == null) {
+			defaultMetrics = new CdpMetrics();
+			String path = System.getProperty("cdp.metrics.dump");
+			if (path != null) {
+				CdpMetrics metrics = defaultMetrics;
+				metrics.startDump(Paths.get(path), Duration.ofSeconds(Long.getLong("cdp.metrics.interval", 10)));
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> metrics.writeJson(Paths.get(path))));
+			}
+		}
+		return defaultMetrics;
+	}
+
+	// one command round trip; error is the protocol error code, or the kind of
+	// failure, null when the command succeeded
+	public void record(String method, long nanos, long bytesOut, long bytesIn, String error) {
+		methods.computeIfAbsent(method, MethodStats::new).record(nanos, bytesOut, bytesIn, error);
+	}
+
+	public void recordEvent(String method, long bytes) {
+		EventStats stats = events.computeIfAbsent(method, o -> new EventStats());
+		stats.count.increment();
+		stats.bytes.add(bytes);
+	}
+
+	// ChromiumDriver.executeCdpCommand, timed
+	public Map<String, Object> executeCdpCommand(ChromiumDriver driver, String method, Map<String, Object> params) {
+		long start = System.nanoTime();
+		try {
+			Map<String, Object> result = driver.executeCdpCommand(method, params);
+			record(method, System.nanoTime() - start, estimateSize(params), estimateSize(result), null);
+			return result;
+		} catch (WebDriverException e) {
+			record(method, System.nanoTime() - start, estimateSize(params), 0, getErrorCode(e));
+			throw e;
+		}
+	}
+
+	// DevTools.send, timed; the size of the typed results is only known for
+	// the strings e.g. the screenshot data
+	public <X> X send(DevTools devTools, Command<X> command) {
+		long start = System.nanoTime();
+		try {
+			X result = devTools.send(command);
+			record(command.getMethod(), System.nanoTime() - start, estimateSize(command.getParams()),
+					estimateSize(result), null);
+			return result;
+		} catch (RuntimeException e) {
+			record(command.getMethod(), System.nanoTime() - start, estimateSize(command.getParams()), 0,
+					getErrorCode(e));
+			throw e;
+		}
+	}
+
+	// counts the events passed to the DevTools listener e.g.
+	// devTools.addListener(Log.entryAdded(), metrics.counting("Log.entryAdded", listener))
+	public <X> Consumer<X> counting(String method, Consumer<X> listener) {
+		return event -> {
+			recordEvent(method, estimateSize(event));
+			listener.accept(event);
+		};
+	}
+
+	public Snapshot snapshot() {
+		long elapsed = System.nanoTime() - started;
+		Map<String, MethodSnapshot> methodSnapshots = new TreeMap<>();
+		for (MethodStats stats : methods.values()) {
+			methodSnapshots.put(stats.method, stats.snapshot());
+		}
+		Map<String, EventSnapshot> eventSnapshots = new TreeMap<>();
+		for (Map.Entry<String, EventStats> entry : events.entrySet()) {
+			eventSnapshots.put(entry.getKey(), new EventSnapshot(entry.getKey(), entry.getValue().count.sum(),
+					entry.getValue().bytes.sum(), elapsed));
+		}
+		return new Snapshot(elapsed, methodSnapshots, eventSnapshots);
+	}
+
+	public void reset() {
+		methods.clear();
+		events.clear();
+		started = System.nanoTime();
+	}
+
+	// the snapshot JSON, replaced at once so a reader never sees it half written
+	public void writeJson(Path path) {
+		try {
+			Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), "cdp-metrics", ".json");
+			Files.write(temp, snapshot().toJson().getBytes(StandardCharsets.UTF_8));
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public synchronized void startDump(Path path, Duration interval) {
+		stopDump();
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "cdp-metrics");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		dump = scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				writeJson(path);
+			} catch (RuntimeException e) {
+				System.err.println("Exception (ignored): " + e.toString());
+			}
+		}, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopDump() {
+		if (dump != null) {
+			dump.cancel(false);
+			dump = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		stopDump();
+		if (scheduler != null) {
+			scheduler.shutdown();
+			scheduler = null;
+		}
+	}
+
+	// protocol error code e.g. -32000, or the exception class when there is none
+	public static String getErrorCode(Throwable e) {
+		if (e instanceof CdpException) {
+			return String.valueOf(((CdpException) e).getCode());
+		}
+		if (e instanceof CancellationException) {
+			return "cancelled";
+		}
+		if (e instanceof org.openqa.selenium.TimeoutException || e instanceof java.util.concurrent.TimeoutException) {
+			return "timeout";
+		}
+		Matcher matcher = errorCode.matcher(String.valueOf(e.getMessage()));
+		return matcher.find() ? matcher.group(1) : e.getClass().getSimpleName();
+	}
+
+	// UTF-8 length of the compact JSON of the value, without serializing it;
+	// zero for the typed objects
+	@SuppressWarnings("unchecked")
+	public static long estimateSize(Object value) {
+		if (value == null) {
+			return 4;
+		} else if (value instanceof String) {
+			return utf8Length((String) value) + 2;
+		} else if (value instanceof Number || value instanceof Boolean) {
+			return String.valueOf(value).length();
+		} else if (value instanceof Map) {
+			long size = 2;
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				size += utf8Length(String.valueOf(entry.getKey())) + 4 + estimateSize(entry.getValue());
+			}
+			return size;
+		} else if (value instanceof Collection) {
+			long size = 2;
+			for (Object item : (Collection<Object>) value) {
+				size += 1 + estimateSize(item);
+			}
+			return size;
+		}
+		return 0;
+	}
+
+	// the bytes of the text encoded as UTF-8, without encoding it
+	public static long utf8Length(CharSequence text) {
+		int length = text.length();
+		long bytes = length;
+		for (int index = 0; index < length; index++) {
+			char c = text.charAt(index);
+			if (c < 0x80) {
+				continue;
+			} else if (c < 0x800) {
+				bytes += 1;
+			} else if (Character.isHighSurrogate(c) && index + 1 < length
+					&& Character.isLowSurrogate(text.charAt(index + 1))) {
+				// 4 bytes for the pair
+				bytes += 2;
+				index++;
+			} else {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+	private static class MethodStats {
+		private final String method;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final LongAdder bytesOut = new LongAdder();
+		private final LongAdder bytesIn = new LongAdder();
+		private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+		private final Histogram latency = new Histogram();
+
+		MethodStats(String method) {
+			this.method = method;
+		}
+
+		void record(long nanos, long out, long in, String error) {
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+			bytesOut.add(out);
+			bytesIn.add(in);
+			latency.record(nanos / 1000);
+			if (error != null) {
+				errors.computeIfAbsent(error, o -> new LongAdder()).increment();
+			}
+		}
+
+		MethodSnapshot snapshot() {
+			Map<String, Long> errorCodes = new TreeMap<>();
+			for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+				errorCodes.put(entry.getKey(), entry.getValue().sum());
+			}
+			return new MethodSnapshot(method, count.sum(), totalNanos.sum(), maxNanos.get(), bytesOut.sum(),
+					bytesIn.sum(), errorCodes, latency.getCounts());
+		}
+	}
+
+	private static class EventStats {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+	}
+
+	// log-linear buckets of microseconds as in HdrHistogram: exact below 64,
+	// then 32 buckets per power of two, i.e. within 3%, up to 2^36 us.
+	// The bucket adders are created on first use
+	static class Histogram {
+		static final int subBuckets = 32;
+		// shifts 0 to 30, 64 values in the first range and 32 in each next
+		static final int size = 32 * subBuckets;
+		private static final long highest = (1L << 36) - 1;
+		private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<>(size);
+
+		void record(long value) {
+			int index = indexOf(Math.max(0, Math.min(value, highest)));
+			LongAdder bucket = buckets.get(index);
+			if (bucket == null) {
+				buckets.compareAndSet(index, null, new LongAdder());
+				bucket = buckets.get(index);
+			}
+			bucket.increment();
+		}
+
+		long[] getCounts() {
+			long[] counts = new long[size];
+			for (int index = 0; index < size; index++) {
+				LongAdder bucket = buckets.get(index);
+				counts[index] = (bucket == null) ? 0 : bucket.sum();
+			}
+			return counts;
+		}
+
+		static int indexOf(long value) {
+			int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - 5);
+			return shift * subBuckets + (int) (value >>> shift);
+		}
+
+		// the highest value counted in the bucket
+		static long valueOf(int index) {
+			int shift = Math.max(0, index / subBuckets - 1);
+			return ((long) (index - shift * subBuckets + 1) << shift) - 1;
+		}
+	}
+
+	public static class Snapshot {
+		private final long elapsedNanos;
+		private final Map<String, MethodSnapshot> methods;
+		private final Map<String, EventSnapshot> events;
+
+		Snapshot(long elapsedNanos, Map<String, MethodSnapshot> methods, Map<String, EventSnapshot> events) {
+			this.elapsedNanos = elapsedNanos;
+			this.methods = Collections.unmodifiableMap(methods);
+			this.events = Collections.unmodifiableMap(events);
+		}
+
+		// since the metrics were created or reset
+		public Duration getElapsed() {
+			return Duration.ofNanos(elapsedNanos);
+		}
+
+		public Map<String, MethodSnapshot> getMethods() {
+			return methods;
+		}
+
+		// null when the method was not called
+		public MethodSnapshot getMethod(String method) {
+			return methods.get(method);
+		}
+
+		public Map<String, EventSnapshot> getEvents() {
+			return events;
+		}
+
+		public EventSnapshot getEvent(String method) {
+			return events.get(method);
+		}
+
+		// the methods the time went to first
+		public List<MethodSnapshot> getMethodsByTotalTime() {
+			List<MethodSnapshot> result = new ArrayList<>(methods.values());
+			result.sort(Comparator.comparingLong((MethodSnapshot o) -> o.totalNanos).reversed());
+			return result;
+		}
+
+		public Map<String, Object> toMap() {
+			Map<String, Object> methodData = new LinkedHashMap<>();
+			for (MethodSnapshot method : getMethodsByTotalTime()) {
+				methodData.put(method.method, method.toMap());
+			}
+			Map<String, Object> eventData = new LinkedHashMap<>();
+			for (EventSnapshot event : events.values()) {
+				eventData.put(event.method, event.toMap());
+			}
+			Map<String, Object> data = new LinkedHashMap<>();
+			data.put("elapsedSeconds", round(elapsedNanos / 1e9));
+			data.put("methods", methodData);
+			data.put("events", eventData);
+			return data;
+		}
+
+		public String toJson() {
+			return json.toJson(toMap());
+		}
+	}
+
+	public static class MethodSnapshot {
+		private final String method;
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+		private final long bytesOut;
+		private final long bytesIn;
+		private final Map<String, Long> errorCodes;
+		private final long[] counts;
+
+		MethodSnapshot(String method, long count, long totalNanos, long maxNanos, long bytesOut, long bytesIn,
+				Map<String, Long> errorCodes, long[] counts) {
+			this.method = method;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.bytesOut = bytesOut;
+			this.bytesIn = bytesIn;
+			this.errorCodes = Collections.unmodifiableMap(errorCodes);
+			this.counts = counts;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getErrorCount() {
+			long errors = 0;
+			for (long value : errorCodes.values()) {
+				errors += value;
+			}
+			return errors;
+		}
+
+		// error code e.g. -32000, cancelled, timeout to count
+		public Map<String, Long> getErrorCodes() {
+			return errorCodes;
+		}
+
+		public long getBytesOut() {
+			return bytesOut;
+		}
+
+		public long getBytesIn() {
+			return bytesIn;
+		}
+
+		public Duration getTotal() {
+			return Duration.ofNanos(totalNanos);
+		}
+
+		public Duration getMean() {
+			return Duration.ofNanos((count == 0) ? 0 : totalNanos / count);
+		}
+
+		public Duration getMax() {
+			return Duration.ofNanos(maxNanos);
+		}
+
+		// e.g. 99 for the latency 99% of the calls were within, to the
+		// histogram precision
+		public Duration getPercentile(double percentile) {
+			long target = (long) Math.ceil(percentile / 100 * count);
+			long seen = 0;
+			for (int index = 0; index < counts.length; index++) {
+				seen += counts[index];
+				if (seen >= Math.max(1, target)) {
+					return Duration.ofNanos(Math.min(Histogram.valueOf(index) * 1000, maxNanos));
+				}
+			}
+			return getMax();
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> data = new LinkedHashMap<>();
+			data.put("count", count);
+			data.put("errors", errorCodes);
+			data.put("bytesOut", bytesOut);
+			data.put("bytesIn", bytesIn);
+			data.put("totalMillis", millis(getTotal()));
+			data.put("meanMillis", millis(getMean()));
+			data.put("p50Millis", millis(getPercentile(50)));
+			data.put("p90Millis", millis(getPercentile(90)));
+			data.put("p99Millis", millis(getPercentile(99)));
+			data.put("maxMillis", millis(getMax()));
+			return data;
+		}
+	}
+
+	public static class EventSnapshot {
+		private final String method;
+		private final long count;
+		private final long bytes;
+		private final long elapsedNanos;
+
+		EventSnapshot(String method, long count, long bytes, long elapsedNanos) {
+			this.method = method;
+			this.count = count;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		// events per second since the metrics were created or reset
+		public double getRate() {
+			return (elapsedNanos == 0) ? 0 : count * 1e9 / elapsedNanos;
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> data = new LinkedHashMap<>();
+			data.put("count", count);
+			data.put("bytes", bytes);
+			data.put("perSecond", round(getRate()));
+			return data;
+		}
+	}
+
+	private static double millis(Duration duration) {
+		return round(duration.toNanos() / 1e6);
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+}
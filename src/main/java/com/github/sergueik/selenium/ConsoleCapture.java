@@ -0,0 +1,363 @@
+package com.github.sergueik.selenium;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the browser console into a fixed size ring buffer instead of
+ * printing it: Log.entryAdded (network, violation, deprecation ... entries),
+ * Runtime.consoleAPICalled (console.log and friends) and
+ * Runtime.exceptionThrown (uncaught exceptions) are merged into compact
+ * records - level, source, interned URL, epoch millis, text - kept in
+ * parallel arrays, the oldest overwritten once the buffer is full e.g.
+ *
+ * <pre>
+ * ConsoleCapture capture = new ConsoleCapture(connection);
+ * capture.start();
+ * long mark = capture.mark();
+ * driver.findElement(By.id("submit")).click();
+ * assertThat(capture.count(mark, ConsoleCapture.Level.ERROR), is(0));
+ * capture.writeJsonLines(Paths.get("console.jsonl"));
+ * </pre>
+ *
+ * The queries walk the records in place: a mark is the sequence number of
+ * the next entry, and the visitor receives the fields, not an entry object.
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Log#event-entryAdded
+ * https://chromedevtools.github.io/devtools-protocol/tot/Runtime#event-consoleAPICalled
+ * https://chromedevtools.github.io/devtools-protocol/tot/Runtime#event-exceptionThrown
+ */
+public class ConsoleCapture {
+
+	private static boolean debug = false;
+
+	public enum Level {
+		VERBOSE, INFO, WARNING, ERROR;
+
+		// Log.LogEntry level and Runtime.consoleAPICalled type
+		static Level of(String value) {
+			switch (String.valueOf(value)) {
+			case "verbose":
+			case "debug":
+			case "trace":
+				return VERBOSE;
+			case "warning":
+				return WARNING;
+			case "error":
+			case "assert":
+				return ERROR;
+			default:
+				return INFO;
+			}
+		}
+	}
+
+	public enum Source {
+		// Log.LogEntry source
+		XML, JAVASCRIPT, NETWORK, STORAGE, APPCACHE, RENDERING, SECURITY, DEPRECATION, WORKER, VIOLATION, INTERVENTION, RECOMMENDATION, OTHER,
+		// Runtime.consoleAPICalled
+		CONSOLE_API,
+		// Runtime.exceptionThrown
+		EXCEPTION;
+
+		static Source of(String value) {
+			try {
+				return valueOf(String.valueOf(value).toUpperCase());
+			} catch (IllegalArgumentException e) {
+				return OTHER;
+			}
+		}
+	}
+
+	// receives the fields of one record
+	@FunctionalInterface
+	public interface Visitor {
+		void visit(long sequence, Level level, Source source, String url, long timestamp, String text);
+	}
+
+	private static final Level[] levels = Level.values();
+	private static final Source[] sources = Source.values();
+
+	private final CdpConnection connection;
+	private final int capacity;
+	// the records, slot = sequence % capacity
+	private final byte[] recordLevels;
+	private final byte[] recordSources;
+	private final int[] recordUrls;
+	private final long[] timestamps;
+	private final String[] texts;
+	private final Map<String, Integer> urlIds = new HashMap<>();
+	private final List<String> urls = new ArrayList<>();
+	// sequence of the next record
+	private long next = 0;
+	private int maxTextLength = 4096;
+	private Level echoLevel = null;
+	private boolean started = false;
+	private final Consumer<Map<String, Object>> logListener = this::onLogEntry;
+	private final Consumer<Map<String, Object>> consoleListener = this::onConsoleApiCall;
+	private final Consumer<Map<String, Object>> exceptionListener = this::onException;
+
+	public ConsoleCapture(CdpConnection connection) {
+		this(connection, 10000);
+	}
+
+	public ConsoleCapture(CdpConnection connection, int capacity) {
+		this.connection = connection;
+		this.capacity = capacity;
+		recordLevels = new byte[capacity];
+		recordSources = new byte[capacity];
+		recordUrls = new int[capacity];
+		timestamps = new long[capacity];
+		texts = new String[capacity];
+		// url id 0: no url
+		intern("");
+	}
+
+	// longer texts are truncated
+	public void setMaxTextLength(int maxTextLength) {
+		this.maxTextLength = maxTextLength;
+	}
+
+	// also print the entries at or above the level, null (the default) for
+	// none
+	public void setEcho(Level echoLevel) {
+		this.echoLevel = echoLevel;
+	}
+
+	public synchronized ConsoleCapture start() {
+		if (!started) {
+			connection.addListener("Log.entryAdded", logListener);
+			connection.addListener("Runtime.consoleAPICalled", consoleListener);
+			connection.addListener("Runtime.exceptionThrown", exceptionListener);
+			connection.execute("Log.enable", new HashMap<>());
+			connection.execute("Runtime.enable", new HashMap<>());
+			started = true;
+		}
+		return this;
+	}
+
+	// Runtime stays enabled, other code may rely on it
+	public synchronized void stop() {
+		if (started) {
+			connection.removeListener("Log.entryAdded", logListener);
+			connection.removeListener("Runtime.consoleAPICalled", consoleListener);
+			connection.removeListener("Runtime.exceptionThrown", exceptionListener);
+			if (!connection.isClosed()) {
+				connection.send("Log.disable", new HashMap<>());
+			}
+			started = false;
+		}
+	}
+
+	// the sequence number of the next entry: pass it to the queries to see the
+	// entries added since
+	public synchronized long mark() {
+		return next;
+	}
+
+	// entries held, at most the capacity
+	public synchronized int size() {
+		return (int) Math.min(next, capacity);
+	}
+
+	// entries captured so far, including the overwritten ones
+	public synchronized long getCount() {
+		return next;
+	}
+
+	public synchronized long getOverwrittenCount() {
+		return Math.max(0, next - capacity);
+	}
+
+	public synchronized void clear() {
+		for (int slot = 0; slot < capacity; slot++) {
+			texts[slot] = null;
+		}
+		next = 0;
+	}
+
+	// number of entries since the mark at or above the level
+	public synchronized int count(long since, Level minLevel) {
+		return forEach(since, minLevel, null, null);
+	}
+
+	public int countErrors(long since) {
+		return count(since, Level.ERROR);
+	}
+
+	public synchronized boolean hasErrorsSince(long since) {
+		return count(since, Level.ERROR) > 0;
+	}
+
+	// visits the entries since the mark at or above the level whose text
+	// matches the pattern (null for any), oldest first, under the capture
+	// lock; returns the number of entries matched
+	public synchronized int forEach(long since, Level minLevel, Pattern pattern, Visitor visitor) {
+		Matcher matcher = (pattern == null) ? null : pattern.matcher("");
+		int matched = 0;
+		for (long sequence = Math.max(since, next - capacity); sequence < next; sequence++) {
+			int slot = (int) (sequence % capacity);
+			if (recordLevels[slot] < minLevel.ordinal()) {
+				continue;
+			}
+			if (matcher != null && !matcher.reset(texts[slot]).find()) {
+				continue;
+			}
+			matched++;
+			if (visitor != null) {
+				visitor.visit(sequence, levels[recordLevels[slot]], sources[recordSources[slot]],
+						urls.get(recordUrls[slot]), timestamps[slot], texts[slot]);
+			}
+		}
+		return matched;
+	}
+
+	// the texts of the entries since the mark at or above the level
+	public List<String> getTexts(long since, Level minLevel) {
+		List<String> result = new ArrayList<>();
+		forEach(since, minLevel, null, (sequence, level, source, url, timestamp, text) -> result.add(text));
+		return result;
+	}
+
+	// the texts of the entries since the mark matching the pattern
+	public List<String> getTexts(long since, Pattern pattern) {
+		List<String> result = new ArrayList<>();
+		forEach(since, Level.VERBOSE, pattern, (sequence, level, source, url, timestamp, text) -> result.add(text));
+		return result;
+	}
+
+	// sequence of the first entry since the mark matching the pattern, -1 if
+	// none
+	public synchronized long findFirst(long since, Pattern pattern) {
+		Matcher matcher = pattern.matcher("");
+		for (long sequence = Math.max(since, next - capacity); sequence < next; sequence++) {
+			if (matcher.reset(texts[(int) (sequence % capacity)]).find()) {
+				return sequence;
+			}
+		}
+		return -1;
+	}
+
+	public void writeJsonLines(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeJsonLines(writer, 0);
+		}
+	}
+
+	// one JSON object per line, the entries since the mark
+	public synchronized void writeJsonLines(Writer writer, long since) throws IOException {
+		JsonStringWriter escaped = new JsonStringWriter(writer);
+		for (long sequence = Math.max(since, next - capacity); sequence < next; sequence++) {
+			int slot = (int) (sequence % capacity);
+			writer.write("{\"sequence\":" + sequence + ",\"timestamp\":" + timestamps[slot] + ",\"level\":\""
+					+ levels[recordLevels[slot]].name().toLowerCase() + "\",\"source\":\""
+					+ sources[recordSources[slot]].name().toLowerCase() + "\",\"url\":\"");
+			escaped.write(urls.get(recordUrls[slot]));
+			writer.write("\",\"text\":\"");
+			escaped.write(texts[slot]);
+			writer.write("\"}\n");
+		}
+		writer.flush();
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Log#type-LogEntry
+	@SuppressWarnings("unchecked")
+	private void onLogEntry(Map<String, Object> params) {
+		Map<String, Object> entry = (Map<String, Object>) params.get("entry");
+		add(Level.of((String) entry.get("level")), Source.of((String) entry.get("source")),
+				(String) entry.get("url"), entry.get("timestamp"), (String) entry.get("text"));
+	}
+
+	// the arguments are joined the way the console shows them
+	@SuppressWarnings("unchecked")
+	private void onConsoleApiCall(Map<String, Object> params) {
+		StringBuilder text = new StringBuilder();
+		for (Map<String, Object> argument : (List<Map<String, Object>>) params.get("args")) {
+			if (text.length() > 0) {
+				text.append(' ');
+			}
+			text.append(describe(argument));
+			if (text.length() > maxTextLength) {
+				break;
+			}
+		}
+		add(Level.of((String) params.get("type")), Source.CONSOLE_API, getTopFrameUrl(params.get("stackTrace")),
+				params.get("timestamp"), text.toString());
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Runtime#type-ExceptionDetails
+	@SuppressWarnings("unchecked")
+	private void onException(Map<String, Object> params) {
+		Map<String, Object> details = (Map<String, Object>) params.get("exceptionDetails");
+		Map<String, Object> exception = (Map<String, Object>) details.get("exception");
+		// the description carries the message and the stack
+		String text = (exception != null && exception.get("description") != null)
+				? (String) exception.get("description") : (String) details.get("text");
+		String url = (String) details.get("url");
+		add(Level.ERROR, Source.EXCEPTION, (url == null) ? getTopFrameUrl(details.get("stackTrace")) : url,
+				params.get("timestamp"), text);
+	}
+
+	private synchronized void add(Level level, Source source, String url, Object timestamp, String text) {
+		int slot = (int) (next++ % capacity);
+		recordLevels[slot] = (byte) level.ordinal();
+		recordSources[slot] = (byte) source.ordinal();
+		recordUrls[slot] = intern((url == null) ? "" : url);
+		timestamps[slot] = (timestamp instanceof Number) ? ((Number) timestamp).longValue()
+				: System.currentTimeMillis();
+		texts[slot] = (text == null) ? ""
+				: (text.length() > maxTextLength) ? text.substring(0, maxTextLength) : text;
+		if (echoLevel != null && level.compareTo(echoLevel) >= 0) {
+			System.err.println(String.format("[%s] %s %s", level, source, texts[slot]));
+		}
+		if (debug && next % 1000 == 0) {
+			System.err.println(String.format("Captured %d console entries, %d urls", next, urls.size()));
+		}
+	}
+
+	private int intern(String url) {
+		Integer id = urlIds.get(url);
+		if (id == null) {
+			id = urls.size();
+			urlIds.put(url, id);
+			urls.add(url);
+		}
+		return id;
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Runtime#type-RemoteObject
+	private static String describe(Map<String, Object> argument) {
+		if (argument.containsKey("value")) {
+			return String.valueOf(argument.get("value"));
+		}
+		if (argument.get("unserializableValue") != null) {
+			return (String) argument.get("unserializableValue");
+		}
+		if (argument.get("description") != null) {
+			return (String) argument.get("description");
+		}
+		return String.valueOf(argument.get("type"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String getTopFrameUrl(Object stackTrace) {
+		if (stackTrace instanceof Map) {
+			List<Map<String, Object>> frames = (List<Map<String, Object>>) ((Map<String, Object>) stackTrace)
+					.get("callFrames");
+			if (frames != null && !frames.isEmpty()) {
+				return (String) frames.get(0).get("url");
+			}
+		}
+		return null;
+	}
+}
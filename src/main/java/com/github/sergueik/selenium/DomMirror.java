@@ -0,0 +1,487 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Client side copy of the DOM tree of the page: loaded once with
+ * DOM.getDocument depth -1 and kept current from the DOM mutation events, so
+ * that attribute, child and outerHTML lookups on large pages are answered
+ * locally instead of with a DOM.describeNode / DOM.getOuterHTML round trip
+ * each. Only finding a node by CSS selector goes to the browser, the node ids
+ * it returns are the ones of the mirror.
+ *
+ * The mirror attaches a session of its own to the page: DOM.getDocument
+ * resets the node ids of the session it is sent to, which would silently
+ * invalidate the mirror whenever some other code asks for the document.
+ *
+ * <pre>
+ * DomMirror mirror = new DomMirror(connection);
+ * DomMirror.Node input = mirror.querySelector("#searchInput");
+ * input.getAttribute("name");
+ * mirror.getOuterHTML(input);
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-getDocument
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOM#event-setChildNodes
+ */
+public class DomMirror implements Closeable {
+
+	private static boolean debug = false;
+	// https://html.spec.whatwg.org/multipage/syntax.html#void-elements
+	private static final Set<String> voidElements = new HashSet<>(Arrays.asList("area", "base", "br", "col", "embed",
+			"hr", "img", "input", "link", "meta", "param", "source", "track", "wbr"));
+	private static final Set<String> rawTextElements = new HashSet<>(
+			Arrays.asList("script", "style", "xmp", "iframe", "noembed", "noframes", "plaintext", "noscript"));
+
+	private final CdpConnection connection;
+	private final String sessionId;
+	private final boolean ownsSession;
+	private final Map<String, Consumer<Map<String, Object>>> listeners = new HashMap<>();
+	private final Map<Integer, Node> nodes = new HashMap<>();
+	private final AtomicInteger mutations = new AtomicInteger(0);
+	private Node document = null;
+	// set by DOM.documentUpdated: the node ids are gone, reload on next lookup
+	private volatile boolean stale = true;
+
+	public DomMirror(CdpConnection connection) {
+		this.connection = connection;
+		String targetId = connection.getAttachedTargetId();
+		ownsSession = (targetId != null);
+		sessionId = ownsSession ? connection.attachToTarget(targetId) : connection.getSessionId();
+		listeners.put("DOM.documentUpdated", params -> stale = true);
+		listeners.put("DOM.setChildNodes", this::onSetChildNodes);
+		listeners.put("DOM.childNodeInserted", this::onChildNodeInserted);
+		listeners.put("DOM.childNodeRemoved", this::onChildNodeRemoved);
+		listeners.put("DOM.childNodeCountUpdated", this::onChildNodeCountUpdated);
+		listeners.put("DOM.attributeModified", this::onAttributeModified);
+		listeners.put("DOM.attributeRemoved", this::onAttributeRemoved);
+		listeners.put("DOM.characterDataModified", this::onCharacterDataModified);
+		for (Map.Entry<String, Consumer<Map<String, Object>>> entry : listeners.entrySet()) {
+			connection.addListener(sessionId, entry.getKey(), entry.getValue());
+		}
+	}
+
+	// (re)loads the whole tree, called on demand after navigation
+	@SuppressWarnings("unchecked")
+	public synchronized void load() {
+		Map<String, Object> params = new HashMap<>();
+		params.put("depth", -1);
+		params.put("pierce", false);
+		stale = false;
+		Map<String, Object> result = connection.execute(sessionId, "DOM.getDocument", params);
+		nodes.clear();
+		document = add((Map<String, Object>) result.get("root"), null);
+		if (debug) {
+			System.err.println(String.format("Loaded %d nodes", nodes.size()));
+		}
+	}
+
+	public synchronized Node getDocument() {
+		refresh();
+		return document;
+	}
+
+	// null when the node id is not (or no longer) valid
+	public synchronized Node getNode(int nodeId) {
+		refresh();
+		return nodes.get(nodeId);
+	}
+
+	public synchronized boolean contains(int nodeId) {
+		return !stale && nodes.containsKey(nodeId);
+	}
+
+	public synchronized int size() {
+		refresh();
+		return nodes.size();
+	}
+
+	// number of mutation events applied
+	public int getMutationCount() {
+		return mutations.get();
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	// waits until the events received so far are applied
+	public void sync() {
+		CdpConnection.await(connection.flushEvents(), "DOM mirror sync", connection.getTimeout());
+	}
+
+	// one round trip for the node id, lookups on the node are local
+	public Node querySelector(String selector) {
+		return querySelector(getDocument(), selector);
+	}
+
+	public Node querySelector(Node node, String selector) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("nodeId", node.nodeId);
+		params.put("selector", selector);
+		Object nodeId = connection.execute(sessionId, "DOM.querySelector", params).get("nodeId");
+		return (nodeId instanceof Number && ((Number) nodeId).intValue() != 0) ? getNode(((Number) nodeId).intValue())
+				: null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<Node> querySelectorAll(String selector) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("nodeId", getDocument().nodeId);
+		params.put("selector", selector);
+		List<Node> result = new ArrayList<>();
+		for (Object nodeId : (List<Object>) connection.execute(sessionId, "DOM.querySelectorAll", params)
+				.get("nodeIds")) {
+			Node node = getNode(((Number) nodeId).intValue());
+			if (node != null) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	// local search in document order
+	public synchronized List<Node> find(Predicate<Node> predicate) {
+		refresh();
+		List<Node> result = new ArrayList<>();
+		collect(document, predicate, result);
+		return result;
+	}
+
+	public Node getElementById(String id) {
+		List<Node> result = find(node -> id.equals(node.getAttribute("id")));
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	public List<Node> getElementsByTagName(String localName) {
+		return find(node -> node.nodeType == 1 && localName.equalsIgnoreCase(node.localName));
+	}
+
+	// serialized locally, falls back to DOM.getOuterHTML for the subtrees
+	// which are not loaded
+	public synchronized String getOuterHTML(Node node) {
+		refresh();
+		if (!isComplete(node)) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("nodeId", node.nodeId);
+			return (String) connection.execute(sessionId, "DOM.getOuterHTML", params).get("outerHTML");
+		}
+		StringBuilder html = new StringBuilder();
+		serialize(node, html);
+		return html.toString();
+	}
+
+	@Override
+	public void close() {
+		for (Map.Entry<String, Consumer<Map<String, Object>>> entry : listeners.entrySet()) {
+			connection.removeListener(entry.getKey(), entry.getValue());
+		}
+		if (ownsSession && !connection.isClosed()) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("sessionId", sessionId);
+			connection.send(null, "Target.detachFromTarget", params);
+		}
+	}
+
+	private void refresh() {
+		if (stale) {
+			load();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Node add(Map<String, Object> data, Node parent) {
+		Node node = new Node(data, parent);
+		nodes.put(node.nodeId, node);
+		if (data.get("children") instanceof List) {
+			node.children = new ArrayList<>();
+			for (Map<String, Object> child : (List<Map<String, Object>>) data.get("children")) {
+				node.children.add(add(child, node));
+			}
+		} else if (node.childNodeCount > 0) {
+			// newly inserted subtrees arrive one level at a time
+			requestChildNodes(node.nodeId);
+		}
+		return node;
+	}
+
+	private void remove(Node node) {
+		nodes.remove(node.nodeId);
+		if (node.children != null) {
+			for (Node child : node.children) {
+				remove(child);
+			}
+		}
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-requestChildNodes
+	private void requestChildNodes(int nodeId) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("nodeId", nodeId);
+		params.put("depth", -1);
+		connection.send(sessionId, "DOM.requestChildNodes", params);
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized void onSetChildNodes(Map<String, Object> params) {
+		Node parent = nodes.get(((Number) params.get("parentId")).intValue());
+		if (parent == null) {
+			return;
+		}
+		if (parent.children != null) {
+			for (Node child : parent.children) {
+				remove(child);
+			}
+		}
+		parent.children = new ArrayList<>();
+		for (Map<String, Object> child : (List<Map<String, Object>>) params.get("nodes")) {
+			parent.children.add(add(child, parent));
+		}
+		parent.childNodeCount = parent.children.size();
+		mutations.incrementAndGet();
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized void onChildNodeInserted(Map<String, Object> params) {
+		Node parent = nodes.get(((Number) params.get("parentNodeId")).intValue());
+		if (parent == null || parent.children == null) {
+			return;
+		}
+		int previousNodeId = ((Number) params.get("previousNodeId")).intValue();
+		int position = 0;
+		if (previousNodeId != 0) {
+			for (int index = 0; index < parent.children.size(); index++) {
+				if (parent.children.get(index).nodeId == previousNodeId) {
+					position = index + 1;
+					break;
+				}
+			}
+		}
+		parent.children.add(position, add((Map<String, Object>) params.get("node"), parent));
+		parent.childNodeCount = parent.children.size();
+		mutations.incrementAndGet();
+	}
+
+	private synchronized void onChildNodeRemoved(Map<String, Object> params) {
+		Node parent = nodes.get(((Number) params.get("parentNodeId")).intValue());
+		Node node = nodes.get(((Number) params.get("nodeId")).intValue());
+		if (node == null) {
+			return;
+		}
+		if (parent != null && parent.children != null) {
+			parent.children.remove(node);
+			parent.childNodeCount = parent.children.size();
+		}
+		remove(node);
+		mutations.incrementAndGet();
+	}
+
+	private synchronized void onChildNodeCountUpdated(Map<String, Object> params) {
+		Node node = nodes.get(((Number) params.get("nodeId")).intValue());
+		if (node != null) {
+			node.childNodeCount = ((Number) params.get("childNodeCount")).intValue();
+			if (node.children == null && node.childNodeCount > 0) {
+				requestChildNodes(node.nodeId);
+			}
+			mutations.incrementAndGet();
+		}
+	}
+
+	private synchronized void onAttributeModified(Map<String, Object> params) {
+		Node node = nodes.get(((Number) params.get("nodeId")).intValue());
+		if (node != null) {
+			node.attributes.put((String) params.get("name"), (String) params.get("value"));
+			mutations.incrementAndGet();
+		}
+	}
+
+	private synchronized void onAttributeRemoved(Map<String, Object> params) {
+		Node node = nodes.get(((Number) params.get("nodeId")).intValue());
+		if (node != null) {
+			node.attributes.remove(params.get("name"));
+			mutations.incrementAndGet();
+		}
+	}
+
+	private synchronized void onCharacterDataModified(Map<String, Object> params) {
+		Node node = nodes.get(((Number) params.get("nodeId")).intValue());
+		if (node != null) {
+			node.nodeValue = (String) params.get("characterData");
+			mutations.incrementAndGet();
+		}
+	}
+
+	private static void collect(Node node, Predicate<Node> predicate, List<Node> result) {
+		if (predicate.test(node)) {
+			result.add(node);
+		}
+		if (node.children != null) {
+			for (Node child : node.children) {
+				collect(child, predicate, result);
+			}
+		}
+	}
+
+	private static boolean isComplete(Node node) {
+		if (node.children == null) {
+			return node.childNodeCount == 0;
+		}
+		for (Node child : node.children) {
+			if (!isComplete(child)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// https://html.spec.whatwg.org/multipage/parsing.html#serialising-html-fragments
+	private static void serialize(Node node, StringBuilder html) {
+		switch (node.nodeType) {
+		case 1:
+			html.append('<').append(node.localName);
+			for (Map.Entry<String, String> attribute : node.attributes.entrySet()) {
+				html.append(' ').append(attribute.getKey()).append("=\"")
+						.append(escape(attribute.getValue(), true)).append('"');
+			}
+			html.append('>');
+			if (voidElements.contains(node.localName)) {
+				return;
+			}
+			serializeChildren(node, html);
+			html.append("</").append(node.localName).append('>');
+			break;
+		case 3:
+			html.append((node.parent != null && rawTextElements.contains(node.parent.localName)) ? node.nodeValue
+					: escape(node.nodeValue, false));
+			break;
+		case 8:
+			html.append("<!--").append(node.nodeValue).append("-->");
+			break;
+		case 10:
+			html.append("<!DOCTYPE ").append(node.nodeName).append('>');
+			break;
+		default:
+			// document and fragments
+			serializeChildren(node, html);
+		}
+	}
+
+	private static void serializeChildren(Node node, StringBuilder html) {
+		if (node.children != null) {
+			for (Node child : node.children) {
+				serialize(child, html);
+			}
+		}
+	}
+
+	private static String escape(String text, boolean attribute) {
+		StringBuilder result = new StringBuilder(text.length());
+		for (int index = 0; index < text.length(); index++) {
+			char c = text.charAt(index);
+			if (c == '&') {
+				result.append("&amp;");
+			} else if (c == ' ') {
+				result.append("&nbsp;");
+			} else if (attribute && c == '"') {
+				result.append("&quot;");
+			} else if (!attribute && c == '<') {
+				result.append("&lt;");
+			} else if (!attribute && c == '>') {
+				result.append("&gt;");
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#type-Node
+	public static class Node {
+		private final int nodeId;
+		private final Node parent;
+		private final int nodeType;
+		private final String nodeName;
+		private final String localName;
+		private String nodeValue;
+		private final Map<String, String> attributes = new LinkedHashMap<>();
+		// null when not loaded
+		private List<Node> children = null;
+		private int childNodeCount;
+
+		@SuppressWarnings("unchecked")
+		Node(Map<String, Object> data, Node parent) {
+			this.parent = parent;
+			nodeId = ((Number) data.get("nodeId")).intValue();
+			nodeType = ((Number) data.get("nodeType")).intValue();
+			nodeName = (String) data.get("nodeName");
+			localName = (String) data.get("localName");
+			nodeValue = (String) data.get("nodeValue");
+			childNodeCount = (data.get("childNodeCount") instanceof Number)
+					? ((Number) data.get("childNodeCount")).intValue() : 0;
+			// flat name, value list
+			if (data.get("attributes") instanceof List) {
+				List<String> list = (List<String>) data.get("attributes");
+				for (int index = 0; index + 1 < list.size(); index += 2) {
+					attributes.put(list.get(index), list.get(index + 1));
+				}
+			}
+		}
+
+		public int getNodeId() {
+			return nodeId;
+		}
+
+		public Node getParent() {
+			return parent;
+		}
+
+		public int getNodeType() {
+			return nodeType;
+		}
+
+		public String getNodeName() {
+			return nodeName;
+		}
+
+		public String getLocalName() {
+			return localName;
+		}
+
+		public String getNodeValue() {
+			return nodeValue;
+		}
+
+		public String getAttribute(String name) {
+			return attributes.get(name);
+		}
+
+		public Map<String, String> getAttributes() {
+			return Collections.unmodifiableMap(attributes);
+		}
+
+		public List<Node> getChildren() {
+			return (children == null) ? Collections.emptyList() : Collections.unmodifiableList(children);
+		}
+
+		public int getChildNodeCount() {
+			return childNodeCount;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s#%d%s", nodeName, nodeId, attributes);
+		}
+	}
+}
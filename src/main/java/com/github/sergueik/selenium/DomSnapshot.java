@@ -0,0 +1,473 @@
+package com.github.sergueik.selenium;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * The whole document, its layout boxes and the requested computed styles,
+ * fetched with a single DOMSnapshot.captureSnapshot call and kept as the
+ * string table indexed columns the browser sends, flattened into int arrays
+ * indexed by the node position (in document order). Extracting e.g. every
+ * cell of a large table is one round trip instead of a DOM.getOuterHTML per
+ * node.
+ *
+ * <pre>
+ * DomSnapshot snapshot = DomSnapshot.capture(connection, "display");
+ * int table = snapshot.findByAttribute("id", "example")[0];
+ * List&lt;List&lt;String&gt;&gt; rows = snapshot.getTable(table);
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOMSnapshot#method-captureSnapshot
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOMSnapshot#type-NodeTreeSnapshot
+ */
+public class DomSnapshot {
+
+	private static boolean debug = false;
+	private static final int textNode = 3;
+
+	private final String[] strings;
+	private final String[] computedStyles;
+	private final int size;
+	// node columns, string valued ones hold string table indices or -1
+	private final int[] parent;
+	private final int[] nodeType;
+	private final int[] nodeName;
+	private final int[] nodeValue;
+	private final int[] backendNodeId;
+	private final int[] document;
+	// exclusive end of the subtree of the node: descendants are contiguous
+	private final int[] subtreeEnd;
+	// attributes of node i are at attributeStart[i] .. attributeStart[i + 1]
+	private final int[] attributeStart;
+	private final int[] attributeName;
+	private final int[] attributeValue;
+	// sparse input values: sorted node indices and their values
+	private final int[] inputValueNode;
+	private final int[] inputValue;
+	// layout columns, layoutIndex[i] is -1 for the nodes not rendered
+	private final int[] layoutIndex;
+	private final double[] bounds;
+	private final int[] styles;
+	private final String[] documentURL;
+
+	private DomSnapshot(Map<String, Object> result, String[] computedStyles) {
+		this.computedStyles = computedStyles;
+		strings = toStrings(result.get("strings"));
+		List<Map<String, Object>> documents = getList(result, "documents");
+		int total = 0;
+		int layoutTotal = 0;
+		int attributeTotal = 0;
+		int inputTotal = 0;
+		for (Map<String, Object> data : documents) {
+			Map<String, Object> nodes = getMap(data, "nodes");
+			total += getList(nodes, "parentIndex").size();
+			for (List<Object> attributes : DomSnapshot.<List<Object>> getList(nodes, "attributes")) {
+				attributeTotal += attributes.size() / 2;
+			}
+			inputTotal += getList(getMap(nodes, "inputValue"), "index").size();
+			layoutTotal += getList(getMap(data, "layout"), "nodeIndex").size();
+		}
+		size = total;
+		parent = new int[size];
+		nodeType = new int[size];
+		nodeName = new int[size];
+		nodeValue = new int[size];
+		backendNodeId = new int[size];
+		document = new int[size];
+		subtreeEnd = new int[size];
+		attributeStart = new int[size + 1];
+		attributeName = new int[attributeTotal];
+		attributeValue = new int[attributeTotal];
+		inputValueNode = new int[inputTotal];
+		inputValue = new int[inputTotal];
+		layoutIndex = new int[size];
+		Arrays.fill(layoutIndex, -1);
+		bounds = new double[layoutTotal * 4];
+		styles = new int[layoutTotal * computedStyles.length];
+		documentURL = new String[documents.size()];
+
+		int base = 0;
+		int layoutBase = 0;
+		int attributeCount = 0;
+		int inputCount = 0;
+		for (int documentIndex = 0; documentIndex < documents.size(); documentIndex++) {
+			Map<String, Object> data = documents.get(documentIndex);
+			documentURL[documentIndex] = getString(data.get("documentURL"));
+			Map<String, Object> nodes = getMap(data, "nodes");
+			int count = getList(nodes, "parentIndex").size();
+			copy(nodes, "parentIndex", parent, base, count, -1);
+			copy(nodes, "nodeType", nodeType, base, count, 0);
+			copy(nodes, "nodeName", nodeName, base, count, -1);
+			copy(nodes, "nodeValue", nodeValue, base, count, -1);
+			copy(nodes, "backendNodeId", backendNodeId, base, count, 0);
+			List<List<Object>> attributes = getList(nodes, "attributes");
+			for (int index = 0; index < count; index++) {
+				int node = base + index;
+				document[node] = documentIndex;
+				if (parent[node] >= 0) {
+					parent[node] += base;
+				}
+				attributeStart[node] = attributeCount;
+				if (index < attributes.size()) {
+					List<Object> pairs = attributes.get(index);
+					for (int position = 0; position + 1 < pairs.size(); position += 2) {
+						attributeName[attributeCount] = ((Number) pairs.get(position)).intValue();
+						attributeValue[attributeCount] = ((Number) pairs.get(position + 1)).intValue();
+						attributeCount++;
+					}
+				}
+			}
+			Map<String, Object> rareInputValue = getMap(nodes, "inputValue");
+			List<Object> inputIndex = getList(rareInputValue, "index");
+			List<Object> inputValues = getList(rareInputValue, "value");
+			for (int index = 0; index < inputIndex.size(); index++) {
+				inputValueNode[inputCount] = base + ((Number) inputIndex.get(index)).intValue();
+				inputValue[inputCount] = ((Number) inputValues.get(index)).intValue();
+				inputCount++;
+			}
+
+			Map<String, Object> layout = getMap(data, "layout");
+			List<Object> layoutNodes = getList(layout, "nodeIndex");
+			List<List<Object>> layoutBounds = getList(layout, "bounds");
+			List<List<Object>> layoutStyles = getList(layout, "styles");
+			for (int index = 0; index < layoutNodes.size(); index++) {
+				int layoutNode = layoutBase + index;
+				int node = base + ((Number) layoutNodes.get(index)).intValue();
+				// a node may have several layout objects, keep the first
+				if (layoutIndex[node] < 0) {
+					layoutIndex[node] = layoutNode;
+				}
+				if (index < layoutBounds.size()) {
+					List<Object> rect = layoutBounds.get(index);
+					for (int position = 0; position < 4 && position < rect.size(); position++) {
+						bounds[layoutNode * 4 + position] = ((Number) rect.get(position)).doubleValue();
+					}
+				}
+				for (int position = 0; position < computedStyles.length; position++) {
+					styles[layoutNode * computedStyles.length + position] = (index < layoutStyles.size()
+							&& position < layoutStyles.get(index).size())
+									? ((Number) layoutStyles.get(index).get(position)).intValue() : -1;
+				}
+			}
+			base += count;
+			layoutBase += layoutNodes.size();
+		}
+		attributeStart[size] = attributeCount;
+		// the nodes are in document order: a parent precedes its subtree
+		for (int node = 0; node < size; node++) {
+			subtreeEnd[node] = node + 1;
+		}
+		for (int node = size - 1; node >= 0; node--) {
+			if (parent[node] >= 0 && subtreeEnd[node] > subtreeEnd[parent[node]]) {
+				subtreeEnd[parent[node]] = subtreeEnd[node];
+			}
+		}
+		sortInputValues();
+	}
+
+	// one round trip for the document, the layout and the computed styles
+	public static DomSnapshot capture(CdpConnection connection, String... computedStyles) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("computedStyles", Arrays.asList(computedStyles));
+		params.put("includeDOMRects", false);
+		params.put("includePaintOrder", false);
+		long started = System.currentTimeMillis();
+		Map<String, Object> result = connection.execute("DOMSnapshot.captureSnapshot", params);
+		DomSnapshot snapshot = new DomSnapshot(result, computedStyles);
+		if (debug) {
+			System.err.println(String.format("Captured %d nodes, %d strings in %d ms", snapshot.size,
+					snapshot.strings.length, System.currentTimeMillis() - started));
+		}
+		return snapshot;
+	}
+
+	// number of nodes, of all the documents (frames)
+	public int size() {
+		return size;
+	}
+
+	public String getDocumentURL(int documentIndex) {
+		return documentURL[documentIndex];
+	}
+
+	public int getDocument(int node) {
+		return document[node];
+	}
+
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	public int getNodeType(int node) {
+		return nodeType[node];
+	}
+
+	// upper case for the HTML elements, as DOM nodeName
+	public String getNodeName(int node) {
+		return getString(nodeName[node]);
+	}
+
+	public String getNodeValue(int node) {
+		return getString(nodeValue[node]);
+	}
+
+	// for DOM.describeNode, DOM.resolveNode etc. on the node
+	public int getBackendNodeId(int node) {
+		return backendNodeId[node];
+	}
+
+	public int[] getChildren(int node) {
+		int count = 0;
+		for (int child = node + 1; child < subtreeEnd[node]; child = subtreeEnd[child]) {
+			count++;
+		}
+		int[] children = new int[count];
+		for (int child = node + 1, index = 0; child < subtreeEnd[node]; child = subtreeEnd[child]) {
+			children[index++] = child;
+		}
+		return children;
+	}
+
+	public String getAttribute(int node, String name) {
+		for (int index = attributeStart[node]; index < attributeStart[node + 1]; index++) {
+			if (name.equals(strings[attributeName[index]])) {
+				return getString(attributeValue[index]);
+			}
+		}
+		return null;
+	}
+
+	public Map<String, String> getAttributes(int node) {
+		Map<String, String> attributes = new HashMap<>();
+		for (int index = attributeStart[node]; index < attributeStart[node + 1]; index++) {
+			attributes.put(strings[attributeName[index]], getString(attributeValue[index]));
+		}
+		return attributes;
+	}
+
+	// current value of input and textarea elements
+	public String getInputValue(int node) {
+		int index = Arrays.binarySearch(inputValueNode, node);
+		return (index < 0) ? null : getString(inputValue[index]);
+	}
+
+	// text content of the subtree, without the script and style elements
+	public String getText(int node) {
+		StringBuilder text = new StringBuilder();
+		for (int descendant = node; descendant < subtreeEnd[node];) {
+			if (nodeType[descendant] == textNode && nodeValue[descendant] >= 0) {
+				text.append(strings[nodeValue[descendant]]);
+			}
+			String name = getString(nodeName[descendant]);
+			descendant = (descendant != node && ("SCRIPT".equals(name) || "STYLE".equals(name)))
+					? subtreeEnd[descendant] : descendant + 1;
+		}
+		return text.toString();
+	}
+
+	// x, y, width, height in CSS pixels of the document, null when not
+	// rendered
+	public double[] getBounds(int node) {
+		int layout = layoutIndex[node];
+		return (layout < 0) ? null : Arrays.copyOfRange(bounds, layout * 4, layout * 4 + 4);
+	}
+
+	public boolean isRendered(int node) {
+		return layoutIndex[node] >= 0;
+	}
+
+	// one of the computed styles passed to capture
+	public String getStyle(int node, String property) {
+		int position = Arrays.asList(computedStyles).indexOf(property);
+		if (position < 0) {
+			throw new IllegalArgumentException("Computed style " + property + " was not captured");
+		}
+		int layout = layoutIndex[node];
+		return (layout < 0) ? null : getString(styles[layout * computedStyles.length + position]);
+	}
+
+	// node indices in document order
+	public int[] find(IntPredicate predicate) {
+		int[] result = new int[16];
+		int count = 0;
+		for (int node = 0; node < size; node++) {
+			if (predicate.test(node)) {
+				if (count == result.length) {
+					result = Arrays.copyOf(result, count * 2);
+				}
+				result[count++] = node;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	public int[] findByTag(String tagName) {
+		// compare string table indices, not strings, in the scan
+		boolean[] matches = matchStrings(o -> o.equalsIgnoreCase(tagName));
+		return find(node -> nodeType[node] == 1 && nodeName[node] >= 0 && matches[nodeName[node]]);
+	}
+
+	// any value when value is null
+	public int[] findByAttribute(String name, String value) {
+		boolean[] names = matchStrings(o -> o.equals(name));
+		boolean[] values = (value == null) ? null : matchStrings(o -> o.equals(value));
+		return find(node -> {
+			for (int index = attributeStart[node]; index < attributeStart[node + 1]; index++) {
+				if (names[attributeName[index]] && (values == null || values[attributeValue[index]])) {
+					return true;
+				}
+			}
+			return false;
+		});
+	}
+
+	// elements having a text node child containing the text
+	public int[] findByText(String text) {
+		boolean[] matches = matchStrings(o -> o.contains(text));
+		return find(node -> {
+			if (nodeType[node] != 1) {
+				return false;
+			}
+			for (int child = node + 1; child < subtreeEnd[node]; child = subtreeEnd[child]) {
+				if (nodeType[child] == textNode && nodeValue[child] >= 0 && matches[nodeValue[child]]) {
+					return true;
+				}
+			}
+			return false;
+		});
+	}
+
+	// rendered nodes intersecting the rectangle
+	public int[] findInRect(double x, double y, double width, double height) {
+		return find(node -> {
+			int layout = layoutIndex[node];
+			if (layout < 0) {
+				return false;
+			}
+			int offset = layout * 4;
+			return bounds[offset] < x + width && bounds[offset] + bounds[offset + 2] > x && bounds[offset + 1] < y + height
+					&& bounds[offset + 1] + bounds[offset + 3] > y;
+		});
+	}
+
+	// descendants of the node with the tag name
+	public int[] findByTag(int node, String tagName) {
+		boolean[] matches = matchStrings(o -> o.equalsIgnoreCase(tagName));
+		int[] result = new int[16];
+		int count = 0;
+		for (int descendant = node + 1; descendant < subtreeEnd[node]; descendant++) {
+			if (nodeType[descendant] == 1 && nodeName[descendant] >= 0 && matches[nodeName[descendant]]) {
+				if (count == result.length) {
+					result = Arrays.copyOf(result, count * 2);
+				}
+				result[count++] = descendant;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	// trimmed text of the TD and TH cells of every TR of the table, nested
+	// tables excluded
+	public List<List<String>> getTable(int table) {
+		List<List<String>> rows = new ArrayList<>();
+		for (int row : findByTag(table, "tr")) {
+			if (closest(row, "TABLE") != table) {
+				continue;
+			}
+			List<String> cells = new ArrayList<>();
+			for (int cell : getChildren(row)) {
+				String name = getNodeName(cell);
+				if ("TD".equals(name) || "TH".equals(name)) {
+					cells.add(getText(cell).trim());
+				}
+			}
+			rows.add(cells);
+		}
+		return rows;
+	}
+
+	private int closest(int node, String name) {
+		for (int ancestor = parent[node]; ancestor >= 0; ancestor = parent[ancestor]) {
+			if (name.equals(getString(nodeName[ancestor]))) {
+				return ancestor;
+			}
+		}
+		return -1;
+	}
+
+	private boolean[] matchStrings(Predicate<String> predicate) {
+		boolean[] matches = new boolean[strings.length];
+		for (int index = 0; index < strings.length; index++) {
+			matches[index] = predicate.test(strings[index]);
+		}
+		return matches;
+	}
+
+	private void sortInputValues() {
+		// the rare data of each document is sorted already, documents are in order
+		for (int index = 1; index < inputValueNode.length; index++) {
+			if (inputValueNode[index] < inputValueNode[index - 1]) {
+				Integer[] order = new Integer[inputValueNode.length];
+				for (int position = 0; position < order.length; position++) {
+					order[position] = position;
+				}
+				Arrays.sort(order, (a, b) -> Integer.compare(inputValueNode[a], inputValueNode[b]));
+				int[] nodes = inputValueNode.clone();
+				int[] values = inputValue.clone();
+				for (int position = 0; position < order.length; position++) {
+					inputValueNode[position] = nodes[order[position]];
+					inputValue[position] = values[order[position]];
+				}
+				return;
+			}
+		}
+	}
+
+	private String getString(Object index) {
+		return (index instanceof Number) ? getString(((Number) index).intValue()) : null;
+	}
+
+	private String getString(int index) {
+		return (index >= 0 && index < strings.length) ? strings[index] : null;
+	}
+
+	private static String[] toStrings(Object data) {
+		if (!(data instanceof List)) {
+			return new String[0];
+		}
+		List<?> list = (List<?>) data;
+		String[] result = new String[list.size()];
+		for (int index = 0; index < result.length; index++) {
+			result[index] = String.valueOf(list.get(index));
+		}
+		return result;
+	}
+
+	private static void copy(Map<String, Object> nodes, String name, int[] column, int base, int count,
+			int defaultValue) {
+		List<Object> values = getList(nodes, name);
+		for (int index = 0; index < count; index++) {
+			column[base + index] = (index < values.size() && values.get(index) instanceof Number)
+					? ((Number) values.get(index)).intValue() : defaultValue;
+		}
+	}
+
+	// the empty arrays are omitted by the browser
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> getList(Map<String, Object> data, String name) {
+		Object value = data.get(name);
+		return (value instanceof List) ? (List<T>) value : Collections.emptyList();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getMap(Map<String, Object> data, String name) {
+		Object value = data.get(name);
+		return (value instanceof Map) ? (Map<String, Object>) value : Collections.emptyMap();
+	}
+}
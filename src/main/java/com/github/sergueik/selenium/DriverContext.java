@@ -0,0 +1,82 @@
+package com.github.sergueik.selenium;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.chromium.ChromiumDriver;
+
+/**
+ * The browser session of the current thread: the driver, its script executor
+ * and the pool lease it came from, if any. Utils.setDriver binds the driver
+ * to the calling thread only, so the test methods run concurrently by
+ * ParallelRunner each see their own browser e.g.
+ *
+ * <pre>
+ * DriverContext.bind(BrowserPool.getDefault().acquire());
+ * ChromiumDriver driver = DriverContext.current().getDriver();
+ * ...
+ * DriverContext.release();
+ * </pre>
+ */
+public class DriverContext {
+
+	private static final ThreadLocal<DriverContext> contexts = new ThreadLocal<>();
+
+	private final ChromiumDriver driver;
+	private final JavascriptExecutor js;
+	private final BrowserPool.Lease lease;
+
+	private DriverContext(ChromiumDriver driver, BrowserPool.Lease lease) {
+		if (!(driver instanceof JavascriptExecutor)) {
+			throw new RuntimeException("Script executor initialization failed.");
+		}
+		this.driver = driver;
+		this.js = JavascriptExecutor.class.cast(driver);
+		this.lease = lease;
+	}
+
+	public static DriverContext bind(ChromiumDriver driver) {
+		DriverContext context = new DriverContext(driver, null);
+		contexts.set(context);
+		return context;
+	}
+
+	// the lease is returned to the pool by release
+	public static DriverContext bind(BrowserPool.Lease lease) {
+		DriverContext context = new DriverContext(lease.getDriver(), lease);
+		contexts.set(context);
+		return context;
+	}
+
+	public static DriverContext current() {
+		DriverContext context = contexts.get();
+		if (context == null) {
+			throw new IllegalStateException("No driver bound to thread " + Thread.currentThread().getName());
+		}
+		return context;
+	}
+
+	public static boolean isBound() {
+		return contexts.get() != null;
+	}
+
+	// unbinds the driver of the thread and returns its lease, if any
+	public static void release() {
+		DriverContext context = contexts.get();
+		contexts.remove();
+		if (context != null && context.lease != null) {
+			context.lease.close();
+		}
+	}
+
+	public ChromiumDriver getDriver() {
+		return driver;
+	}
+
+	public JavascriptExecutor getJavascriptExecutor() {
+		return js;
+	}
+
+	// null when the driver was not leased from a pool
+	public BrowserPool.Lease getLease() {
+		return lease;
+	}
+}
@@ -0,0 +1,302 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.devtools.DevTools;
+import org.openqa.selenium.devtools.Event;
+
+/**
+ * Decouples the DevTools event handlers from the connection thread: the
+ * listener registered with DevTools.addListener (or
+ * CdpConnection.addListener) only enqueues the event, the handlers run on
+ * the executor of the bus. A slow handler (assertions, console printing)
+ * then no longer delays the other events and the command responses read by
+ * the same thread e.g.
+ *
+ * <pre>
+ * EventBus bus = new EventBus();
+ * bus.setCapacity(Network.requestWillBeSent().getMethod(), 256, EventBus.OverflowPolicy.DROP_OLDEST);
+ * bus.subscribe(chromeDevTools, Network.requestWillBeSent(), o -> System.err.println(o.getRequest().getUrl()));
+ * driver.get("https://apache.org");
+ * bus.flush(Duration.ofSeconds(5));
+ * bus.getDroppedCount(Network.requestWillBeSent().getMethod());
+ * </pre>
+ *
+ * Every event type has its own queue, drained by one task at a time, so the
+ * handlers of a type see its events in order. A handler failing (e.g. its
+ * assertion) does not stop the others, flush rethrows the first failure.
+ */
+public class EventBus implements Closeable {
+
+	private static boolean debug = false;
+	private static final int defaultCapacity = 1024;
+
+	// what to do with an event arriving when its queue is full
+	public enum OverflowPolicy {
+		// discard the oldest queued event
+		DROP_OLDEST,
+		// hold the connection thread until there is room: applies back
+		// pressure to the browser, delays everything else on the connection
+		BLOCK,
+		// past half the capacity queue one event in sampleRate, discard the
+		// others and the events arriving when full
+		SAMPLE
+	}
+
+	private final Executor executor;
+	// shut down on close when created by the bus
+	private final ExecutorService ownExecutor;
+	private final Map<String, Channel<?>> channels = new ConcurrentHashMap<>();
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	// the first handler failure since the last flush
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private int sampleRate = 10;
+
+	// handlers run on virtual threads where the runtime has them
+	public EventBus() {
+		this(createDefaultExecutor());
+	}
+
+	private EventBus(ExecutorService executor) {
+		this.executor = executor;
+		this.ownExecutor = executor;
+	}
+
+	public EventBus(Executor executor) {
+		this.executor = executor;
+		this.ownExecutor = null;
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() on Java 21 and later, a
+	// cached pool of daemon threads otherwise
+	public static ExecutorService createDefaultExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger count = new AtomicInteger(0);
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "event-bus-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	// applies to the events of the type queued from now on
+	public void setCapacity(String method, int capacity, OverflowPolicy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		}
+		Channel<?> channel = getChannel(method);
+		channel.capacity = capacity;
+		channel.policy = policy;
+	}
+
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	// the first subscription of the event type registers the DevTools
+	// listener, later ones share its queue
+	public <X> void subscribe(DevTools devTools, Event<X> event, Consumer<X> handler) {
+		Channel<X> channel = getChannel(event.getMethod());
+		channel.handlers.add(handler);
+		if (channel.registered.compareAndSet(false, true)) {
+			devTools.addListener(event, channel::offer);
+		}
+	}
+
+	// the same for the raw events of the connection
+	public void subscribe(CdpConnection connection, String method, Consumer<Map<String, Object>> handler) {
+		Channel<Map<String, Object>> channel = getChannel(method);
+		channel.handlers.add(handler);
+		if (channel.registered.compareAndSet(false, true)) {
+			connection.addListener(method, channel::offer);
+		}
+	}
+
+	public long getDroppedCount(String method) {
+		Channel<?> channel = channels.get(method);
+		return (channel == null) ? 0 : channel.dropped.get();
+	}
+
+	public Map<String, Long> getDroppedCounts() {
+		Map<String, Long> result = new HashMap<>();
+		for (Map.Entry<String, Channel<?>> entry : channels.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().dropped.get());
+		}
+		return result;
+	}
+
+	// events handled so far
+	public long getDeliveredCount(String method) {
+		Channel<?> channel = channels.get(method);
+		return (channel == null) ? 0 : channel.delivered.get();
+	}
+
+	// events waiting for the handlers
+	public int getQueuedCount(String method) {
+		Channel<?> channel = channels.get(method);
+		return (channel == null) ? 0 : channel.size.get();
+	}
+
+	// waits until the events queued so far have been handled, then rethrows
+	// the first exception or assertion error of a handler, if any
+	public void flush(Duration timeout) {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		while (!isIdle()) {
+			if (System.nanoTime() > deadline) {
+				throw new TimeoutException(String.format("Events were not handled in %s", timeout));
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		Throwable e = failure.getAndSet(null);
+		if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw (RuntimeException) e;
+		}
+	}
+
+	// the listeners stay registered with DevTools (it has no way to remove
+	// one), the events arriving later are discarded
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true) && ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+	}
+
+	private boolean isIdle() {
+		for (Channel<?> channel : channels.values()) {
+			if (channel.size.get() > 0 || channel.draining.get()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <X> Channel<X> getChannel(String method) {
+		return (Channel<X>) channels.computeIfAbsent(method, o -> new Channel<X>(o));
+	}
+
+	// the queue of one event type: any thread enqueues, the single drain
+	// task dequeues
+	private class Channel<X> {
+		private final String method;
+		private final Queue<X> queue = new ConcurrentLinkedQueue<>();
+		// the queue does not track its size in constant time
+		private final AtomicInteger size = new AtomicInteger(0);
+		private final AtomicBoolean draining = new AtomicBoolean(false);
+		private final AtomicBoolean registered = new AtomicBoolean(false);
+		private final List<Consumer<X>> handlers = new CopyOnWriteArrayList<>();
+		private final AtomicLong dropped = new AtomicLong(0);
+		private final AtomicLong delivered = new AtomicLong(0);
+		private final AtomicLong overflowing = new AtomicLong(0);
+		private volatile int capacity = defaultCapacity;
+		private volatile OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+
+		Channel(String method) {
+			this.method = method;
+		}
+
+		// runs on the connection thread: never calls a handler
+		void offer(X event) {
+			if (closed.get()) {
+				return;
+			}
+			switch (policy) {
+			case DROP_OLDEST:
+				while (size.get() >= capacity) {
+					if (queue.poll() != null) {
+						size.decrementAndGet();
+						drop();
+					}
+				}
+				break;
+			case BLOCK:
+				while (size.get() >= capacity && !closed.get()) {
+					LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+				}
+				break;
+			case SAMPLE:
+				int queued = size.get();
+				if (queued >= capacity || (queued >= capacity / 2 && overflowing.getAndIncrement() % sampleRate != 0)) {
+					drop();
+					return;
+				}
+				if (queued < capacity / 2) {
+					overflowing.set(0);
+				}
+				break;
+			}
+			queue.offer(event);
+			size.incrementAndGet();
+			schedule();
+		}
+
+		private void drop() {
+			long count = dropped.incrementAndGet();
+			if (debug && (count & (count - 1)) == 0) {
+				System.err.println(String.format("Dropped %d %s events", count, method));
+			}
+		}
+
+		private void schedule() {
+			if (draining.compareAndSet(false, true)) {
+				try {
+					executor.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					draining.set(false);
+				}
+			}
+		}
+
+		private void drain() {
+			try {
+				for (X event = queue.poll(); event != null; event = queue.poll()) {
+					size.decrementAndGet();
+					for (Consumer<X> handler : handlers) {
+						try {
+							handler.accept(event);
+						} catch (RuntimeException | AssertionError e) {
+							failure.compareAndSet(null, e);
+							System.err.println("Exception in " + method + " handler: " + e.toString());
+						}
+					}
+					delivered.incrementAndGet();
+				}
+			} finally {
+				draining.set(false);
+			}
+			// an event enqueued after the last poll but before the flag was
+			// cleared would otherwise wait for the next one
+			if (!queue.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.openqa.selenium.json.Json;
+
+/**
+ * Waits completed by the CDP events of the page instead of polling the
+ * ExpectedConditions through WebDriverWait: the load and lifecycle events,
+ * network idle (no request in flight for the given quiet period) and
+ * javascript conditions, which are evaluated once and then only again when a
+ * DOM mutation or navigation event arrives e.g.
+ *
+ * <pre>
+ * EventWait events = new EventWait(connection).enable();
+ * CompletableFuture<Map<String, Object>> loaded = events.load();
+ * element.click();
+ * events.await(loaded);
+ * events.await(events.visible("#searchInput"));
+ * </pre>
+ *
+ * The futures of the page events need to be obtained before the action
+ * triggering them.
+ * https://chromedevtools.github.io/devtools-protocol/tot/Page#event-lifecycleEvent
+ * https://chromedevtools.github.io/devtools-protocol/tot/Network#event-requestWillBeSent
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOM#event-childNodeInserted
+ */
+public class EventWait implements Closeable {
+
+	private static boolean debug = false;
+	private static final Json json = new Json();
+	// DOM events are only sent for the nodes known to the client, enable()
+	// requests the whole tree
+	private static final String[] domEvents = { "DOM.setChildNodes", "DOM.childNodeInserted",
+			"DOM.childNodeRemoved", "DOM.attributeModified", "DOM.attributeRemoved", "DOM.characterDataModified" };
+
+	private final CdpConnection connection;
+	private final Map<String, Consumer<Map<String, Object>>> listeners = new HashMap<>();
+	// request ids in flight and the counter of the network events seen
+	private final Set<String> requests = ConcurrentHashMap.newKeySet();
+	private final AtomicLong networkActivity = new AtomicLong(0);
+	private final List<IdleWaiter> idleWaiters = new CopyOnWriteArrayList<>();
+	private final List<ConditionWaiter> conditionWaiters = new CopyOnWriteArrayList<>();
+	private volatile String mainFrameId = null;
+	private Duration timeout = Duration.ofSeconds(10);
+
+	public EventWait(CdpConnection connection) {
+		this.connection = connection;
+		listeners.put("Network.requestWillBeSent", this::onRequestStarted);
+		listeners.put("Network.loadingFinished", this::onRequestFinished);
+		listeners.put("Network.loadingFailed", this::onRequestFinished);
+		listeners.put("Page.frameNavigated", this::onFrameNavigated);
+		listeners.put("Page.navigatedWithinDocument", params -> recheck());
+		listeners.put("Page.loadEventFired", params -> recheck());
+		listeners.put("DOM.documentUpdated", this::onDocumentUpdated);
+		for (String method : domEvents) {
+			listeners.put(method, params -> recheck());
+		}
+	}
+
+	// subscribes to the events, to be called once
+	@SuppressWarnings("unchecked")
+	public EventWait enable() {
+		for (Map.Entry<String, Consumer<Map<String, Object>>> entry : listeners.entrySet()) {
+			connection.addListener(entry.getKey(), entry.getValue());
+		}
+		Map<String, Object> params = new HashMap<>();
+		params.put("enabled", true);
+		List<CompletableFuture<?>> replies = new ArrayList<>();
+		replies.add(connection.send("Page.enable", new HashMap<>()));
+		replies.add(connection.send("Page.setLifecycleEventsEnabled", params));
+		replies.add(connection.send("Network.enable", new HashMap<>()));
+		replies.add(requestDocument());
+		CompletableFuture<Map<String, Object>> frameTree = connection.send("Page.getFrameTree", new HashMap<>());
+		replies.add(frameTree);
+		CdpConnection.await(CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])), "event wait setup",
+				connection.getTimeout());
+		mainFrameId = (String) ((Map<String, Object>) ((Map<String, Object>) frameTree.join().get("frameTree"))
+				.get("frame")).get("id");
+		return this;
+	}
+
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getInFlightCount() {
+		return requests.size();
+	}
+
+	// completes with the parameters of the next matching event
+	public CompletableFuture<Map<String, Object>> event(String method, Predicate<Map<String, Object>> filter) {
+		CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+		Consumer<Map<String, Object>> listener = params -> {
+			if (filter.test(params)) {
+				result.complete(params);
+			}
+		};
+		connection.addListener(method, listener);
+		result.whenComplete((data, e) -> connection.removeListener(method, listener));
+		return CdpAsyncClient.withDeadline(result, method, timeout);
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Page#event-loadEventFired
+	public CompletableFuture<Map<String, Object>> load() {
+		return event("Page.loadEventFired", params -> true);
+	}
+
+	// lifecycle event of the main frame e.g. "DOMContentLoaded", "load",
+	// "firstMeaningfulPaint" or "networkIdle"
+	public CompletableFuture<Map<String, Object>> lifecycle(String name) {
+		return event("Page.lifecycleEvent", params -> name.equals(params.get("name"))
+				&& (mainFrameId == null || mainFrameId.equals(params.get("frameId"))));
+	}
+
+	// completes once no request has been in flight for the quiet period
+	public CompletableFuture<Void> networkIdle(Duration quiet) {
+		IdleWaiter waiter = new IdleWaiter(quiet);
+		idleWaiters.add(waiter);
+		waiter.result.whenComplete((data, e) -> idleWaiters.remove(waiter));
+		if (requests.isEmpty()) {
+			schedule(waiter, networkActivity.get());
+		}
+		return CdpAsyncClient.withDeadline(waiter.result, "network idle", timeout);
+	}
+
+	// completes with the value of the javascript expression once it is truthy
+	public CompletableFuture<Object> until(String expression) {
+		ConditionWaiter waiter = new ConditionWaiter(expression);
+		conditionWaiters.add(waiter);
+		waiter.result.whenComplete((data, e) -> conditionWaiters.remove(waiter));
+		check(waiter);
+		return CdpAsyncClient.withDeadline(waiter.result, expression, timeout);
+	}
+
+	public CompletableFuture<Object> present(String cssSelector) {
+		return until(String.format("document.querySelector(%s) !== null", json.toJson(cssSelector)));
+	}
+
+	// same test as ExpectedConditions.visibilityOfElementLocated
+	public CompletableFuture<Object> visible(String cssSelector) {
+		return until(String.format(
+				"(function(element) { if (element === null) { return false; } var style = window.getComputedStyle(element); "
+						+ "return style.visibility !== 'hidden' && style.display !== 'none' "
+						+ "&& element.getClientRects().length > 0; })(document.querySelector(%s))",
+				json.toJson(cssSelector)));
+	}
+
+	public CompletableFuture<Object> url(String url) {
+		return until(String.format("window.location.href === %s", json.toJson(url)));
+	}
+
+	// blocking helper, the futures carry their own deadline which is let
+	// expire first
+	public <T> T await(CompletableFuture<T> future) {
+		return CdpConnection.await(future, "event wait", timeout.plusSeconds(1));
+	}
+
+	@Override
+	public void close() {
+		for (Map.Entry<String, Consumer<Map<String, Object>>> entry : listeners.entrySet()) {
+			connection.removeListener(entry.getKey(), entry.getValue());
+		}
+		for (IdleWaiter waiter : idleWaiters) {
+			waiter.result.cancel(false);
+		}
+		for (ConditionWaiter waiter : conditionWaiters) {
+			waiter.result.cancel(false);
+		}
+	}
+
+	private CompletableFuture<Map<String, Object>> requestDocument() {
+		Map<String, Object> params = new HashMap<>();
+		params.put("depth", -1);
+		return connection.send("DOM.getDocument", params);
+	}
+
+	private void onRequestStarted(Map<String, Object> params) {
+		// redirects reuse the request id
+		requests.add((String) params.get("requestId"));
+		networkActivity.incrementAndGet();
+	}
+
+	private void onRequestFinished(Map<String, Object> params) {
+		requests.remove(params.get("requestId"));
+		long generation = networkActivity.incrementAndGet();
+		if (requests.isEmpty()) {
+			for (IdleWaiter waiter : idleWaiters) {
+				schedule(waiter, generation);
+			}
+		}
+	}
+
+	// the waiter completes unless there was network activity in between
+	private void schedule(IdleWaiter waiter, long generation) {
+		CdpAsyncClient.scheduler.schedule(() -> {
+			if (requests.isEmpty() && networkActivity.get() == generation) {
+				waiter.result.complete(null);
+			}
+		}, waiter.quiet.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void onFrameNavigated(Map<String, Object> params) {
+		Map<String, Object> frame = (Map<String, Object>) params.get("frame");
+		if (frame.get("parentId") == null) {
+			mainFrameId = (String) frame.get("id");
+		}
+		recheck();
+	}
+
+	// node ids are reset, the new document needs to be requested to keep
+	// receiving the mutation events
+	private void onDocumentUpdated(Map<String, Object> params) {
+		requestDocument();
+		recheck();
+	}
+
+	private void recheck() {
+		for (ConditionWaiter waiter : conditionWaiters) {
+			check(waiter);
+		}
+	}
+
+	// at most one evaluation per condition is in flight, events arriving
+	// meanwhile trigger one more
+	@SuppressWarnings("unchecked")
+	private void check(ConditionWaiter waiter) {
+		waiter.dirty = true;
+		if (waiter.result.isDone() || !waiter.running.compareAndSet(false, true)) {
+			return;
+		}
+		waiter.dirty = false;
+		Map<String, Object> params = new HashMap<>();
+		params.put("expression", waiter.expression);
+		params.put("returnByValue", true);
+		connection.send("Runtime.evaluate", params).whenComplete((data, e) -> {
+			waiter.running.set(false);
+			// evaluation fails while the page navigates, the next event retries
+			Object value = (e == null && data.get("exceptionDetails") == null && data.get("result") != null)
+					? ((Map<String, Object>) data.get("result")).get("value") : null;
+			if (debug) {
+				System.err.println(String.format("Condition %s: %s", waiter.expression, value));
+			}
+			if (isTruthy(value)) {
+				waiter.result.complete(value);
+			} else if (waiter.dirty) {
+				check(waiter);
+			}
+		});
+	}
+
+	private static boolean isTruthy(Object value) {
+		if (value == null) {
+			return false;
+		} else if (value instanceof Boolean) {
+			return (Boolean) value;
+		} else if (value instanceof Number) {
+			return ((Number) value).doubleValue() != 0;
+		} else if (value instanceof String) {
+			return !((String) value).isEmpty();
+		}
+		return true;
+	}
+
+	private static class IdleWaiter {
+		private final Duration quiet;
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		IdleWaiter(Duration quiet) {
+			this.quiet = quiet;
+		}
+	}
+
+	private static class ConditionWaiter {
+		private final String expression;
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+		private final AtomicBoolean running = new AtomicBoolean(false);
+		private volatile boolean dirty = false;
+
+		ConditionWaiter(String expression) {
+			this.expression = expression;
+		}
+	}
+}
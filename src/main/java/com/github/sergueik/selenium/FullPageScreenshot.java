@@ -0,0 +1,161 @@
+package com.github.sergueik.selenium;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Captures the whole page, not just the viewport, without resizing the
+ * browser window: the content size is read from Page.getLayoutMetrics, the
+ * page is captured as horizontal clip tiles with a few Page.captureScreenshot
+ * requests in flight at a time, and every tile is streamed into the
+ * PngStreamWriter as soon as it arrives. Only the tiles in flight and the
+ * one being copied are held in memory, regardless of the page height.
+ *
+ * <pre>
+ * Screenshot screenshot = new FullPageScreenshot(connection).capture(Paths.get("full_page.png"));
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Page#method-getLayoutMetrics
+ * https://chromedevtools.github.io/devtools-protocol/tot/Page#method-captureScreenshot
+ */
+public class FullPageScreenshot {
+
+	private static boolean debug = false;
+
+	private final CdpConnection connection;
+	private final ScreenshotSink sink = new ScreenshotSink();
+	private int tileHeight = 1024;
+	private int maxInFlight = 3;
+
+	public FullPageScreenshot(CdpConnection connection) {
+		this.connection = connection;
+	}
+
+	// in CSS pixels
+	public void setTileHeight(int tileHeight) {
+		this.tileHeight = tileHeight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	@SuppressWarnings("unchecked")
+	public ScreenshotSink.Screenshot capture(Path path) throws IOException {
+		Map<String, Object> metrics = connection.execute("Page.getLayoutMetrics", new HashMap<>());
+		// cssContentSize is reported by the newer browsers, contentSize is in
+		// device pixels there
+		Map<String, Object> contentSize = (Map<String, Object>) (metrics.containsKey("cssContentSize")
+				? metrics.get("cssContentSize") : metrics.get("contentSize"));
+		int width = (int) Math.ceil(((Number) contentSize.get("width")).doubleValue());
+		int height = (int) Math.ceil(((Number) contentSize.get("height")).doubleValue());
+		// tiles are scaled to CSS pixels on high density displays
+		double scale = 1 / getDevicePixelRatio();
+		int tiles = (height + tileHeight - 1) / tileHeight;
+		long started = System.currentTimeMillis();
+
+		Deque<CompletableFuture<Map<String, Object>>> inFlight = new ArrayDeque<>();
+		int[] row = new int[width];
+		try (PngStreamWriter writer = new PngStreamWriter(path, width, height)) {
+			int next = 0;
+			for (int tile = 0; tile < tiles; tile++) {
+				while (next < tiles && next - tile < maxInFlight) {
+					inFlight.add(captureTile(next * tileHeight, width, Math.min(tileHeight, height - next * tileHeight),
+							scale));
+					next++;
+				}
+				String data = (String) CdpConnection
+						.await(inFlight.poll(), "Page.captureScreenshot", connection.getTimeout()).get("data");
+				BufferedImage image = decode(data);
+				data = null;
+				int rows = Math.min(tileHeight, height - tile * tileHeight);
+				int columns = Math.min(width, image.getWidth());
+				for (int y = 0; y < rows; y++) {
+					if (y < image.getHeight()) {
+						image.getRGB(0, y, columns, 1, row, 0, width);
+						Arrays.fill(row, columns, width, 0xFFFFFF);
+					} else {
+						Arrays.fill(row, 0xFFFFFF);
+					}
+					writer.writeRow(row);
+				}
+			}
+		} finally {
+			for (CompletableFuture<Map<String, Object>> result : inFlight) {
+				result.cancel(true);
+			}
+		}
+		if (debug) {
+			System.err.println(String.format("Captured %dx%d in %d tiles in %d ms", width, height, tiles,
+					System.currentTimeMillis() - started));
+		}
+		return new ScreenshotSink.Screenshot(path, width, height, (int) Files.size(path));
+	}
+
+	// the area outside of the viewport is only rendered with
+	// captureBeyondViewport, older browsers ignore the parameter
+	private CompletableFuture<Map<String, Object>> captureTile(int y, int width, int height, double scale) {
+		Map<String, Object> clip = new HashMap<>();
+		clip.put("x", 0);
+		clip.put("y", y);
+		clip.put("width", width);
+		clip.put("height", height);
+		clip.put("scale", scale);
+		Map<String, Object> params = new HashMap<>();
+		params.put("format", "png");
+		params.put("clip", clip);
+		params.put("captureBeyondViewport", true);
+		params.put("fromSurface", true);
+		return connection.send("Page.captureScreenshot", params);
+	}
+
+	@SuppressWarnings("unchecked")
+	private double getDevicePixelRatio() {
+		Map<String, Object> params = new HashMap<>();
+		params.put("expression", "window.devicePixelRatio");
+		params.put("returnByValue", true);
+		Object value = ((Map<String, Object>) connection.execute("Runtime.evaluate", params).get("result"))
+				.get("value");
+		return (value instanceof Number && ((Number) value).doubleValue() > 0) ? ((Number) value).doubleValue() : 1;
+	}
+
+	private BufferedImage decode(String data) throws IOException {
+		ByteBuffer buffer = sink.decode(data);
+		try {
+			BufferedImage image = ImageIO.read(new InputStream() {
+				@Override
+				public int read() {
+					return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+				}
+
+				@Override
+				public int read(byte[] bytes, int offset, int length) {
+					if (!buffer.hasRemaining()) {
+						return -1;
+					}
+					int size = Math.min(length, buffer.remaining());
+					buffer.get(bytes, offset, size);
+					return size;
+				}
+			});
+			if (image == null) {
+				throw new IOException("Unable to decode the screenshot tile");
+			}
+			return image;
+		} finally {
+			sink.release(buffer);
+		}
+	}
+}
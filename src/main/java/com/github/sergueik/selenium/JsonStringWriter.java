@@ -0,0 +1,62 @@
+package com.github.sergueik.selenium;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Escapes the characters written as the content of a JSON string, for the
+ * exports streamed without building the document in memory.
+ */
+class JsonStringWriter extends FilterWriter {
+
+	JsonStringWriter(Writer writer) {
+		super(writer);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		switch (c) {
+		case '"':
+			out.write("\\\"");
+			break;
+		case '\\':
+			out.write("\\\\");
+			break;
+		case '\n':
+			out.write("\\n");
+			break;
+		case '\r':
+			out.write("\\r");
+			break;
+		case '\t':
+			out.write("\\t");
+			break;
+		default:
+			if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+				out.write(String.format("\\u%04x", c));
+			} else {
+				out.write(c);
+			}
+		}
+	}
+
+	@Override
+	public void write(char[] buffer, int offset, int length) throws IOException {
+		for (int index = offset; index < offset + length; index++) {
+			write(buffer[index]);
+		}
+	}
+
+	@Override
+	public void write(String text, int offset, int length) throws IOException {
+		for (int index = offset; index < offset + length; index++) {
+			write(text.charAt(index));
+		}
+	}
+
+	// the underlying writer stays open
+	@Override
+	public void close() {
+	}
+}
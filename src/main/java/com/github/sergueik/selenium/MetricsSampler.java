@@ -0,0 +1,381 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Polls Performance.getMetrics in the background and keeps the last
+ * samples of every metric in a double[] ring buffer, the metric names
+ * interned to int ids, so that a long flow can be checked for heap, DOM
+ * node or layout growth e.g.
+ *
+ * <pre>
+ * MetricsSampler sampler = new MetricsSampler(connection);
+ * sampler.setInterval(Duration.ofMillis(250));
+ * sampler.start();
+ * ... the flow
+ * sampler.stop();
+ * sampler.getPercentile("JSHeapUsedSize", 95);
+ * sampler.getRate("LayoutCount");
+ * sampler.writeCsv(Paths.get("metrics.csv"));
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Performance#method-getMetrics
+ */
+public class MetricsSampler implements Closeable {
+
+	private static boolean debug = false;
+	// monotonic seconds, reported along with the other metrics
+	private static final String timestampMetric = "Timestamp";
+
+	private final CdpConnection connection;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "metrics-sampler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final List<String> names = new ArrayList<>();
+	// values[id][slot], NaN when the metric was not reported in the sample
+	private double[][] values = new double[0][];
+	private double[] timestamps;
+	// total samples taken, the ring holds the last capacity ones
+	private long count = 0;
+	private final AtomicBoolean inFlight = new AtomicBoolean(false);
+	private ScheduledFuture<?> task = null;
+	private Duration interval = Duration.ofMillis(500);
+	private int capacity = 1024;
+
+	public MetricsSampler(CdpConnection connection) {
+		this.connection = connection;
+		timestamps = new double[capacity];
+	}
+
+	public void setInterval(Duration interval) {
+		this.interval = interval;
+	}
+
+	// samples kept per metric, clears the samples taken so far
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		timestamps = new double[capacity];
+		values = new double[names.size()][];
+		for (int id = 0; id < values.length; id++) {
+			values[id] = newRing();
+		}
+		count = 0;
+	}
+
+	public synchronized MetricsSampler start() {
+		if (task == null) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("timeDomain", "timeTicks");
+			connection.execute("Performance.enable", params);
+			task = scheduler.scheduleAtFixedRate(this::poll, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+			if (!connection.isClosed()) {
+				connection.send("Performance.disable", new HashMap<>());
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		stop();
+		scheduler.shutdown();
+	}
+
+	// takes a sample now, on the calling thread
+	public void sample() {
+		record(connection.execute("Performance.getMetrics", new HashMap<>()));
+	}
+
+	// samples held, at most the capacity
+	public synchronized int size() {
+		return (int) Math.min(count, capacity);
+	}
+
+	public synchronized long getSampleCount() {
+		return count;
+	}
+
+	public synchronized List<String> getMetricNames() {
+		return new ArrayList<>(names);
+	}
+
+	// -1 for the metrics not reported so far
+	public synchronized int getId(String name) {
+		Integer id = ids.get(name);
+		return (id == null) ? -1 : id;
+	}
+
+	// oldest first
+	public synchronized double[] getValues(String name) {
+		int id = getId(name);
+		int size = size();
+		double[] result = new double[size];
+		if (id < 0) {
+			Arrays.fill(result, Double.NaN);
+			return result;
+		}
+		copy(values[id], result);
+		return result;
+	}
+
+	// monotonic seconds of the samples, oldest first
+	public synchronized double[] getTimestamps() {
+		double[] result = new double[size()];
+		copy(timestamps, result);
+		return result;
+	}
+
+	public synchronized double getLast(String name) {
+		int id = getId(name);
+		return (id < 0 || count == 0) ? Double.NaN : values[id][(int) ((count - 1) % capacity)];
+	}
+
+	// linear interpolation between the closest ranks, NaN when no sample
+	public double getPercentile(String name, double percentile) {
+		double[] sorted = present(getValues(name));
+		if (sorted.length == 0) {
+			return Double.NaN;
+		}
+		Arrays.sort(sorted);
+		double rank = percentile / 100 * (sorted.length - 1);
+		int lower = (int) Math.floor(rank);
+		int upper = (int) Math.ceil(rank);
+		return sorted[lower] + (sorted[upper] - sorted[lower]) * (rank - lower);
+	}
+
+	public double getMin(String name) {
+		return getPercentile(name, 0);
+	}
+
+	public double getMax(String name) {
+		return getPercentile(name, 100);
+	}
+
+	public double getMean(String name) {
+		double[] samples = present(getValues(name));
+		double sum = 0;
+		for (double value : samples) {
+			sum += value;
+		}
+		return (samples.length == 0) ? Double.NaN : sum / samples.length;
+	}
+
+	// last minus first value in the buffer e.g. the growth of JSHeapUsedSize
+	public synchronized double getDelta(String name) {
+		int id = getId(name);
+		int[] range = range(id);
+		return (range == null) ? Double.NaN : valueAt(id, range[1]) - valueAt(id, range[0]);
+	}
+
+	// change per second over the buffer e.g. LayoutCount or
+	// RecalcStyleDuration per second
+	public synchronized double getRate(String name) {
+		int id = getId(name);
+		int[] range = range(id);
+		if (range == null) {
+			return Double.NaN;
+		}
+		double elapsed = timestamps[range[1]] - timestamps[range[0]];
+		return (elapsed <= 0) ? Double.NaN : (valueAt(id, range[1]) - valueAt(id, range[0])) / elapsed;
+	}
+
+	public synchronized void clear() {
+		setCapacity(capacity);
+	}
+
+	public void writeCsv(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeCsv(writer);
+		}
+	}
+
+	// a row per sample, a column per metric
+	public synchronized void writeCsv(Writer writer) throws IOException {
+		writer.write("timestamp");
+		for (String name : names) {
+			writer.write("," + name);
+		}
+		writer.write("\n");
+		double[] times = getTimestamps();
+		List<double[]> columns = new ArrayList<>();
+		for (String name : names) {
+			columns.add(getValues(name));
+		}
+		for (int row = 0; row < times.length; row++) {
+			writer.write(format(times[row]));
+			for (double[] column : columns) {
+				writer.write("," + (Double.isNaN(column[row]) ? "" : format(column[row])));
+			}
+			writer.write("\n");
+		}
+		writer.flush();
+	}
+
+	public void writeJson(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeJson(writer);
+		}
+	}
+
+	// {"timestamps": [...], "metrics": {"Nodes": [...], ...}}, null for
+	// the samples missing a metric
+	public synchronized void writeJson(Writer writer) throws IOException {
+		writer.write("{\"timestamps\":");
+		writeArray(writer, getTimestamps());
+		writer.write(",\"metrics\":{");
+		for (int id = 0; id < names.size(); id++) {
+			if (id > 0) {
+				writer.write(",");
+			}
+			// metric names are plain identifiers
+			writer.write("\"" + names.get(id) + "\":");
+			writeArray(writer, getValues(names.get(id)));
+		}
+		writer.write("}}");
+		writer.flush();
+	}
+
+	// skips the tick while the previous request is still in flight
+	private void poll() {
+		if (!inFlight.compareAndSet(false, true)) {
+			return;
+		}
+		connection.send("Performance.getMetrics", new HashMap<>()).whenComplete((result, e) -> {
+			inFlight.set(false);
+			if (e != null) {
+				if (debug) {
+					System.err.println("Exception sampling the metrics (ignored): " + e.toString());
+				}
+			} else {
+				record(result);
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized void record(Map<String, Object> result) {
+		int slot = (int) (count % capacity);
+		for (double[] ring : values) {
+			ring[slot] = Double.NaN;
+		}
+		double timestamp = System.nanoTime() / 1e9;
+		for (Map<String, Object> metric : (List<Map<String, Object>>) result.get("metrics")) {
+			String name = (String) metric.get("name");
+			double value = ((Number) metric.get("value")).doubleValue();
+			if (timestampMetric.equals(name)) {
+				timestamp = value;
+				continue;
+			}
+			// interned first, a new metric reallocates the values
+			int id = intern(name);
+			values[id][slot] = value;
+		}
+		timestamps[slot] = timestamp;
+		count++;
+	}
+
+	private int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+			values = Arrays.copyOf(values, names.size());
+			values[id] = newRing();
+		}
+		return id;
+	}
+
+	private double[] newRing() {
+		double[] ring = new double[capacity];
+		Arrays.fill(ring, Double.NaN);
+		return ring;
+	}
+
+	// oldest first into the result
+	private void copy(double[] ring, double[] result) {
+		int size = result.length;
+		int start = (int) ((count - size) % capacity);
+		int head = Math.min(size, capacity - start);
+		System.arraycopy(ring, start, result, 0, head);
+		System.arraycopy(ring, 0, result, head, size - head);
+	}
+
+	// slots of the first and the last sample reporting the metric
+	private int[] range(int id) {
+		if (id < 0) {
+			return null;
+		}
+		int first = -1;
+		int last = -1;
+		for (long sample = count - size(); sample < count; sample++) {
+			int slot = (int) (sample % capacity);
+			if (!Double.isNaN(values[id][slot])) {
+				if (first < 0) {
+					first = slot;
+				}
+				last = slot;
+			}
+		}
+		return (first < 0) ? null : new int[] { first, last };
+	}
+
+	private double valueAt(int id, int slot) {
+		return values[id][slot];
+	}
+
+	private static double[] present(double[] samples) {
+		int size = 0;
+		double[] result = new double[samples.length];
+		for (double value : samples) {
+			if (!Double.isNaN(value)) {
+				result[size++] = value;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	private static void writeArray(Writer writer, double[] array) throws IOException {
+		writer.write("[");
+		for (int index = 0; index < array.length; index++) {
+			if (index > 0) {
+				writer.write(",");
+			}
+			writer.write(Double.isNaN(array[index]) ? "null" : format(array[index]));
+		}
+		writer.write("]");
+	}
+
+	// integral counters without a fraction
+	private static String format(double value) {
+		return (value == Math.rint(value) && Math.abs(value) < 1e15) ? Long.toString((long) value)
+				: String.format(Locale.ROOT, "%.6f", value);
+	}
+}
@@ -0,0 +1,525 @@
+package com.github.sergueik.selenium;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Records the network traffic of the page from the Network domain events:
+ * requestWillBeSent, responseReceived, loadingFinished and loadingFailed are
+ * correlated by requestId. The response bodies are pulled with
+ * Network.getResponseBody when they are asked for or exported, or right after
+ * loading for the entries matching the optional body filter, and kept in a
+ * size capped off heap BodyStore, so that a long recording does not fill the
+ * heap with body Strings. The recording is exported as HAR, streamed entry
+ * by entry.
+ *
+ * <pre>
+ * NetworkRecorder recorder = new NetworkRecorder(connection);
+ * recorder.start();
+ * driver.get("https://apache.org");
+ * recorder.stop();
+ * recorder.writeHar(Paths.get("apache.har"));
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Network#event-requestWillBeSent
+ * https://chromedevtools.github.io/devtools-protocol/tot/Network#method-getResponseBody
+ * http://www.softwareishard.com/blog/har-12-spec/
+ */
+public class NetworkRecorder implements Closeable {
+
+	private static boolean debug = false;
+
+	private final CdpConnection connection;
+	private final Map<String, Consumer<Map<String, Object>>> listeners = new HashMap<>();
+	// in flight, by requestId
+	private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+	// in order of the requests, bounded by maxEntries
+	private final ConcurrentLinkedDeque<Entry> entries = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger entryCount = new AtomicInteger(0);
+	private final AtomicInteger sequence = new AtomicInteger(0);
+	private final Map<String, CompletableFuture<Void>> bodyRequests = new ConcurrentHashMap<>();
+	private BodyStore bodyStore = null;
+	private int bodyStoreSize = 64 * 1024 * 1024;
+	private int maxEntries = 10000;
+	private Predicate<Entry> bodyFilter = null;
+	private boolean started = false;
+
+	public NetworkRecorder(CdpConnection connection) {
+		this.connection = connection;
+		listeners.put("Network.requestWillBeSent", this::onRequestWillBeSent);
+		listeners.put("Network.responseReceived", this::onResponseReceived);
+		listeners.put("Network.loadingFinished", this::onLoadingFinished);
+		listeners.put("Network.loadingFailed", this::onLoadingFailed);
+	}
+
+	// bytes of the off heap body store, applies on start
+	public void setBodyStoreSize(int bodyStoreSize) {
+		this.bodyStoreSize = bodyStoreSize;
+	}
+
+	// the oldest entries (and their bodies) are dropped past the limit
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	// which response bodies to prefetch as soon as they are loaded, e.g.
+	// entry -> entry.getMimeType().startsWith("text/"), the default null
+	// pulls them on demand only. The browser may evict a body that is not
+	// prefetched
+	public void setBodyFilter(Predicate<Entry> bodyFilter) {
+		this.bodyFilter = bodyFilter;
+	}
+
+	public synchronized NetworkRecorder start() {
+		if (started) {
+			return this;
+		}
+		if (bodyStore == null) {
+			bodyStore = new BodyStore(bodyStoreSize);
+		}
+		for (Map.Entry<String, Consumer<Map<String, Object>>> listener : listeners.entrySet()) {
+			connection.addListener(listener.getKey(), listener.getValue());
+		}
+		connection.execute("Network.enable", new HashMap<>());
+		started = true;
+		return this;
+	}
+
+	// stops recording, waits for the body requests already sent
+	public synchronized void stop() {
+		if (!started) {
+			return;
+		}
+		started = false;
+		for (Map.Entry<String, Consumer<Map<String, Object>>> listener : listeners.entrySet()) {
+			connection.removeListener(listener.getKey(), listener.getValue());
+		}
+		try {
+			CdpConnection.await(
+					CompletableFuture.allOf(bodyRequests.values().toArray(new CompletableFuture<?>[0])),
+					"Network.getResponseBody", connection.getTimeout());
+		} catch (RuntimeException e) {
+			System.err.println("Exception waiting for the response bodies (ignored): " + e.toString());
+		}
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+
+	// completed and failed entries, in the order of the requests
+	public List<Entry> getEntries() {
+		List<Entry> result = new ArrayList<>();
+		for (Entry entry : entries) {
+			if (entry.isFinished()) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	public BodyStore getBodyStore() {
+		return bodyStore;
+	}
+
+	// stored body, pulled on demand when not stored yet. null when the
+	// browser no longer has it
+	public String getBody(Entry entry) {
+		return pullBody(entry) ? bodyStore.getText(entry.key) : null;
+	}
+
+	public void clear() {
+		entries.clear();
+		entryCount.set(0);
+		if (bodyStore != null) {
+			bodyStore.clear();
+		}
+	}
+
+	public void writeHar(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeHar(writer);
+		}
+	}
+
+	// the bodies are pulled when not stored yet and copied from the store
+	// into the writer, one entry at a time
+	public void writeHar(Writer output) throws IOException {
+		Writer writer = (output instanceof BufferedWriter) ? output : new BufferedWriter(output);
+		writer.write("{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":");
+		writeString(writer, getClass().getSimpleName());
+		writer.write(",\"version\":\"1.0\"},\"pages\":[],\"entries\":[");
+		boolean first = true;
+		for (Entry entry : getEntries()) {
+			if (!first) {
+				writer.write(',');
+			}
+			first = false;
+			writeEntry(writer, entry);
+		}
+		writer.write("]}}");
+		writer.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void onRequestWillBeSent(Map<String, Object> params) {
+		String requestId = (String) params.get("requestId");
+		Entry previous = pending.remove(requestId);
+		// a redirect reuses the requestId, its response completes the previous
+		// entry
+		if (previous != null && params.get("redirectResponse") instanceof Map) {
+			previous.setResponse((Map<String, Object>) params.get("redirectResponse"));
+			previous.endTimestamp = toDouble(params.get("timestamp"));
+			previous.redirected = true;
+			previous.finished = true;
+		}
+		Entry entry = new Entry(requestId, requestId + "#" + sequence.getAndIncrement());
+		Map<String, Object> request = (Map<String, Object>) params.get("request");
+		entry.url = (String) request.get("url");
+		entry.method = (String) request.get("method");
+		entry.requestHeaders = (Map<String, Object>) request.get("headers");
+		entry.postData = (String) request.get("postData");
+		entry.resourceType = (String) params.get("type");
+		entry.wallTime = toDouble(params.get("wallTime"));
+		entry.startTimestamp = toDouble(params.get("timestamp"));
+		pending.put(requestId, entry);
+		entries.add(entry);
+		// drop the oldest entries and their bodies
+		if (entryCount.incrementAndGet() > maxEntries) {
+			Entry eldest = entries.poll();
+			if (eldest != null) {
+				entryCount.decrementAndGet();
+				pending.remove(eldest.requestId, eldest);
+				if (bodyStore != null) {
+					bodyStore.remove(eldest.key);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void onResponseReceived(Map<String, Object> params) {
+		Entry entry = pending.get(params.get("requestId"));
+		if (entry != null) {
+			entry.setResponse((Map<String, Object>) params.get("response"));
+		}
+	}
+
+	private void onLoadingFinished(Map<String, Object> params) {
+		Entry entry = pending.remove(params.get("requestId"));
+		if (entry == null) {
+			return;
+		}
+		entry.endTimestamp = toDouble(params.get("timestamp"));
+		entry.encodedDataLength = (long) toDouble(params.get("encodedDataLength"));
+		entry.finished = true;
+		if (bodyFilter != null && bodyFilter.test(entry)) {
+			// the reply is handled on the event thread later, never waited for
+			// here
+			fetchBody(entry);
+		}
+	}
+
+	private void onLoadingFailed(Map<String, Object> params) {
+		Entry entry = pending.remove(params.get("requestId"));
+		if (entry == null) {
+			return;
+		}
+		entry.endTimestamp = toDouble(params.get("timestamp"));
+		entry.errorText = (String) params.get("errorText");
+		entry.finished = true;
+	}
+
+	// true when the body is in the store, after waiting for the request of
+	// a prefetch or sending one. The failed requests have no body, nor do
+	// the redirect hops: their requestId is that of the final response
+	private boolean pullBody(Entry entry) {
+		if (bodyStore == null || entry.redirected) {
+			return false;
+		}
+		if (!bodyStore.contains(entry.key) && entry.errorText == null && !connection.isClosed()) {
+			CompletableFuture<Void> request = bodyRequests.get(entry.key);
+			try {
+				CdpConnection.await((request == null) ? fetchBody(entry) : request, "Network.getResponseBody",
+						connection.getTimeout());
+			} catch (RuntimeException e) {
+				if (debug) {
+					System.err.println("No body of " + entry.url + ": " + e.toString());
+				}
+				return false;
+			}
+		}
+		return bodyStore.contains(entry.key);
+	}
+
+	private CompletableFuture<Void> fetchBody(Entry entry) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("requestId", entry.requestId);
+		CompletableFuture<Void> request = connection.send("Network.getResponseBody", params).thenAccept(result -> {
+			String body = (String) result.get("body");
+			if (body == null) {
+				return;
+			}
+			boolean stored = bodyStore.put(entry.key, body, Boolean.TRUE.equals(result.get("base64Encoded")));
+			if (debug && !stored) {
+				System.err.println("Body of " + entry.url + " exceeds the body store size");
+			}
+		});
+		bodyRequests.put(entry.key, request);
+		request.whenComplete((result, e) -> bodyRequests.remove(entry.key));
+		return request;
+	}
+
+	private void writeEntry(Writer writer, Entry entry) throws IOException {
+		Map<String, Object> timing = entry.timing;
+		double total = Math.max(0, (entry.endTimestamp - entry.startTimestamp) * 1000);
+		writer.write("{\"startedDateTime\":");
+		writeString(writer, Instant.ofEpochMilli((long) (entry.wallTime * 1000)).toString());
+		writer.write(",\"time\":" + format(total));
+		writer.write(",\"request\":{\"method\":");
+		writeString(writer, entry.method);
+		writer.write(",\"url\":");
+		writeString(writer, entry.url);
+		writer.write(",\"httpVersion\":");
+		writeString(writer, entry.protocol);
+		writer.write(",\"cookies\":[],\"headers\":");
+		writeHeaders(writer, entry.requestHeaders);
+		writer.write(",\"queryString\":[],\"headersSize\":-1,\"bodySize\":"
+				+ ((entry.postData == null) ? 0 : entry.postData.length()));
+		if (entry.postData != null) {
+			writer.write(",\"postData\":{\"mimeType\":");
+			writeString(writer, getHeader(entry.requestHeaders, "Content-Type"));
+			writer.write(",\"text\":");
+			writeString(writer, entry.postData);
+			writer.write('}');
+		}
+		writer.write("},\"response\":{\"status\":" + entry.status + ",\"statusText\":");
+		writeString(writer, entry.statusText);
+		writer.write(",\"httpVersion\":");
+		writeString(writer, entry.protocol);
+		writer.write(",\"cookies\":[],\"headers\":");
+		writeHeaders(writer, entry.responseHeaders);
+		boolean stored = pullBody(entry);
+		writer.write(",\"content\":{\"size\":" + Math.max(0, stored ? bodyStore.getLength(entry.key) : 0)
+				+ ",\"mimeType\":");
+		writeString(writer, entry.mimeType);
+		if (stored) {
+			if (bodyStore.isBase64Encoded(entry.key)) {
+				writer.write(",\"encoding\":\"base64\"");
+			}
+			writer.write(",\"text\":\"");
+			bodyStore.copyTo(entry.key, new JsonStringWriter(writer));
+			writer.write('"');
+		}
+		writer.write("},\"redirectURL\":");
+		writeString(writer, getHeader(entry.responseHeaders, "Location"));
+		writer.write(",\"headersSize\":-1,\"bodySize\":" + entry.encodedDataLength);
+		writer.write("},\"cache\":{},\"timings\":");
+		if (timing != null) {
+			// offsets in ms relative to requestTime, -1 when not applicable
+			double receiveHeadersEnd = toDouble(timing.get("receiveHeadersEnd"));
+			double sendEnd = toDouble(timing.get("sendEnd"));
+			double receive = entry.endTimestamp * 1000 - (toDouble(timing.get("requestTime")) * 1000 + receiveHeadersEnd);
+			writer.write(String.format(
+					"{\"blocked\":%s,\"dns\":%s,\"connect\":%s,\"ssl\":%s,\"send\":%s,\"wait\":%s,\"receive\":%s}",
+					format(Math.max(-1, toDouble(timing.get("dnsStart")))), span(timing, "dnsStart", "dnsEnd"),
+					span(timing, "connectStart", "connectEnd"), span(timing, "sslStart", "sslEnd"),
+					span(timing, "sendStart", "sendEnd"), format(Math.max(0, receiveHeadersEnd - sendEnd)),
+					format(Math.max(0, receive))));
+		} else {
+			writer.write("{\"send\":0,\"wait\":" + format(total) + ",\"receive\":0}");
+		}
+		if (entry.remoteIPAddress != null) {
+			writer.write(",\"serverIPAddress\":");
+			writeString(writer, entry.remoteIPAddress);
+		}
+		if (entry.errorText != null) {
+			writer.write(",\"_error\":");
+			writeString(writer, entry.errorText);
+		}
+		writer.write(",\"_resourceType\":");
+		writeString(writer, entry.resourceType);
+		writer.write('}');
+	}
+
+	private static String span(Map<String, Object> timing, String start, String end) {
+		double startTime = toDouble(timing.get(start));
+		double endTime = toDouble(timing.get(end));
+		return (startTime < 0 || endTime < 0) ? "-1" : format(endTime - startTime);
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static void writeHeaders(Writer writer, Map<String, Object> headers) throws IOException {
+		writer.write('[');
+		if (headers != null) {
+			boolean first = true;
+			for (Map.Entry<String, Object> header : headers.entrySet()) {
+				// multiple values are joined by new lines
+				for (String value : String.valueOf(header.getValue()).split("\n")) {
+					if (!first) {
+						writer.write(',');
+					}
+					first = false;
+					writer.write("{\"name\":");
+					writeString(writer, header.getKey());
+					writer.write(",\"value\":");
+					writeString(writer, value);
+					writer.write('}');
+				}
+			}
+		}
+		writer.write(']');
+	}
+
+	private static String getHeader(Map<String, Object> headers, String name) {
+		if (headers != null) {
+			for (Map.Entry<String, Object> header : headers.entrySet()) {
+				if (header.getKey().equalsIgnoreCase(name)) {
+					return String.valueOf(header.getValue());
+				}
+			}
+		}
+		return "";
+	}
+
+	private static void writeString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		if (value != null) {
+			new JsonStringWriter(writer).write(value);
+		}
+		writer.write('"');
+	}
+
+	private static double toDouble(Object value) {
+		return (value instanceof Number) ? ((Number) value).doubleValue() : 0;
+	}
+
+	public static class Entry {
+		private final String requestId;
+		// requestId is reused by the redirects
+		private final String key;
+		private String url;
+		private String method;
+		private Map<String, Object> requestHeaders;
+		private String postData;
+		private String resourceType;
+		private double wallTime;
+		private double startTimestamp;
+		private double endTimestamp;
+		private int status;
+		private String statusText = "";
+		private String mimeType = "";
+		private String protocol = "";
+		private String remoteIPAddress;
+		private Map<String, Object> responseHeaders;
+		private Map<String, Object> timing;
+		private long encodedDataLength;
+		private String errorText;
+		// completed by the redirectResponse of the next hop
+		private volatile boolean redirected = false;
+		private volatile boolean finished = false;
+
+		Entry(String requestId, String key) {
+			this.requestId = requestId;
+			this.key = key;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void setResponse(Map<String, Object> response) {
+			status = (int) toDouble(response.get("status"));
+			statusText = (String) response.get("statusText");
+			mimeType = (String) response.get("mimeType");
+			protocol = (response.get("protocol") == null) ? "" : (String) response.get("protocol");
+			remoteIPAddress = (String) response.get("remoteIPAddress");
+			responseHeaders = (Map<String, Object>) response.get("headers");
+			timing = (Map<String, Object>) response.get("timing");
+		}
+
+		public String getRequestId() {
+			return requestId;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public String getResourceType() {
+			return resourceType;
+		}
+
+		public Map<String, Object> getRequestHeaders() {
+			return (requestHeaders == null) ? Collections.emptyMap() : requestHeaders;
+		}
+
+		public Map<String, Object> getResponseHeaders() {
+			return (responseHeaders == null) ? Collections.emptyMap() : responseHeaders;
+		}
+
+		// 0 when failed before the response
+		public int getStatus() {
+			return status;
+		}
+
+		public String getMimeType() {
+			return (mimeType == null) ? "" : mimeType;
+		}
+
+		public long getEncodedDataLength() {
+			return encodedDataLength;
+		}
+
+		// null unless the request failed
+		public String getErrorText() {
+			return errorText;
+		}
+
+		// milliseconds from the request to the end of loading
+		public double getTime() {
+			return Math.max(0, (endTimestamp - startTimestamp) * 1000);
+		}
+
+		public boolean isFinished() {
+			return finished;
+		}
+
+		// a redirect hop, which has no body of its own
+		public boolean isRedirected() {
+			return redirected;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s %d %s", method, url, status, getMimeType());
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.github.sergueik.selenium;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Scope of the remote objects (objectIds) resolved through it: every
+ * DOM.resolveNode, Runtime.evaluate and Runtime.callFunctionOn is made in
+ * one object group, released in bulk with Runtime.releaseObjectGroup when
+ * the scope is closed, so the renderer does not keep the objects alive
+ * until the page goes away e.g.
+ *
+ * <pre>
+ * try (ObjectGroup group = new ObjectGroup(connection)) {
+ *   String objectId = group.resolveNode(nodeId);
+ *   group.callFunctionOn(objectId, "function() { this.value = ''; }");
+ * }
+ * </pre>
+ *
+ * The node is resolved once per document: the handles are reused for the
+ * same node id until DOM.documentUpdated or the execution context of the
+ * page going away starts a new generation.
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Runtime#method-releaseObjectGroup
+ */
+public class ObjectGroup implements AutoCloseable {
+
+	private static boolean debug = false;
+	private static final AtomicLong groups = new AtomicLong(0);
+	// the node ids and the objects do not outlive the document
+	private static final List<String> invalidatingEvents = Arrays.asList("DOM.documentUpdated",
+			"Runtime.executionContextsCleared");
+
+	private final CdpConnection connection;
+	private final String sessionId;
+	private final String name;
+	private final Map<Long, String> nodeHandles = new ConcurrentHashMap<>();
+	private final Map<Long, String> backendNodeHandles = new ConcurrentHashMap<>();
+	private final AtomicInteger generation = new AtomicInteger(0);
+	private final AtomicInteger resolveCount = new AtomicInteger(0);
+	private final AtomicInteger reuseCount = new AtomicInteger(0);
+	private final Consumer<Map<String, Object>> invalidateListener = o -> invalidate();
+	private volatile boolean closed = false;
+
+	public ObjectGroup(CdpConnection connection) {
+		this(connection, connection.getSessionId());
+	}
+
+	// the node ids are those of the session
+	public ObjectGroup(CdpConnection connection, String sessionId) {
+		this.connection = connection;
+		this.sessionId = sessionId;
+		name = "object-group-" + groups.incrementAndGet();
+		for (String event : invalidatingEvents) {
+			connection.addListener(sessionId, event, invalidateListener);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// bumped whenever the cached handles are dropped
+	public int getGeneration() {
+		return generation.get();
+	}
+
+	// DOM.resolveNode calls made
+	public int getResolveCount() {
+		return resolveCount.get();
+	}
+
+	// handles served from the cache
+	public int getReuseCount() {
+		return reuseCount.get();
+	}
+
+	// objectId of the node
+	public String resolveNode(long nodeId) {
+		return resolve(nodeHandles, "nodeId", nodeId);
+	}
+
+	public String resolveBackendNode(long backendNodeId) {
+		return resolve(backendNodeHandles, "backendNodeId", backendNodeId);
+	}
+
+	// the RemoteObject of the value, an objectId in this group unless
+	// returned by value
+	public Map<String, Object> evaluate(String expression) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("expression", expression);
+		params.put("objectGroup", name);
+		return getResult(connection.execute(sessionId, "Runtime.evaluate", params));
+	}
+
+	// calls the function with the object as this: the Handle arguments are
+	// passed by objectId, the others by value
+	public Map<String, Object> callFunctionOn(String objectId, String functionDeclaration, Object... arguments) {
+		List<Map<String, Object>> values = new ArrayList<>();
+		for (Object argument : arguments) {
+			Map<String, Object> value = new HashMap<>();
+			if (argument instanceof Handle) {
+				value.put("objectId", ((Handle) argument).objectId);
+			} else {
+				value.put("value", argument);
+			}
+			values.add(value);
+		}
+		Map<String, Object> params = new HashMap<>();
+		params.put("objectId", objectId);
+		params.put("functionDeclaration", functionDeclaration);
+		params.put("arguments", values);
+		params.put("objectGroup", name);
+		return getResult(connection.execute(sessionId, "Runtime.callFunctionOn", params));
+	}
+
+	// marks an objectId argument of callFunctionOn
+	public static Handle handle(String objectId) {
+		return new Handle(objectId);
+	}
+
+	// releases the objects of the group, the group can be used again
+	public void release() {
+		invalidate();
+		if (!connection.isClosed()) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("objectGroup", name);
+			connection.send(sessionId, "Runtime.releaseObjectGroup", params);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			for (String event : invalidatingEvents) {
+				connection.removeListener(event, invalidateListener);
+			}
+			release();
+		}
+	}
+
+	private String resolve(Map<Long, String> handles, String key, long id) {
+		String objectId = handles.get(id);
+		if (objectId != null) {
+			reuseCount.incrementAndGet();
+			return objectId;
+		}
+		int current = generation.get();
+		Map<String, Object> params = new HashMap<>();
+		params.put(key, id);
+		params.put("objectGroup", name);
+		Map<String, Object> result = connection.execute(sessionId, "DOM.resolveNode", params);
+		resolveCount.incrementAndGet();
+		objectId = (String) getObject(result).get("objectId");
+		// not cached when the document changed meanwhile
+		if (generation.get() == current) {
+			handles.put(id, objectId);
+		}
+		return objectId;
+	}
+
+	private void invalidate() {
+		generation.incrementAndGet();
+		if (debug) {
+			System.err.println(String.format("Dropped %d handles of %s", nodeHandles.size() + backendNodeHandles.size(),
+					name));
+		}
+		nodeHandles.clear();
+		backendNodeHandles.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getObject(Map<String, Object> result) {
+		return (Map<String, Object>) result.get("object");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getResult(Map<String, Object> result) {
+		return (Map<String, Object>) result.get("result");
+	}
+
+	public static class Handle {
+		private final String objectId;
+
+		Handle(String objectId) {
+			this.objectId = objectId;
+		}
+
+		public String getObjectId() {
+			return objectId;
+		}
+	}
+}
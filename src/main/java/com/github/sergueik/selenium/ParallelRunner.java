@@ -0,0 +1,115 @@
+package com.github.sergueik.selenium;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.internal.runners.model.EachTestNotifier;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * Runs the test methods of the class concurrently, each on a browser session
+ * of its own: the worker thread leases a browser from the default
+ * BrowserPool, binds it to its DriverContext for the duration of the method
+ * (the test instance, the @Before and @After methods included) and returns
+ * it, reset, afterwards e.g.
+ *
+ * <pre>
+ * &#64;RunWith(ParallelRunner.class)
+ * public class RuntimeCdpTest {
+ *   private final ChromiumDriver driver = DriverContext.current().getDriver();
+ *   ...
+ * }
+ * </pre>
+ *
+ * The number of methods run at a time is the parallel.threads system
+ * property, the browser.pool.size by default, e.g.
+ * mvn test -Dbrowser.pool.size=8. The test state must live in instance
+ * fields: JUnit creates an instance per method, the static fields are
+ * shared by the concurrent methods. The @BeforeClass and @AfterClass
+ * methods run on the calling thread, without a bound driver.
+ */
+public class ParallelRunner extends BlockJUnit4ClassRunner {
+
+	private static boolean debug = false;
+
+	public ParallelRunner(Class<?> testClass) throws InitializationError {
+		super(testClass);
+		setScheduler(new PoolScheduler(testClass.getSimpleName()));
+	}
+
+	@Override
+	protected void runChild(FrameworkMethod method, RunNotifier notifier) {
+		if (isIgnored(method)) {
+			super.runChild(method, notifier);
+			return;
+		}
+		try {
+			DriverContext.bind(BrowserPool.getDefault().acquire());
+		} catch (RuntimeException e) {
+			// reported as the failure of the method
+			EachTestNotifier eachNotifier = new EachTestNotifier(notifier, describeChild(method));
+			eachNotifier.fireTestStarted();
+			eachNotifier.addFailure(e);
+			eachNotifier.fireTestFinished();
+			return;
+		}
+		try {
+			super.runChild(method, notifier);
+		} finally {
+			DriverContext.release();
+		}
+	}
+
+	public static int getThreadCount() {
+		return Integer.getInteger("parallel.threads", BrowserPool.getDefault().getSize());
+	}
+
+	// the workers are started with the first method and stopped once the
+	// methods of the class have completed
+	private static class PoolScheduler implements RunnerScheduler {
+		private final String name;
+		private ExecutorService executor = null;
+
+		PoolScheduler(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public synchronized void schedule(Runnable childStatement) {
+			if (executor == null) {
+				int threads = getThreadCount();
+				if (debug) {
+					System.err.println(String.format("Running %s on %d threads", name, threads));
+				}
+				AtomicInteger count = new AtomicInteger(0);
+				executor = Executors.newFixedThreadPool(threads, runnable -> {
+					Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			executor.execute(childStatement);
+		}
+
+		@Override
+		public synchronized void finished() {
+			if (executor == null) {
+				return;
+			}
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.github.sergueik.selenium;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an RGB PNG one row at a time, so that an image of any height is
+ * produced with the memory of a single row: the rows are "Up" filtered,
+ * deflated and emitted as IDAT chunks of bounded size while they arrive.
+ * Rows missing on close are filled with white to keep the file valid.
+ * https://www.w3.org/TR/PNG/#5Chunk-layout
+ * https://www.w3.org/TR/PNG/#9Filters
+ */
+public class PngStreamWriter implements Closeable {
+
+	private static final byte[] signature = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int chunkSize = 64 * 1024;
+
+	private final OutputStream output;
+	private final DeflaterOutputStream deflater;
+	private final Deflater compressor;
+	private final int width;
+	private final int height;
+	// raw bytes of the previous row, for the "Up" filter
+	private byte[] previous;
+	private byte[] current;
+	private final byte[] filtered;
+	private int rows = 0;
+	private boolean closed = false;
+
+	public PngStreamWriter(Path path, int width, int height) throws IOException {
+		this(new BufferedOutputStream(Files.newOutputStream(path), chunkSize), width, height);
+	}
+
+	public PngStreamWriter(OutputStream output, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid image size %dx%d", width, height));
+		}
+		this.output = output;
+		this.width = width;
+		this.height = height;
+		previous = new byte[width * 3];
+		current = new byte[width * 3];
+		filtered = new byte[width * 3 + 1];
+		output.write(signature);
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		// 8 bit depth, color type 2 (truecolor), deflate, adaptive filtering,
+		// no interlace
+		header[8] = 8;
+		header[9] = 2;
+		writeChunk(output, "IHDR", header, header.length);
+		compressor = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		deflater = new DeflaterOutputStream(new IdatOutputStream(), compressor, chunkSize);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	// pixels in the BufferedImage.getRGB format, alpha is dropped
+	public void writeRow(int[] argb) throws IOException {
+		writeRow(argb, 0);
+	}
+
+	public void writeRow(int[] argb, int offset) throws IOException {
+		if (rows >= height) {
+			throw new IllegalStateException(String.format("Image has %d rows already", height));
+		}
+		for (int x = 0, index = 0; x < width; x++) {
+			int pixel = argb[offset + x];
+			current[index++] = (byte) (pixel >> 16);
+			current[index++] = (byte) (pixel >> 8);
+			current[index++] = (byte) pixel;
+		}
+		// filter type 2: difference to the byte above
+		filtered[0] = 2;
+		for (int index = 0; index < current.length; index++) {
+			filtered[index + 1] = (byte) (current[index] - previous[index]);
+		}
+		deflater.write(filtered, 0, filtered.length);
+		byte[] swap = previous;
+		previous = current;
+		current = swap;
+		rows++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			int[] blank = null;
+			while (rows < height) {
+				if (blank == null) {
+					blank = new int[width];
+					Arrays.fill(blank, 0xFFFFFF);
+				}
+				writeRow(blank);
+			}
+			// flushes the last IDAT chunk
+			deflater.close();
+			writeChunk(output, "IEND", new byte[0], 0);
+		} finally {
+			compressor.end();
+			output.close();
+		}
+	}
+
+	private static void putInt(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >>> 24);
+		data[offset + 1] = (byte) (value >>> 16);
+		data[offset + 2] = (byte) (value >>> 8);
+		data[offset + 3] = (byte) value;
+	}
+
+	private static void writeChunk(OutputStream output, String type, byte[] data, int length) throws IOException {
+		byte[] header = new byte[8];
+		putInt(header, 0, length);
+		for (int index = 0; index < 4; index++) {
+			header[4 + index] = (byte) type.charAt(index);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(header, 4, 4);
+		crc.update(data, 0, length);
+		output.write(header);
+		output.write(data, 0, length);
+		byte[] trailer = new byte[4];
+		putInt(trailer, 0, (int) crc.getValue());
+		output.write(trailer);
+	}
+
+	// collects the compressed stream into IDAT chunks
+	private class IdatOutputStream extends OutputStream {
+		private final byte[] buffer = new byte[chunkSize];
+		private int count = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length) {
+				flushChunk();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (count == buffer.length) {
+					flushChunk();
+				}
+				int size = Math.min(length, buffer.length - count);
+				System.arraycopy(data, offset, buffer, count, size);
+				count += size;
+				offset += size;
+				length -= size;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			flushChunk();
+		}
+
+		private void flushChunk() throws IOException {
+			if (count > 0) {
+				writeChunk(output, "IDAT", buffer, count);
+				count = 0;
+			}
+		}
+	}
+}
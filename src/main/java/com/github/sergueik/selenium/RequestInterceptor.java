@@ -0,0 +1,545 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Intercepts the requests of the page with the Fetch domain, to block,
+ * mock, rewrite or serve them from local fixtures. Only the URLs matching a
+ * rule are paused: the rule patterns are passed to Fetch.enable. A paused
+ * request is matched against the rule table compiled once per rule change
+ * (an Aho-Corasick automaton over the literal parts of the patterns, then a
+ * wildcard check of the few candidates) and its handler runs on a handler
+ * thread, never on the websocket reader or the event thread. A handler that
+ * neither fulfills nor fails the request lets it continue.
+ *
+ * <pre>
+ * RequestInterceptor interceptor = new RequestInterceptor(connection);
+ * interceptor.block("*.woff2");
+ * interceptor.serve("*://upload.wikimedia.org/*.png", Paths.get("fixtures/logo.png"));
+ * interceptor.fulfill("*://api.example.com/users*", 200, "application/json", "[]");
+ * interceptor.start();
+ * </pre>
+ *
+ * Wildcards as in Fetch.RequestPattern: '*' matches any number of
+ * characters, '?' exactly one, backslash escapes.
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Fetch#method-enable
+ * https://chromedevtools.github.io/devtools-protocol/tot/Fetch#event-requestPaused
+ */
+public class RequestInterceptor implements Closeable {
+
+	private static boolean debug = false;
+
+	private final CdpConnection connection;
+	private final String sessionId;
+	private final ExecutorService handlers;
+	private final List<Rule> rules = new ArrayList<>();
+	private final Consumer<Map<String, Object>> pausedListener = this::onRequestPaused;
+	private final AtomicInteger paused = new AtomicInteger(0);
+	private final AtomicInteger handled = new AtomicInteger(0);
+	// compiled rule tables of the two stages, replaced on every rule change
+	private volatile UrlMatcher requestMatcher = new UrlMatcher(Collections.emptyList());
+	private volatile UrlMatcher responseMatcher = new UrlMatcher(Collections.emptyList());
+	private boolean started = false;
+
+	public RequestInterceptor(CdpConnection connection) {
+		this(connection, connection.getSessionId(), 4);
+	}
+
+	// on a session of its own, the rules of other interceptors of the page
+	// apply too
+	public RequestInterceptor(CdpConnection connection, String sessionId, int handlerThreads) {
+		this.connection = connection;
+		this.sessionId = sessionId;
+		handlers = Executors.newFixedThreadPool(handlerThreads, runnable -> {
+			Thread thread = new Thread(runnable, "fetch-handler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// the first rule added wins when several match
+	public RequestInterceptor on(String urlPattern, Consumer<PausedRequest> handler) {
+		return addRule(new Rule(urlPattern, false, handler));
+	}
+
+	// the request is paused again when the response headers are received,
+	// the body can be read with PausedRequest.getResponseBody()
+	public RequestInterceptor onResponse(String urlPattern, Consumer<PausedRequest> handler) {
+		return addRule(new Rule(urlPattern, true, handler));
+	}
+
+	public RequestInterceptor block(String urlPattern) {
+		return on(urlPattern, request -> request.fail("BlockedByClient"));
+	}
+
+	public RequestInterceptor fulfill(String urlPattern, int status, String contentType, String body) {
+		byte[] data = body.getBytes(StandardCharsets.UTF_8);
+		return on(urlPattern, request -> request.fulfill(status, contentHeaders(contentType), data));
+	}
+
+	// the fixture is read on every request, it may change between the tests
+	public RequestInterceptor serve(String urlPattern, Path fixture) {
+		return on(urlPattern, request -> {
+			try {
+				String contentType = Files.probeContentType(fixture);
+				request.fulfill(200,
+						contentHeaders((contentType == null) ? "application/octet-stream" : contentType),
+						Files.readAllBytes(fixture));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	public RequestInterceptor rewrite(String urlPattern, UnaryOperator<String> url) {
+		return on(urlPattern, request -> {
+			Map<String, Object> overrides = new HashMap<>();
+			overrides.put("url", url.apply(request.getUrl()));
+			request.continueRequest(overrides);
+		});
+	}
+
+	// the browser stops pausing the requests of the removed rules
+	public synchronized void clearRules() {
+		rules.clear();
+		compile();
+		if (started) {
+			enable();
+		}
+	}
+
+	public synchronized RequestInterceptor start() {
+		if (!started) {
+			connection.addListener(sessionId, "Fetch.requestPaused", pausedListener);
+			started = true;
+			enable();
+		}
+		return this;
+	}
+
+	public synchronized void stop() {
+		if (started) {
+			started = false;
+			connection.removeListener("Fetch.requestPaused", pausedListener);
+			if (!connection.isClosed()) {
+				connection.execute(sessionId, "Fetch.disable", new HashMap<>());
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		stop();
+		handlers.shutdown();
+		try {
+			handlers.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getPausedCount() {
+		return paused.get();
+	}
+
+	// paused requests a rule handler ran for
+	public int getHandledCount() {
+		return handled.get();
+	}
+
+	private synchronized RequestInterceptor addRule(Rule rule) {
+		rules.add(rule);
+		compile();
+		if (started) {
+			enable();
+		}
+		return this;
+	}
+
+	private void compile() {
+		List<Rule> requestRules = new ArrayList<>();
+		List<Rule> responseRules = new ArrayList<>();
+		for (Rule rule : rules) {
+			(rule.responseStage ? responseRules : requestRules).add(rule);
+		}
+		requestMatcher = new UrlMatcher(requestRules);
+		responseMatcher = new UrlMatcher(responseRules);
+	}
+
+	// the browser pauses only the requests matching one of the patterns
+	private void enable() {
+		List<Map<String, Object>> patterns = new ArrayList<>();
+		for (Rule rule : rules) {
+			Map<String, Object> pattern = new HashMap<>();
+			pattern.put("urlPattern", rule.pattern);
+			pattern.put("requestStage", rule.responseStage ? "Response" : "Request");
+			patterns.add(pattern);
+		}
+		Map<String, Object> params = new HashMap<>();
+		params.put("patterns", patterns);
+		connection.execute(sessionId, "Fetch.enable", params);
+	}
+
+	// runs on the event thread: matches and hands over
+	@SuppressWarnings("unchecked")
+	private void onRequestPaused(Map<String, Object> params) {
+		paused.incrementAndGet();
+		PausedRequest request = new PausedRequest(params);
+		Rule rule = (request.isResponseStage() ? responseMatcher : requestMatcher).match(request.getUrl());
+		if (rule == null) {
+			// paused by a pattern of a rule removed since
+			request.continueRequest();
+			return;
+		}
+		handlers.execute(() -> {
+			try {
+				rule.handler.accept(request);
+				handled.incrementAndGet();
+			} catch (RuntimeException e) {
+				System.err.println("Exception in request handler for " + request.getUrl() + " (ignored): " + e.toString());
+			} finally {
+				if (!request.resolved.get()) {
+					request.continueRequest();
+				}
+			}
+		});
+	}
+
+	private static List<Map<String, Object>> contentHeaders(String contentType) {
+		List<Map<String, Object>> headers = new ArrayList<>();
+		headers.add(header("Content-Type", contentType));
+		headers.add(header("Access-Control-Allow-Origin", "*"));
+		return headers;
+	}
+
+	private static Map<String, Object> header(String name, String value) {
+		Map<String, Object> header = new HashMap<>();
+		header.put("name", name);
+		header.put("value", value);
+		return header;
+	}
+
+	static class Rule {
+		private final String pattern;
+		private final boolean responseStage;
+		private final Consumer<PausedRequest> handler;
+
+		Rule(String pattern, boolean responseStage, Consumer<PausedRequest> handler) {
+			this.pattern = pattern;
+			this.responseStage = responseStage;
+			this.handler = handler;
+		}
+	}
+
+	// compiled table of the wildcard patterns: the automaton finds the rules
+	// whose longest literal fragment occurs in the URL in one pass, only
+	// those are checked against the full pattern
+	static class UrlMatcher {
+		private final List<Rule> rules;
+		// pattern of every rule as chars and their kind: literal, '*' or '?'
+		private final char[][] chars;
+		private final byte[][] kinds;
+		// rules without any literal fragment are candidates for every URL
+		private final int[] unconditional;
+		// Aho-Corasick automaton over the fragments
+		private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+		private final List<int[]> outputs = new ArrayList<>();
+		private int[] failure;
+
+		private static final byte literal = 0;
+		private static final byte star = 1;
+		private static final byte question = 2;
+
+		UrlMatcher(List<Rule> rules) {
+			this.rules = new ArrayList<>(rules);
+			int size = rules.size();
+			chars = new char[size][];
+			kinds = new byte[size][];
+			List<Integer> always = new ArrayList<>();
+			transitions.add(new HashMap<>());
+			outputs.add(new int[0]);
+			for (int index = 0; index < size; index++) {
+				String fragment = parse(rules.get(index).pattern, index);
+				if (fragment.isEmpty()) {
+					always.add(index);
+				} else {
+					addFragment(fragment, index);
+				}
+			}
+			unconditional = new int[always.size()];
+			for (int index = 0; index < unconditional.length; index++) {
+				unconditional[index] = always.get(index);
+			}
+			buildFailureLinks();
+		}
+
+		// the first matching rule in the order added, null if none
+		Rule match(String url) {
+			int best = Integer.MAX_VALUE;
+			for (int index : unconditional) {
+				if (index < best && matches(index, url)) {
+					best = index;
+					break;
+				}
+			}
+			int state = 0;
+			for (int position = 0; position < url.length(); position++) {
+				char c = url.charAt(position);
+				Integer next;
+				while ((next = transitions.get(state).get(c)) == null && state != 0) {
+					state = failure[state];
+				}
+				state = (next == null) ? 0 : next;
+				for (int index : outputs.get(state)) {
+					if (index < best && matches(index, url)) {
+						best = index;
+					}
+				}
+			}
+			return (best == Integer.MAX_VALUE) ? null : rules.get(best);
+		}
+
+		// splits the pattern, returns its longest literal fragment
+		private String parse(String pattern, int index) {
+			char[] patternChars = new char[pattern.length()];
+			byte[] patternKinds = new byte[pattern.length()];
+			int length = 0;
+			String longest = "";
+			StringBuilder fragment = new StringBuilder();
+			for (int position = 0; position < pattern.length(); position++) {
+				char c = pattern.charAt(position);
+				byte kind = literal;
+				if (c == '\\' && position + 1 < pattern.length()) {
+					c = pattern.charAt(++position);
+				} else if (c == '*') {
+					kind = star;
+				} else if (c == '?') {
+					kind = question;
+				}
+				patternChars[length] = c;
+				patternKinds[length++] = kind;
+				if (kind == literal) {
+					fragment.append(c);
+				} else {
+					if (fragment.length() > longest.length()) {
+						longest = fragment.toString();
+					}
+					fragment.setLength(0);
+				}
+			}
+			if (fragment.length() > longest.length()) {
+				longest = fragment.toString();
+			}
+			chars[index] = Arrays.copyOf(patternChars, length);
+			kinds[index] = Arrays.copyOf(patternKinds, length);
+			return longest;
+		}
+
+		private void addFragment(String fragment, int index) {
+			int state = 0;
+			for (int position = 0; position < fragment.length(); position++) {
+				Integer next = transitions.get(state).get(fragment.charAt(position));
+				if (next == null) {
+					next = transitions.size();
+					transitions.add(new HashMap<>());
+					outputs.add(new int[0]);
+					transitions.get(state).put(fragment.charAt(position), next);
+				}
+				state = next;
+			}
+			int[] output = outputs.get(state);
+			output = Arrays.copyOf(output, output.length + 1);
+			output[output.length - 1] = index;
+			outputs.set(state, output);
+		}
+
+		// breadth first, the outputs of the failure state are merged in
+		private void buildFailureLinks() {
+			failure = new int[transitions.size()];
+			Queue<Integer> queue = new ArrayDeque<>();
+			for (int child : transitions.get(0).values()) {
+				queue.add(child);
+			}
+			while (!queue.isEmpty()) {
+				int state = queue.poll();
+				for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet()) {
+					int child = transition.getValue();
+					int fallback = failure[state];
+					Integer next;
+					while ((next = transitions.get(fallback).get(transition.getKey())) == null && fallback != 0) {
+						fallback = failure[fallback];
+					}
+					failure[child] = (next == null || next == child) ? 0 : next;
+					int[] inherited = outputs.get(failure[child]);
+					if (inherited.length > 0) {
+						int[] output = outputs.get(child);
+						int[] merged = Arrays.copyOf(output, output.length + inherited.length);
+						System.arraycopy(inherited, 0, merged, output.length, inherited.length);
+						outputs.set(child, merged);
+					}
+					queue.add(child);
+				}
+			}
+		}
+
+		// the linear wildcard match, backtracking to the last '*' only
+		private boolean matches(int index, String url) {
+			char[] pattern = chars[index];
+			byte[] kind = kinds[index];
+			int position = 0;
+			int cursor = 0;
+			int starCursor = -1;
+			int starPosition = 0;
+			while (position < url.length()) {
+				if (cursor < pattern.length && kind[cursor] == star) {
+					starCursor = cursor++;
+					starPosition = position;
+				} else if (cursor < pattern.length
+						&& (kind[cursor] == question || pattern[cursor] == url.charAt(position))) {
+					cursor++;
+					position++;
+				} else if (starCursor >= 0) {
+					cursor = starCursor + 1;
+					position = ++starPosition;
+				} else {
+					return false;
+				}
+			}
+			while (cursor < pattern.length && kind[cursor] == star) {
+				cursor++;
+			}
+			return cursor == pattern.length;
+		}
+	}
+
+	// the request paused by the browser, resolved exactly once
+	public class PausedRequest {
+		private final Map<String, Object> params;
+		private final Map<String, Object> request;
+		private final AtomicBoolean resolved = new AtomicBoolean(false);
+
+		@SuppressWarnings("unchecked")
+		PausedRequest(Map<String, Object> params) {
+			this.params = params;
+			request = (Map<String, Object>) params.get("request");
+		}
+
+		// Fetch requestId, not the Network one
+		public String getRequestId() {
+			return (String) params.get("requestId");
+		}
+
+		public String getNetworkId() {
+			return (String) params.get("networkId");
+		}
+
+		public String getUrl() {
+			return (String) request.get("url");
+		}
+
+		public String getMethod() {
+			return (String) request.get("method");
+		}
+
+		@SuppressWarnings("unchecked")
+		public Map<String, Object> getHeaders() {
+			return (request.get("headers") == null) ? Collections.emptyMap()
+					: (Map<String, Object>) request.get("headers");
+		}
+
+		public String getPostData() {
+			return (String) request.get("postData");
+		}
+
+		public String getResourceType() {
+			return (String) params.get("resourceType");
+		}
+
+		public boolean isResponseStage() {
+			return params.containsKey("responseStatusCode") || params.containsKey("responseErrorReason");
+		}
+
+		public int getResponseStatusCode() {
+			Object status = params.get("responseStatusCode");
+			return (status instanceof Number) ? ((Number) status).intValue() : 0;
+		}
+
+		// name, value pairs as sent by the browser
+		@SuppressWarnings("unchecked")
+		public List<Map<String, Object>> getResponseHeaders() {
+			return (params.get("responseHeaders") == null) ? Collections.emptyList()
+					: (List<Map<String, Object>>) params.get("responseHeaders");
+		}
+
+		// response stage only
+		// https://chromedevtools.github.io/devtools-protocol/tot/Fetch#method-getResponseBody
+		public byte[] getResponseBody() {
+			Map<String, Object> arguments = new HashMap<>();
+			arguments.put("requestId", getRequestId());
+			Map<String, Object> result = connection.execute(sessionId, "Fetch.getResponseBody", arguments);
+			String body = (String) result.get("body");
+			return Boolean.TRUE.equals(result.get("base64Encoded")) ? Base64.getDecoder().decode(body)
+					: body.getBytes(StandardCharsets.UTF_8);
+		}
+
+		// https://chromedevtools.github.io/devtools-protocol/tot/Fetch#method-fulfillRequest
+		public void fulfill(int status, List<Map<String, Object>> headers, byte[] body) {
+			Map<String, Object> arguments = new HashMap<>();
+			arguments.put("responseCode", status);
+			arguments.put("responseHeaders", headers);
+			arguments.put("body", Base64.getEncoder().encodeToString(body));
+			resolve("Fetch.fulfillRequest", arguments);
+		}
+
+		// e.g. "Failed", "BlockedByClient", "ConnectionRefused"
+		public void fail(String errorReason) {
+			Map<String, Object> arguments = new HashMap<>();
+			arguments.put("errorReason", errorReason);
+			resolve("Fetch.failRequest", arguments);
+		}
+
+		public void continueRequest() {
+			continueRequest(new HashMap<>());
+		}
+
+		// url, method, postData (base64) and headers overrides
+		public void continueRequest(Map<String, Object> overrides) {
+			Map<String, Object> arguments = new HashMap<>(overrides);
+			resolve("Fetch.continueRequest", arguments);
+		}
+
+		private void resolve(String method, Map<String, Object> arguments) {
+			if (!resolved.compareAndSet(false, true)) {
+				throw new IllegalStateException("Request " + getUrl() + " is already resolved");
+			}
+			arguments.put("requestId", getRequestId());
+			if (debug) {
+				System.err.println(String.format("%s %s", method, getUrl()));
+			}
+			// the reply is of no interest: a failure means the page is gone
+			connection.send(sessionId, method, arguments);
+		}
+	}
+}
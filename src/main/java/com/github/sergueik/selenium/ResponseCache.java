@@ -0,0 +1,349 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the responses of the page into an on disk store and replays them
+ * on the later runs with Fetch.fulfillRequest, so that the tests do not
+ * fetch the same third party pages over the network every time, and run
+ * offline once recorded.
+ *
+ * The bodies are content addressed: stored once per SHA-256 digest under
+ * bodies/, however many URLs return them. The index is an append only log
+ * of (method and URL, status, headers, digest) records, memory mapped when
+ * the cache is opened and looked up through the offsets of the records.
+ * The redirects are recorded with their headers and an empty body, and
+ * replayed as such: the browser follows the stored Location, so that the
+ * redirected URLs replay offline as well.
+ *
+ * <pre>
+ * ResponseCache cache = new ResponseCache(connection, Paths.get("target/response-cache"));
+ * cache.setMode(ResponseCache.Mode.RECORD_REPLAY);
+ * cache.start();
+ * driver.get("https://www.wikipedia.org");
+ * cache.close();
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Fetch#method-getResponseBody
+ * https://chromedevtools.github.io/devtools-protocol/tot/Fetch#method-fulfillRequest
+ */
+public class ResponseCache implements Closeable {
+
+	private static boolean debug = false;
+	// the body returned by Fetch.getResponseBody is decoded already
+	private static final Set<String> skippedHeaders = new HashSet<>(
+			Arrays.asList("content-encoding", "content-length", "transfer-encoding"));
+	private static final Set<Integer> redirectStatuses = new HashSet<>(Arrays.asList(301, 302, 303, 307, 308));
+	private static final byte[] empty = new byte[0];
+
+	public enum Mode {
+		// fetch and store every response
+		RECORD,
+		// serve the stored responses, fail the others
+		REPLAY,
+		// serve the stored responses, fetch and store the others
+		RECORD_REPLAY
+	}
+
+	private final CdpConnection connection;
+	private final String sessionId;
+	private final Path bodies;
+	private final FileChannel index;
+	// records of the earlier runs, read through the mapping
+	private final MappedByteBuffer mappedIndex;
+	private final Map<String, Integer> offsets = new HashMap<>();
+	// records of this run
+	private final Map<String, Record> recorded = new ConcurrentHashMap<>();
+	private final AtomicInteger hits = new AtomicInteger(0);
+	private final AtomicInteger misses = new AtomicInteger(0);
+	private final AtomicInteger deduplicated = new AtomicInteger(0);
+	private final RequestInterceptor interceptor;
+	private Mode mode = Mode.RECORD_REPLAY;
+
+	public ResponseCache(CdpConnection connection, Path directory) throws IOException {
+		this.connection = connection;
+		bodies = directory.resolve("bodies");
+		Files.createDirectories(bodies);
+		index = FileChannel.open(directory.resolve("index.log"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		mappedIndex = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+		readOffsets();
+		index.position(index.size());
+		// the interception of other code on the page session stays in effect
+		String targetId = connection.getAttachedTargetId();
+		sessionId = (targetId == null) ? connection.getSessionId() : connection.attachToTarget(targetId);
+		interceptor = new RequestInterceptor(connection, sessionId, 4);
+		interceptor.on("*", this::onRequest);
+		interceptor.onResponse("*", this::onResponse);
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	// the session of the page the cache intercepts on
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public ResponseCache start() {
+		interceptor.start();
+		return this;
+	}
+
+	public void stop() {
+		interceptor.stop();
+	}
+
+	@Override
+	public void close() throws IOException {
+		interceptor.close();
+		index.close();
+		if (!sessionId.equals(connection.getSessionId()) && !connection.isClosed()) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("sessionId", sessionId);
+			connection.send(null, "Target.detachFromTarget", params);
+		}
+	}
+
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	// responses recorded in this run
+	public int getRecordedCount() {
+		return recorded.size();
+	}
+
+	// recorded responses whose body was stored already
+	public int getDeduplicatedCount() {
+		return deduplicated.get();
+	}
+
+	// number of distinct requests stored
+	public synchronized int size() {
+		Set<String> keys = new HashSet<>(offsets.keySet());
+		keys.addAll(recorded.keySet());
+		return keys.size();
+	}
+
+	private void onRequest(RequestInterceptor.PausedRequest request) {
+		String key = getKey(request);
+		Record record = lookup(key);
+		if (record != null && mode != Mode.RECORD) {
+			try {
+				byte[] body = Files.readAllBytes(getBodyPath(record.digest));
+				request.fulfill(record.status, record.headers, body);
+				hits.incrementAndGet();
+				return;
+			} catch (IOException e) {
+				System.err.println("Exception reading the stored body of " + key + " (ignored): " + e.toString());
+			}
+		}
+		misses.incrementAndGet();
+		if (mode == Mode.REPLAY) {
+			request.fail("InternetDisconnected");
+		} else {
+			request.continueRequest();
+		}
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Fetch#event-requestPaused
+	private void onResponse(RequestInterceptor.PausedRequest request) {
+		int status = request.getResponseStatusCode();
+		// errors are not worth replaying, redirects are: there is no network
+		// to redirect on replay
+		boolean redirect = redirectStatuses.contains(status);
+		if (mode == Mode.REPLAY || status < 200 || (status >= 300 && !redirect)) {
+			return;
+		}
+		String key = getKey(request);
+		if (recorded.containsKey(key)) {
+			return;
+		}
+		List<Map<String, Object>> headers = new ArrayList<>();
+		for (Map<String, Object> header : request.getResponseHeaders()) {
+			if (!skippedHeaders.contains(String.valueOf(header.get("name")).toLowerCase())) {
+				headers.add(header);
+			}
+		}
+		try {
+			// the body of a redirect is not available
+			byte[] body = redirect ? empty : request.getResponseBody();
+			String digest = store(body);
+			append(new Record(key, status, headers, digest));
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Exception recording " + key + " (ignored): " + e.toString());
+		}
+	}
+
+	// the post data is part of the key, by digest
+	private static String getKey(RequestInterceptor.PausedRequest request) {
+		String postData = request.getPostData();
+		return request.getMethod() + " " + request.getUrl()
+				+ ((postData == null) ? "" : " " + toHex(digest(postData.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	private synchronized Record lookup(String key) {
+		Record record = recorded.get(key);
+		if (record == null && offsets.containsKey(key)) {
+			record = readRecord(mappedIndex.duplicate(), offsets.get(key));
+		}
+		return record;
+	}
+
+	// written once per digest, the rename makes a partially written body
+	// invisible
+	private String store(byte[] body) throws IOException {
+		String digest = toHex(digest(body));
+		Path path = getBodyPath(digest);
+		if (Files.exists(path)) {
+			deduplicated.incrementAndGet();
+			return digest;
+		}
+		Files.createDirectories(path.getParent());
+		Path temporary = Files.createTempFile(path.getParent(), digest, ".tmp");
+		Files.write(temporary, body);
+		try {
+			Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException e) {
+			Files.delete(temporary);
+		}
+		return digest;
+	}
+
+	private Path getBodyPath(String digest) {
+		return bodies.resolve(digest.substring(0, 2)).resolve(digest);
+	}
+
+	// record layout: int length, key, short status, header count, name and
+	// value pairs, digest; strings as int length and UTF-8 bytes
+	private synchronized void append(Record record) throws IOException {
+		List<byte[]> strings = new ArrayList<>();
+		strings.add(record.key.getBytes(StandardCharsets.UTF_8));
+		for (Map<String, Object> header : record.headers) {
+			strings.add(String.valueOf(header.get("name")).getBytes(StandardCharsets.UTF_8));
+			strings.add(String.valueOf(header.get("value")).getBytes(StandardCharsets.UTF_8));
+		}
+		strings.add(record.digest.getBytes(StandardCharsets.UTF_8));
+		int length = 2 + 4;
+		for (byte[] string : strings) {
+			length += 4 + string.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+		buffer.putInt(length);
+		putString(buffer, strings.get(0));
+		buffer.putShort((short) record.status);
+		buffer.putInt(record.headers.size());
+		for (int position = 1; position < strings.size(); position++) {
+			putString(buffer, strings.get(position));
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			index.write(buffer);
+		}
+		recorded.put(record.key, record);
+		if (debug) {
+			System.err.println(String.format("Recorded %s %d %s", record.key, record.status, record.digest));
+		}
+	}
+
+	// the later records of a key win, a torn record at the end is ignored
+	private void readOffsets() {
+		ByteBuffer buffer = mappedIndex.duplicate();
+		while (buffer.remaining() >= 4) {
+			int offset = buffer.position();
+			int length = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				break;
+			}
+			offsets.put(getString(buffer), offset);
+			buffer.position(offset + 4 + length);
+		}
+	}
+
+	private static Record readRecord(ByteBuffer buffer, int offset) {
+		buffer.position(offset + 4);
+		String key = getString(buffer);
+		int status = buffer.getShort();
+		int count = buffer.getInt();
+		List<Map<String, Object>> headers = new ArrayList<>();
+		for (int index = 0; index < count; index++) {
+			Map<String, Object> header = new HashMap<>();
+			header.put("name", getString(buffer));
+			header.put("value", getString(buffer));
+			headers.add(header);
+		}
+		return new Record(key, status, headers, getString(buffer));
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] string) {
+		buffer.putInt(string.length);
+		buffer.put(string);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		byte[] string = new byte[buffer.getInt()];
+		buffer.get(string);
+		return new String(string, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] digest(byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] data) {
+		StringBuilder hex = new StringBuilder(data.length * 2);
+		for (byte b : data) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static class Record {
+		private final String key;
+		private final int status;
+		private final List<Map<String, Object>> headers;
+		private final String digest;
+
+		Record(String key, int status, List<Map<String, Object>> headers, String digest) {
+			this.key = key;
+			this.status = status;
+			this.headers = headers;
+			this.digest = digest;
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package com.github.sergueik.selenium;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Continuous capture of the page through Page.startScreencast instead of
+ * repeated Page.captureScreenshot calls: the browser pushes the frames it
+ * renders anyway, the recorder acknowledges them and hands them to a
+ * consumer thread through a bounded queue. When the queue is full the
+ * acknowledgement is held back, which makes the browser pause the screencast
+ * rather than the test thread.
+ *
+ * <pre>
+ * ScreencastRecorder recorder = new ScreencastRecorder(connection);
+ * recorder.setEveryNthFrame(2);
+ * recorder.start(recorder.toDirectory(Paths.get("frames")));
+ * ...
+ * recorder.stop();
+ * ScreencastRecorder.writeGif(recorder.getWrittenFrames(), Paths.get("flow.gif"), 200);
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Page#method-startScreencast
+ * https://chromedevtools.github.io/devtools-protocol/tot/Page#event-screencastFrame
+ */
+public class ScreencastRecorder implements Closeable {
+
+	private static boolean debug = false;
+	private static final Frame endOfStream = new Frame(null, -1, new HashMap<>(), -1);
+
+	private final CdpConnection connection;
+	private final Consumer<Map<String, Object>> frameListener = this::onFrame;
+	private final AtomicInteger received = new AtomicInteger(0);
+	private final AtomicInteger dropped = new AtomicInteger(0);
+	private final AtomicInteger handled = new AtomicInteger(0);
+	// screencast session id of the frame the acknowledgement is held back for
+	private final AtomicReference<Object> deferredAck = new AtomicReference<>();
+	private final List<Path> writtenFrames = Collections.synchronizedList(new ArrayList<>());
+	private BlockingQueue<Frame> queue = null;
+	private Thread consumerThread = null;
+	private ScreenshotSink sink = null;
+
+	private String format = "jpeg";
+	private int quality = 80;
+	private int maxWidth = 0;
+	private int maxHeight = 0;
+	private int everyNthFrame = 1;
+	private int queueCapacity = 64;
+
+	public ScreencastRecorder(CdpConnection connection) {
+		this.connection = connection;
+	}
+
+	// "jpeg" or "png"
+	public void setFormat(String format) {
+		this.format = format;
+	}
+
+	// jpeg compression quality 0 - 100
+	public void setQuality(int quality) {
+		this.quality = quality;
+	}
+
+	// frames are scaled down to fit, 0 keeps the viewport size
+	public void setMaxSize(int maxWidth, int maxHeight) {
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+	}
+
+	public void setEveryNthFrame(int everyNthFrame) {
+		this.everyNthFrame = everyNthFrame;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public synchronized void start(Consumer<Frame> consumer) {
+		if (queue != null) {
+			throw new IllegalStateException("Screencast is already started");
+		}
+		queue = new ArrayBlockingQueue<>(queueCapacity);
+		BlockingQueue<Frame> frames = queue;
+		consumerThread = new Thread(() -> consume(frames, consumer), "screencast-consumer");
+		consumerThread.setDaemon(true);
+		consumerThread.start();
+		connection.addListener("Page.screencastFrame", frameListener);
+		Map<String, Object> params = new HashMap<>();
+		params.put("format", format);
+		params.put("quality", quality);
+		if (maxWidth > 0) {
+			params.put("maxWidth", maxWidth);
+		}
+		if (maxHeight > 0) {
+			params.put("maxHeight", maxHeight);
+		}
+		params.put("everyNthFrame", everyNthFrame);
+		connection.execute("Page.startScreencast", params);
+	}
+
+	// stops the screencast and waits for the consumer to handle the frames
+	// already queued
+	public synchronized void stop() {
+		if (queue == null) {
+			return;
+		}
+		try {
+			connection.execute("Page.stopScreencast", new HashMap<>());
+		} finally {
+			connection.removeListener("Page.screencastFrame", frameListener);
+			try {
+				queue.put(endOfStream);
+				consumerThread.join(TimeUnit.MINUTES.toMillis(1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			queue = null;
+			consumerThread = null;
+			if (sink != null) {
+				sink.close();
+				sink = null;
+			}
+		}
+		if (debug) {
+			System.err.println(String.format("Screencast frames received: %d handled: %d dropped: %d", received.get(),
+					handled.get(), dropped.get()));
+		}
+	}
+
+	// consumer writing frame00000.jpg, frame00001.jpg ... to the directory,
+	// the paths are collected in getWrittenFrames()
+	public Consumer<Frame> toDirectory(Path directory) {
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		sink = new ScreenshotSink();
+		ScreenshotSink frameSink = sink;
+		String extension = format.equals("png") ? "png" : "jpg";
+		return frame -> {
+			Path path = directory.resolve(String.format("frame%05d.%s", frame.getSequence(), extension));
+			try {
+				frameSink.write(frame.getData(), path);
+				writtenFrames.add(path);
+			} catch (IOException e) {
+				System.err.println("Exception saving frame (ignored): " + e.toString());
+			}
+		};
+	}
+
+	public List<Path> getWrittenFrames() {
+		return new ArrayList<>(writtenFrames);
+	}
+
+	public int getReceivedCount() {
+		return received.get();
+	}
+
+	public int getHandledCount() {
+		return handled.get();
+	}
+
+	// frames not queued because the consumer was behind
+	public int getDroppedCount() {
+		return dropped.get();
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+
+	// encodes the frames into an animated GIF, offline
+	public static void writeGif(List<Path> frames, Path output, int delayMillis) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+		Files.deleteIfExists(output);
+		try (ImageOutputStream stream = ImageIO.createImageOutputStream(output.toFile())) {
+			writer.setOutput(stream);
+			writer.prepareWriteSequence(null);
+			boolean first = true;
+			for (Path frame : frames) {
+				BufferedImage image = ImageIO.read(frame.toFile());
+				if (image == null) {
+					continue;
+				}
+				IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image),
+						null);
+				String formatName = metadata.getNativeMetadataFormatName();
+				IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(formatName);
+				IIOMetadataNode graphicControl = getChild(root, "GraphicControlExtension");
+				graphicControl.setAttribute("disposalMethod", "none");
+				graphicControl.setAttribute("userInputFlag", "FALSE");
+				graphicControl.setAttribute("transparentColorFlag", "FALSE");
+				graphicControl.setAttribute("delayTime", Integer.toString(delayMillis / 10));
+				graphicControl.setAttribute("transparentColorIndex", "0");
+				if (first) {
+					// loop forever
+					IIOMetadataNode application = new IIOMetadataNode("ApplicationExtension");
+					application.setAttribute("applicationID", "NETSCAPE");
+					application.setAttribute("authenticationCode", "2.0");
+					application.setUserObject(new byte[] { 0x1, 0, 0 });
+					getChild(root, "ApplicationExtensions").appendChild(application);
+					first = false;
+				}
+				metadata.setFromTree(formatName, root);
+				writer.writeToSequence(new IIOImage(image, null, metadata), null);
+			}
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	private static IIOMetadataNode getChild(IIOMetadataNode root, String name) {
+		for (int index = 0; index < root.getLength(); index++) {
+			if (root.item(index).getNodeName().equalsIgnoreCase(name)) {
+				return (IIOMetadataNode) root.item(index);
+			}
+		}
+		IIOMetadataNode node = new IIOMetadataNode(name);
+		root.appendChild(node);
+		return node;
+	}
+
+	// runs on the event thread: never blocks
+	@SuppressWarnings("unchecked")
+	private void onFrame(Map<String, Object> params) {
+		BlockingQueue<Frame> frames = queue;
+		Object screencastSessionId = params.get("sessionId");
+		int sequence = received.getAndIncrement();
+		Frame frame = new Frame((String) params.get("data"), sequence, (Map<String, Object>) params.get("metadata"),
+				screencastSessionId);
+		if (frames != null && frames.offer(frame)) {
+			acknowledge(screencastSessionId);
+		} else {
+			dropped.incrementAndGet();
+			deferredAck.set(screencastSessionId);
+		}
+	}
+
+	private void consume(BlockingQueue<Frame> frames, Consumer<Frame> consumer) {
+		try {
+			while (true) {
+				Frame frame = frames.take();
+				// room in the queue again, let the browser resume
+				Object screencastSessionId = deferredAck.getAndSet(null);
+				if (screencastSessionId != null) {
+					acknowledge(screencastSessionId);
+				}
+				if (frame == endOfStream) {
+					return;
+				}
+				try {
+					consumer.accept(frame);
+					handled.incrementAndGet();
+				} catch (RuntimeException e) {
+					System.err.println("Exception in screencast consumer (ignored): " + e.toString());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Page#method-screencastFrameAck
+	private void acknowledge(Object screencastSessionId) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("sessionId", screencastSessionId);
+		connection.send("Page.screencastFrameAck", params);
+	}
+
+	public static class Frame {
+		private final String data;
+		private final int sequence;
+		private final Map<String, Object> metadata;
+		private final Object screencastSessionId;
+
+		Frame(String data, int sequence, Map<String, Object> metadata, Object screencastSessionId) {
+			this.data = data;
+			this.sequence = sequence;
+			this.metadata = metadata;
+			this.screencastSessionId = screencastSessionId;
+		}
+
+		// base64 encoded image
+		public String getData() {
+			return data;
+		}
+
+		// order of arrival, including the dropped frames
+		public int getSequence() {
+			return sequence;
+		}
+
+		// offsetTop, pageScaleFactor, deviceWidth, deviceHeight, scrollOffsetX,
+		// scrollOffsetY and timestamp
+		public Map<String, Object> getMetadata() {
+			return metadata;
+		}
+
+		public double getTimestamp() {
+			Object timestamp = metadata.get("timestamp");
+			return (timestamp instanceof Number) ? ((Number) timestamp).doubleValue() : 0;
+		}
+
+		public Object getScreencastSessionId() {
+			return screencastSessionId;
+		}
+	}
+}
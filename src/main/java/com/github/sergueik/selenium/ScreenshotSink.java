@@ -0,0 +1,358 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the base64 "data" of Page.captureScreenshot (and of the screencast
+ * frames) to disk without the intermediate byte[] of commons-codec Base64 and
+ * the BufferedImage of ImageIO.read: the text is decoded block by block
+ * through pooled scratch arrays into a pooled direct ByteBuffer, the dimensions are read from the PNG IHDR (or
+ * JPEG SOF) header and the buffer is written through a FileChannel, either
+ * on the calling thread or on the writer thread e.g.
+ *
+ * <pre>
+ * try (ScreenshotSink sink = new ScreenshotSink(1)) {
+ * 	sink.writeAsync((String) result.get("data"), Paths.get("card01.png"));
+ * }
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Page#method-captureScreenshot
+ * https://www.w3.org/TR/PNG/#11IHDR
+ */
+public class ScreenshotSink implements Closeable {
+
+	private static boolean debug = false;
+	private static final int maxPooled = 8;
+	// chars of base64 decoded per block, into 3 / 4 as many bytes
+	private static final int blockSize = 16 * 1024;
+	private static final Base64.Decoder decoder = Base64.getDecoder();
+	private static final byte[] decodeTable = new byte[128];
+	private static final byte invalid = -1;
+	private static final byte skip = -2;
+
+	static {
+		Arrays.fill(decodeTable, invalid);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int index = 0; index < alphabet.length(); index++) {
+			decodeTable[alphabet.charAt(index)] = (byte) index;
+		}
+		// url safe variant
+		decodeTable['-'] = 62;
+		decodeTable['_'] = 63;
+		decodeTable['\r'] = skip;
+		decodeTable['\n'] = skip;
+		decodeTable[' '] = skip;
+		decodeTable['\t'] = skip;
+	}
+
+	private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+	private final Queue<Scratch> scratches = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger allocated = new AtomicInteger(0);
+	private final ExecutorService writer;
+
+	// synchronous sink
+	public ScreenshotSink() {
+		this(0);
+	}
+
+	// sink with the given number of writer threads for writeAsync
+	public ScreenshotSink(int writerThreads) {
+		writer = (writerThreads <= 0) ? null : Executors.newFixedThreadPool(writerThreads, runnable -> {
+			Thread thread = new Thread(runnable, "screenshot-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// writes the "data" of the Page.captureScreenshot result
+	public Screenshot write(Map<String, Object> result, Path path) throws IOException {
+		return write((String) result.get("data"), path);
+	}
+
+	public Screenshot write(CharSequence data, Path path) throws IOException {
+		ByteBuffer buffer = decode(data);
+		try {
+			int[] dimensions = readDimensions(buffer);
+			int size = buffer.remaining();
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			if (debug) {
+				System.err.println(String.format("Wrote %d bytes %dx%d to %s", size, dimensions[0], dimensions[1], path));
+			}
+			return new Screenshot(path, dimensions[0], dimensions[1], size);
+		} finally {
+			release(buffer);
+		}
+	}
+
+	// decoding and writing happen on the writer thread, the calling thread
+	// is free to capture the next screenshot
+	public CompletableFuture<Screenshot> writeAsync(CharSequence data, Path path) {
+		if (writer == null) {
+			throw new IllegalStateException("Screenshot sink has no writer threads");
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return write(data, path);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, writer);
+	}
+
+	// reads the dimensions without writing the image
+	public int[] getDimensions(CharSequence data) {
+		ByteBuffer buffer = decode(data);
+		try {
+			return readDimensions(buffer);
+		} finally {
+			release(buffer);
+		}
+	}
+
+	// number of direct buffers allocated so far, stays flat when the pool is
+	// reused
+	public int getAllocatedCount() {
+		return allocated.get();
+	}
+
+	// waits for the pending asynchronous writes
+	@Override
+	public void close() {
+		if (writer != null) {
+			writer.shutdown();
+			try {
+				writer.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		pool.clear();
+		scratches.clear();
+	}
+
+	// returns the buffer flipped for reading. The text is decoded a block at
+	// a time into the scratch array and put in bulk: a put per byte into a
+	// direct buffer is slower than Base64.getDecoder() and a byte[]. The full
+	// blocks go through Base64.getDecoder(), the rest (the last block,
+	// whitespace, the url safe alphabet) through the decoding table
+	ByteBuffer decode(CharSequence data) {
+		int length = data.length();
+		ByteBuffer buffer = acquire(length / 4 * 3 + 3);
+		Scratch scratch = scratches.poll();
+		if (scratch == null) {
+			scratch = new Scratch();
+		}
+		char[] chars = scratch.chars;
+		byte[] ascii = scratch.ascii;
+		byte[] bytes = scratch.bytes;
+		int bits = 0;
+		int count = 0;
+		boolean padded = false;
+		try {
+			for (int offset = 0; offset < length && !padded; offset += blockSize) {
+				int end = Math.min(blockSize, length - offset);
+				getChars(data, offset, offset + end, chars);
+				if (count == 0 && end == blockSize && toAscii(chars, ascii)) {
+					try {
+						buffer.put(bytes, 0, decoder.decode(ascii, bytes));
+						// the text ends with the padding
+						padded = (ascii[blockSize - 1] == '=');
+						continue;
+					} catch (IllegalArgumentException e) {
+						// padding, whitespace or the url safe alphabet: decoded below
+					}
+				}
+				int written = 0;
+				int index = 0;
+				while (index < end) {
+					if (count == 0 && index + 4 <= end) {
+						char c0 = chars[index];
+						char c1 = chars[index + 1];
+						char c2 = chars[index + 2];
+						char c3 = chars[index + 3];
+						if ((c0 | c1 | c2 | c3) < 128) {
+							int group = decodeTable[c0] << 18 | decodeTable[c1] << 12 | decodeTable[c2] << 6
+									| decodeTable[c3];
+							// a negative entry (invalid, skip, '=') makes the group negative
+							if (group >= 0) {
+								bytes[written++] = (byte) (group >> 16);
+								bytes[written++] = (byte) (group >> 8);
+								bytes[written++] = (byte) group;
+								index += 4;
+								continue;
+							}
+						}
+					}
+					char c = chars[index++];
+					if (c == '=') {
+						padded = true;
+						break;
+					}
+					byte value = (c < 128) ? decodeTable[c] : invalid;
+					if (value == skip) {
+						continue;
+					}
+					if (value == invalid) {
+						throw new IllegalArgumentException(
+								String.format("Illegal base64 character 0x%02x at %d", (int) c, offset + index - 1));
+					}
+					bits = (bits << 6) | value;
+					if (++count == 4) {
+						bytes[written++] = (byte) (bits >> 16);
+						bytes[written++] = (byte) (bits >> 8);
+						bytes[written++] = (byte) bits;
+						bits = 0;
+						count = 0;
+					}
+				}
+				buffer.put(bytes, 0, written);
+			}
+		} catch (IllegalArgumentException e) {
+			release(buffer);
+			throw e;
+		} finally {
+			if (scratches.size() < maxPooled) {
+				scratches.offer(scratch);
+			}
+		}
+		// trailing group of 2 or 3 characters
+		if (count == 2) {
+			buffer.put((byte) (bits >> 4));
+		} else if (count == 3) {
+			buffer.put((byte) (bits >> 10));
+			buffer.put((byte) (bits >> 2));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	// false when a char is not ASCII, and would be truncated
+	private static boolean toAscii(char[] chars, byte[] ascii) {
+		int bits = 0;
+		for (int index = 0; index < chars.length; index++) {
+			char c = chars[index];
+			bits |= c;
+			ascii[index] = (byte) c;
+		}
+		return bits < 128;
+	}
+
+	private static void getChars(CharSequence data, int start, int end, char[] chars) {
+		if (data instanceof String) {
+			((String) data).getChars(start, end, chars, 0);
+		} else if (data instanceof StringBuilder) {
+			((StringBuilder) data).getChars(start, end, chars, 0);
+		} else {
+			for (int index = start; index < end; index++) {
+				chars[index - start] = data.charAt(index);
+			}
+		}
+	}
+
+	// width and height from the PNG IHDR chunk or the JPEG start of frame
+	// segment, {0, 0} when the format is not recognized
+	public static int[] readDimensions(ByteBuffer buffer) {
+		int start = buffer.position();
+		int limit = buffer.limit();
+		if (limit - start >= 24 && (buffer.get(start) & 0xFF) == 0x89 && buffer.get(start + 1) == 'P'
+				&& buffer.get(start + 2) == 'N' && buffer.get(start + 3) == 'G' && buffer.get(start + 12) == 'I'
+				&& buffer.get(start + 13) == 'H' && buffer.get(start + 14) == 'D' && buffer.get(start + 15) == 'R') {
+			return new int[] { buffer.getInt(start + 16), buffer.getInt(start + 20) };
+		}
+		if (limit - start >= 4 && (buffer.get(start) & 0xFF) == 0xFF && (buffer.get(start + 1) & 0xFF) == 0xD8) {
+			int position = start + 2;
+			while (position + 9 < limit && (buffer.get(position) & 0xFF) == 0xFF) {
+				int marker = buffer.get(position + 1) & 0xFF;
+				int segmentLength = buffer.getShort(position + 2) & 0xFFFF;
+				// SOF0 - SOF15 except DHT, JPG and DAC
+				if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+					return new int[] { buffer.getShort(position + 7) & 0xFFFF, buffer.getShort(position + 5) & 0xFFFF };
+				}
+				position += 2 + segmentLength;
+			}
+		}
+		return new int[] { 0, 0 };
+	}
+
+	private ByteBuffer acquire(int capacity) {
+		for (ByteBuffer buffer = pool.poll(); buffer != null; buffer = pool.poll()) {
+			if (buffer.capacity() >= capacity) {
+				buffer.clear();
+				return buffer;
+			}
+			// too small - let it be collected and allocate a larger one
+		}
+		allocated.incrementAndGet();
+		// round up to limit the reallocation as the screenshots grow
+		return ByteBuffer.allocateDirect(Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1);
+	}
+
+	void release(ByteBuffer buffer) {
+		if (pool.size() < maxPooled) {
+			pool.offer(buffer);
+		}
+	}
+
+	// the blocks of decode, one per decoding thread
+	private static class Scratch {
+		private final char[] chars = new char[blockSize];
+		private final byte[] ascii = new byte[blockSize];
+		private final byte[] bytes = new byte[blockSize / 4 * 3];
+	}
+
+	public static class Screenshot {
+		private final Path path;
+		private final int width;
+		private final int height;
+		private final int size;
+
+		Screenshot(Path path, int width, int height, int size) {
+			this.path = path;
+			this.width = width;
+			this.height = height;
+			this.size = size;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %dx%d (%d bytes)", path, width, height, size);
+		}
+	}
+}
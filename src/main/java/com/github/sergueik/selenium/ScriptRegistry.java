@@ -0,0 +1,323 @@
+package com.github.sergueik.selenium;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.openqa.selenium.JavascriptException;
+import org.openqa.selenium.json.Json;
+
+/**
+ * Compiles each distinct script once per execution context with
+ * Runtime.compileScript (persistScript: true) and runs it by scriptId with
+ * Runtime.runScript, instead of sending and parsing the whole script text
+ * on every call the way JavascriptExecutor.executeScript does. The scripts
+ * taking arguments are compiled into a function, kept in the page and
+ * invoked through Runtime.callFunctionOn e.g.
+ *
+ * <pre>
+ * ScriptRegistry scripts = new ScriptRegistry(connection);
+ * scripts.start();
+ * scripts.evaluate(helperLibrary);
+ * Object title = scripts.evaluate("document.title");
+ * Object links = scripts.call("return document.querySelectorAll(arguments[0]).length;", "a");
+ * </pre>
+ *
+ * The compiled scripts of a context are dropped with
+ * Runtime.executionContextDestroyed, i.e. on navigation. The contexts are
+ * learned from Runtime.executionContextCreated, which Runtime.enable does not
+ * replay when other code enabled Runtime on the session already: until the
+ * main frame context is known by id, the scripts are compiled and run
+ * without an executionContextId, i.e. in the default context of the page,
+ * and are valid until the next context is cleared or destroyed. When the
+ * script cannot be run by id (the context went away before the event
+ * arrived) it is recompiled once, then evaluated from text.
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Runtime#method-compileScript
+ * https://chromedevtools.github.io/devtools-protocol/tot/Runtime#method-runScript
+ */
+public class ScriptRegistry {
+
+	private static boolean debug = false;
+	private static final Json json = new Json();
+	private static final String objectGroup = "script-registry";
+	// applies the compiled function, passed as this, to the arguments
+	private static final String trampoline = "function() { return this.apply(null, arguments); }";
+	// key of the scripts of the default context not known by id, the ids
+	// of the contexts start at 1
+	private static final int defaultContext = 0;
+
+	private final CdpConnection connection;
+	// default execution context by frame id
+	private final Map<String, Integer> contexts = new ConcurrentHashMap<>();
+	// compiled scripts by execution context
+	private final Map<Integer, Map<String, Compiled>> compiled = new ConcurrentHashMap<>();
+	private final AtomicInteger compileCount = new AtomicInteger(0);
+	private final AtomicInteger hitCount = new AtomicInteger(0);
+	private final AtomicInteger fallbackCount = new AtomicInteger(0);
+	// bumped when a context is cleared or destroyed
+	private final AtomicInteger generation = new AtomicInteger(0);
+	private volatile String mainFrameId = null;
+	private boolean started = false;
+
+	private final Consumer<Map<String, Object>> createdListener = this::onContextCreated;
+	private final Consumer<Map<String, Object>> destroyedListener = this::onContextDestroyed;
+	private final Consumer<Map<String, Object>> clearedListener = o -> {
+		generation.incrementAndGet();
+		mainFrameId = null;
+		contexts.clear();
+		compiled.clear();
+	};
+
+	public ScriptRegistry(CdpConnection connection) {
+		this.connection = connection;
+	}
+
+	// Runtime.enable reports the existing contexts, unless Runtime was enabled
+	// on the session already
+	public synchronized ScriptRegistry start() {
+		if (!started) {
+			connection.addListener("Runtime.executionContextCreated", createdListener);
+			connection.addListener("Runtime.executionContextDestroyed", destroyedListener);
+			connection.addListener("Runtime.executionContextsCleared", clearedListener);
+			connection.execute("Runtime.enable", new HashMap<>());
+			started = true;
+		}
+		return this;
+	}
+
+	// releases the compiled functions kept in the page
+	public synchronized void stop() {
+		if (started) {
+			connection.removeListener("Runtime.executionContextCreated", createdListener);
+			connection.removeListener("Runtime.executionContextDestroyed", destroyedListener);
+			connection.removeListener("Runtime.executionContextsCleared", clearedListener);
+			if (!connection.isClosed()) {
+				Map<String, Object> params = new HashMap<>();
+				params.put("objectGroup", objectGroup);
+				// the reply is of no interest
+				connection.send("Runtime.releaseObjectGroup", params);
+			}
+			contexts.clear();
+			compiled.clear();
+			started = false;
+		}
+	}
+
+	// number of Runtime.compileScript calls
+	public int getCompileCount() {
+		return compileCount.get();
+	}
+
+	// calls served by a script compiled earlier
+	public int getHitCount() {
+		return hitCount.get();
+	}
+
+	// calls evaluated from the script text
+	public int getFallbackCount() {
+		return fallbackCount.get();
+	}
+
+	// scripts compiled in the current main frame context
+	public int size() {
+		Map<String, Compiled> scripts = compiled.get(getContextId());
+		if (scripts == null) {
+			return 0;
+		}
+		int size = 0;
+		for (Compiled entry : scripts.values()) {
+			if (isCurrent(entry)) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	// the value of the script, the last expression statement
+	public Object evaluate(String script) {
+		return run(script, null);
+	}
+
+	// the script is the body of a function, in the JavascriptExecutor
+	// manner: the arguments are arguments[0] ..., the value is returned; the
+	// arguments are passed by value (JSON)
+	public Object call(String script, Object... arguments) {
+		return run(script, arguments);
+	}
+
+	private Object run(String script, Object[] arguments) {
+		for (int attempt = 0; attempt < 2; attempt++) {
+			int contextId = getContextId();
+			try {
+				Compiled entry = getCompiled(contextId, script, arguments != null);
+				return (arguments == null) ? runScript(contextId, entry) : callFunction(entry, arguments);
+			} catch (CdpException e) {
+				// the context is gone: wait for its events and try the new one
+				if (debug) {
+					System.err.println("Script could not be run in context " + contextId + ": " + e.getMessage());
+				}
+				compiled.remove(contextId);
+				contexts.values().remove(contextId);
+				mainFrameId = null;
+				CdpConnection.await(connection.flushEvents(), "flushEvents", connection.getTimeout());
+			}
+		}
+		fallbackCount.incrementAndGet();
+		String expression = (arguments == null) ? script
+				: "(function() {\n" + script + "\n}).apply(null, " + json.toJson(arguments) + ")";
+		Map<String, Object> params = new HashMap<>();
+		params.put("expression", expression);
+		params.put("returnByValue", true);
+		params.put("awaitPromise", true);
+		return getValue(connection.execute("Runtime.evaluate", params));
+	}
+
+	private Compiled getCompiled(int contextId, String script, boolean function) {
+		Map<String, Compiled> scripts = compiled.computeIfAbsent(contextId, o -> new ConcurrentHashMap<>());
+		String key = (function ? "function:" : "script:") + script;
+		Compiled entry = scripts.get(key);
+		if (entry != null && isCurrent(entry)) {
+			hitCount.incrementAndGet();
+			return entry;
+		}
+		int started = generation.get();
+		Map<String, Object> params = new HashMap<>();
+		params.put("expression", function ? "(function() {\n" + script + "\n})" : script);
+		params.put("sourceURL", "");
+		params.put("persistScript", true);
+		putContextId(params, contextId);
+		Map<String, Object> result = connection.execute("Runtime.compileScript", params);
+		compileCount.incrementAndGet();
+		throwOnException(result);
+		entry = new Compiled((String) result.get("scriptId"), contextId, started);
+		if (function) {
+			// the function object stays in the page, in the object group
+			params = new HashMap<>();
+			params.put("scriptId", entry.scriptId);
+			putContextId(params, contextId);
+			params.put("objectGroup", objectGroup);
+			result = connection.execute("Runtime.runScript", params);
+			throwOnException(result);
+			entry.functionObjectId = (String) getRemoteObject(result).get("objectId");
+		}
+		scripts.put(key, entry);
+		return entry;
+	}
+
+	private Object runScript(int contextId, Compiled entry) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("scriptId", entry.scriptId);
+		putContextId(params, contextId);
+		params.put("returnByValue", true);
+		params.put("awaitPromise", true);
+		return getValue(connection.execute("Runtime.runScript", params));
+	}
+
+	private Object callFunction(Compiled entry, Object[] arguments) {
+		List<Map<String, Object>> values = new ArrayList<>();
+		for (Object argument : arguments) {
+			Map<String, Object> value = new HashMap<>();
+			value.put("value", argument);
+			values.add(value);
+		}
+		Map<String, Object> params = new HashMap<>();
+		params.put("objectId", entry.functionObjectId);
+		params.put("functionDeclaration", trampoline);
+		params.put("arguments", values);
+		params.put("returnByValue", true);
+		params.put("awaitPromise", true);
+		return getValue(connection.execute("Runtime.callFunctionOn", params));
+	}
+
+	// the default context of the main frame, defaultContext when not known
+	// by id. The main frame id is asked for once per cleared contexts
+	private int getContextId() {
+		if (mainFrameId == null) {
+			mainFrameId = getMainFrameId();
+		}
+		Integer contextId = (mainFrameId == null) ? null : contexts.get(mainFrameId);
+		return (contextId == null) ? defaultContext : contextId;
+	}
+
+	// the scripts of the default context not known by id are valid until
+	// the next context is cleared or destroyed
+	private boolean isCurrent(Compiled entry) {
+		return entry.contextId != defaultContext || entry.generation == generation.get();
+	}
+
+	// omitted, the command runs in the default context of the page
+	private static void putContextId(Map<String, Object> params, int contextId) {
+		if (contextId != defaultContext) {
+			params.put("executionContextId", contextId);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private String getMainFrameId() {
+		Map<String, Object> result = connection.execute("Page.getFrameTree", new HashMap<>());
+		Map<String, Object> frameTree = (Map<String, Object>) result.get("frameTree");
+		return (String) ((Map<String, Object>) frameTree.get("frame")).get("id");
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Runtime#type-ExecutionContextDescription
+	@SuppressWarnings("unchecked")
+	private void onContextCreated(Map<String, Object> params) {
+		Map<String, Object> context = (Map<String, Object>) params.get("context");
+		Map<String, Object> auxData = (Map<String, Object>) context.get("auxData");
+		if (auxData != null && Boolean.TRUE.equals(auxData.get("isDefault")) && auxData.get("frameId") != null) {
+			contexts.put((String) auxData.get("frameId"), ((Number) context.get("id")).intValue());
+		}
+	}
+
+	private void onContextDestroyed(Map<String, Object> params) {
+		Integer contextId = ((Number) params.get("executionContextId")).intValue();
+		// it may be the default context not known by id
+		generation.incrementAndGet();
+		contexts.values().remove(contextId);
+		Map<String, Compiled> scripts = compiled.remove(contextId);
+		if (debug && scripts != null) {
+			System.err.println(String.format("Dropped %d scripts of context %d", scripts.size(), contextId));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getRemoteObject(Map<String, Object> result) {
+		return (Map<String, Object>) result.get("result");
+	}
+
+	private static Object getValue(Map<String, Object> result) {
+		throwOnException(result);
+		Map<String, Object> remoteObject = getRemoteObject(result);
+		return (remoteObject == null) ? null : remoteObject.get("value");
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Runtime#type-ExceptionDetails
+	@SuppressWarnings("unchecked")
+	private static void throwOnException(Map<String, Object> result) {
+		Map<String, Object> details = (Map<String, Object>) result.get("exceptionDetails");
+		if (details != null) {
+			Map<String, Object> exception = (Map<String, Object>) details.get("exception");
+			throw new JavascriptException((exception != null && exception.get("description") != null)
+					? (String) exception.get("description") : (String) details.get("text"));
+		}
+	}
+
+	private static class Compiled {
+		private final String scriptId;
+		private final int contextId;
+		private final int generation;
+		// set for the scripts taking arguments
+		private String functionObjectId;
+
+		Compiled(String scriptId, int contextId, int generation) {
+			this.scriptId = scriptId;
+			this.contextId = contextId;
+			this.generation = generation;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Resolves CSS selectors (DOM.querySelector / DOM.querySelectorAll) and XPath
+ * or text queries (DOM.performSearch) to node ids once per document: the
+ * results are cached until DOM.documentUpdated starts a new document
+ * generation, so that repeated locator resolution is a map lookup. A
+ * DOM.childNodeRemoved event drops only the entries holding the removed node
+ * or one of its descendants: the ancestors of the cached nodes are known from
+ * the DOM.setChildNodes events that push them to the session. The search
+ * results are fetched in ranged pages and the search is always discarded.
+ *
+ * The node ids are those of a session of its own, attached to the page,
+ * so that DOM.getDocument sent by other code does not invalidate them.
+ *
+ * <pre>
+ * SelectorCache selectors = new SelectorCache(connection);
+ * int nodeId = selectors.querySelector("img.central-featured-logo");
+ * int[] cards = selectors.search("//div[@class=\"card-columns\"]//div");
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-performSearch
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-discardSearchResults
+ * https://chromedevtools.github.io/devtools-protocol/tot/DOM#event-documentUpdated
+ */
+public class SelectorCache implements Closeable {
+
+	private static boolean debug = false;
+	private static final int[] empty = new int[0];
+
+	private final CdpConnection connection;
+	private final String sessionId;
+	private final boolean ownsSession;
+	private final Map<String, int[]> cache = new ConcurrentHashMap<>();
+	private final AtomicInteger generation = new AtomicInteger(0);
+	private final AtomicInteger hits = new AtomicInteger(0);
+	private final AtomicInteger misses = new AtomicInteger(0);
+	// node id to the id of its parent, of the nodes pushed to the session
+	private final Map<Integer, Integer> parents = new ConcurrentHashMap<>();
+	private final Consumer<Map<String, Object>> documentListener = params -> invalidate();
+	private final Consumer<Map<String, Object>> setChildNodesListener = this::onSetChildNodes;
+	private final Consumer<Map<String, Object>> insertedListener = this::onChildNodeInserted;
+	private final Consumer<Map<String, Object>> removedListener = this::onChildNodeRemoved;
+	private final AtomicInteger removals = new AtomicInteger(0);
+	private volatile int documentNodeId = 0;
+	private int pageSize = 100;
+
+	public SelectorCache(CdpConnection connection) {
+		this.connection = connection;
+		String targetId = connection.getAttachedTargetId();
+		ownsSession = (targetId != null);
+		sessionId = ownsSession ? connection.attachToTarget(targetId) : connection.getSessionId();
+		connection.addListener(sessionId, "DOM.documentUpdated", documentListener);
+		connection.addListener(sessionId, "DOM.setChildNodes", setChildNodesListener);
+		connection.addListener(sessionId, "DOM.childNodeInserted", insertedListener);
+		connection.addListener(sessionId, "DOM.childNodeRemoved", removedListener);
+	}
+
+	// number of search results fetched per DOM.getSearchResults
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public int getGeneration() {
+		return generation.get();
+	}
+
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	// starts a new document generation, e.g. after a change the browser does
+	// not report
+	public void invalidate() {
+		generation.incrementAndGet();
+		documentNodeId = 0;
+		cache.clear();
+		parents.clear();
+	}
+
+	// 0 when there is no match: misses are not cached
+	public int querySelector(String selector) {
+		int[] nodeIds = resolve("css:" + selector, () -> {
+			Map<String, Object> params = new HashMap<>();
+			params.put("nodeId", getDocumentNodeId());
+			params.put("selector", selector);
+			int nodeId = toInt(connection.execute(sessionId, "DOM.querySelector", params).get("nodeId"));
+			return (nodeId == 0) ? empty : new int[] { nodeId };
+		});
+		return (nodeIds.length == 0) ? 0 : nodeIds[0];
+	}
+
+	public int[] querySelectorAll(String selector) {
+		return resolve("css*:" + selector, () -> {
+			Map<String, Object> params = new HashMap<>();
+			params.put("nodeId", getDocumentNodeId());
+			params.put("selector", selector);
+			return toIntArray(connection.execute(sessionId, "DOM.querySelectorAll", params).get("nodeIds"));
+		});
+	}
+
+	// XPath, CSS selector or plain text, as in the Elements panel search
+	public int[] search(String query) {
+		return resolve("search:" + query, () -> performSearch(query, Integer.MAX_VALUE));
+	}
+
+	// fetches the first result only
+	public int searchFirst(String query) {
+		int[] nodeIds = resolve("search1:" + query, () -> performSearch(query, 1));
+		return (nodeIds.length == 0) ? 0 : nodeIds[0];
+	}
+
+	@Override
+	public void close() {
+		connection.removeListener("DOM.documentUpdated", documentListener);
+		connection.removeListener("DOM.setChildNodes", setChildNodesListener);
+		connection.removeListener("DOM.childNodeInserted", insertedListener);
+		connection.removeListener("DOM.childNodeRemoved", removedListener);
+		cache.clear();
+		parents.clear();
+		if (ownsSession && !connection.isClosed()) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("sessionId", sessionId);
+			connection.send(null, "Target.detachFromTarget", params);
+		}
+	}
+
+	private int[] resolve(String key, Supplier<int[]> lookup) {
+		int[] nodeIds = cache.get(key);
+		if (nodeIds != null) {
+			hits.incrementAndGet();
+			return nodeIds.clone();
+		}
+		misses.incrementAndGet();
+		int started = generation.get();
+		int removed = removals.get();
+		nodeIds = lookup.get();
+		// the document changed while resolving: do not cache the stale ids
+		if (nodeIds.length > 0 && started == generation.get() && removed == removals.get()) {
+			cache.put(key, nodeIds);
+		}
+		if (debug) {
+			System.err.println(String.format("Resolved %s to %d nodes in generation %d", key, nodeIds.length, started));
+		}
+		return nodeIds.clone();
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#event-setChildNodes
+	@SuppressWarnings("unchecked")
+	private void onSetChildNodes(Map<String, Object> params) {
+		Object nodes = params.get("nodes");
+		if (nodes instanceof List) {
+			for (Object node : (List<Object>) nodes) {
+				addNode((Map<String, Object>) node, toInt(params.get("parentId")));
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void onChildNodeInserted(Map<String, Object> params) {
+		addNode((Map<String, Object>) params.get("node"), toInt(params.get("parentNodeId")));
+	}
+
+	private void onChildNodeRemoved(Map<String, Object> params) {
+		int nodeId = toInt(params.get("nodeId"));
+		removals.incrementAndGet();
+		cache.values().removeIf(nodeIds -> {
+			for (int cachedId : nodeIds) {
+				if (isSelfOrDescendant(cachedId, nodeId)) {
+					return true;
+				}
+			}
+			return false;
+		});
+		parents.remove(nodeId);
+		if (debug) {
+			System.err.println(String.format("Node %d removed, %d entries cached", nodeId, cache.size()));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addNode(Map<String, Object> node, int parentId) {
+		if (node == null) {
+			return;
+		}
+		int nodeId = toInt(node.get("nodeId"));
+		parents.put(nodeId, parentId);
+		Object children = node.get("children");
+		if (children instanceof List) {
+			for (Object child : (List<Object>) children) {
+				addNode((Map<String, Object>) child, nodeId);
+			}
+		}
+	}
+
+	// a node whose ancestry is not known counts as a descendant
+	private boolean isSelfOrDescendant(int nodeId, int ancestorId) {
+		for (int id = nodeId; id != 0; id = parents.getOrDefault(id, -1)) {
+			if (id == ancestorId) {
+				return true;
+			}
+			if (id == documentNodeId) {
+				return false;
+			}
+			if (id == -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-getSearchResults
+	private int[] performSearch(String query, int limit) {
+		// the search runs on the document known to the session
+		getDocumentNodeId();
+		Map<String, Object> params = new HashMap<>();
+		params.put("query", query);
+		params.put("includeUserAgentShadowDOM", false);
+		Map<String, Object> result = connection.execute(sessionId, "DOM.performSearch", params);
+		String searchId = (String) result.get("searchId");
+		int resultCount = Math.min(toInt(result.get("resultCount")), limit);
+		try {
+			int[] nodeIds = new int[resultCount];
+			for (int fromIndex = 0; fromIndex < resultCount; fromIndex += pageSize) {
+				params = new HashMap<>();
+				params.put("searchId", searchId);
+				params.put("fromIndex", fromIndex);
+				params.put("toIndex", Math.min(fromIndex + pageSize, resultCount));
+				int[] page = toIntArray(connection.execute(sessionId, "DOM.getSearchResults", params).get("nodeIds"));
+				System.arraycopy(page, 0, nodeIds, fromIndex, Math.min(page.length, resultCount - fromIndex));
+			}
+			return nodeIds;
+		} finally {
+			params = new HashMap<>();
+			params.put("searchId", searchId);
+			// the reply is of no interest
+			connection.send(sessionId, "DOM.discardSearchResults", params);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private int getDocumentNodeId() {
+		int nodeId = documentNodeId;
+		if (nodeId == 0) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("depth", 0);
+			nodeId = toInt(
+					((Map<String, Object>) connection.execute(sessionId, "DOM.getDocument", params).get("root")).get("nodeId"));
+			documentNodeId = nodeId;
+		}
+		return nodeId;
+	}
+
+	private static int toInt(Object value) {
+		return (value instanceof Number) ? ((Number) value).intValue() : 0;
+	}
+
+	private static int[] toIntArray(Object value) {
+		if (!(value instanceof List)) {
+			return empty;
+		}
+		List<?> list = (List<?>) value;
+		int[] result = new int[list.size()];
+		for (int index = 0; index < result.length; index++) {
+			result[index] = toInt(list.get(index));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,154 @@
+package com.github.sergueik.selenium;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Returns the page of a CdpConnection to a clean state between tests in one
+ * pipelined burst of CDP commands, instead of driver.get("about:blank")
+ * followed by a fixed sleep: cookies, cache and the storage (localStorage,
+ * indexedDB, service workers etc.) of the visited origins are cleared, stray
+ * tabs are closed and the page is navigated to about:blank, waiting for the
+ * load event.
+ *
+ * <pre>
+ * sessionReset = new SessionReset(connection).track();
+ * ...
+ * sessionReset.reset();
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Network#method-clearBrowserCookies
+ * https://chromedevtools.github.io/devtools-protocol/tot/Network#method-clearBrowserCache
+ * https://chromedevtools.github.io/devtools-protocol/tot/Storage#method-clearDataForOrigin
+ * https://chromedevtools.github.io/devtools-protocol/tot/Target#method-closeTarget
+ */
+public class SessionReset {
+
+	private static boolean debug = false;
+
+	private final CdpConnection connection;
+	// origins visited since the last reset
+	private final Set<String> origins = ConcurrentHashMap.newKeySet();
+	private final Consumer<Map<String, Object>> navigationListener = this::onFrameNavigated;
+	private String url = "about:blank";
+	private long lastDuration = 0;
+
+	public SessionReset(CdpConnection connection) {
+		this.connection = connection;
+	}
+
+	// records the origins the page of the current session navigates to, the
+	// origin displayed at reset time is cleared regardless
+	public SessionReset track() {
+		connection.removeListener("Page.frameNavigated", navigationListener);
+		connection.addListener("Page.frameNavigated", navigationListener);
+		connection.execute("Page.enable", new HashMap<>());
+		return this;
+	}
+
+	public void untrack() {
+		connection.removeListener("Page.frameNavigated", navigationListener);
+	}
+
+	public Set<String> getOrigins() {
+		return origins;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	// duration of the last reset in milliseconds
+	public long getLastDuration() {
+		return lastDuration;
+	}
+
+	public void reset() {
+		reset(connection.getTimeout());
+	}
+
+	@SuppressWarnings("unchecked")
+	public void reset(Duration timeout) {
+		long started = System.currentTimeMillis();
+		String targetId = connection.getAttachedTargetId();
+		List<CompletableFuture<?>> burst = new ArrayList<>();
+
+		// Page.enable is a no-op when tracking, required for the load event
+		burst.add(connection.send("Page.enable", new HashMap<>()));
+		CompletableFuture<Map<String, Object>> frameTree = connection.send("Page.getFrameTree", new HashMap<>());
+		CompletableFuture<Map<String, Object>> targets = connection.send(null, "Target.getTargets", new HashMap<>());
+		burst.add(connection.send("Network.clearBrowserCookies", new HashMap<>()));
+		burst.add(connection.send("Network.clearBrowserCache", new HashMap<>()));
+		Set<String> cleared = ConcurrentHashMap.newKeySet();
+		for (String origin : origins) {
+			cleared.add(origin);
+			burst.add(clearDataForOrigin(origin));
+		}
+		// the second wave depends on the replies of the first one only
+		burst.add(frameTree.thenCompose(data -> {
+			Object origin = ((Map<String, Object>) ((Map<String, Object>) data.get("frameTree")).get("frame"))
+					.get("securityOrigin");
+			if (isHttp(origin) && cleared.add((String) origin)) {
+				return clearDataForOrigin((String) origin);
+			}
+			return CompletableFuture.completedFuture(null);
+		}));
+		burst.add(targets.thenCompose(data -> {
+			List<CompletableFuture<?>> closed = new ArrayList<>();
+			for (Map<String, Object> targetInfo : (List<Map<String, Object>>) data.get("targetInfos")) {
+				if ("page".equals(targetInfo.get("type")) && !targetInfo.get("targetId").equals(targetId)) {
+					Map<String, Object> params = new HashMap<>();
+					params.put("targetId", targetInfo.get("targetId"));
+					closed.add(connection.send(null, "Target.closeTarget", params));
+				}
+			}
+			return CompletableFuture.allOf(closed.toArray(new CompletableFuture<?>[0]));
+		}));
+		// subscribe before navigating, the load event may beat the reply
+		CompletableFuture<Map<String, Object>> loaded = new CompletableFuture<>();
+		Consumer<Map<String, Object>> loadListener = loaded::complete;
+		connection.addListener("Page.loadEventFired", loadListener);
+		try {
+			Map<String, Object> params = new HashMap<>();
+			params.put("url", url);
+			burst.add(connection.send("Page.navigate", params));
+			burst.add(loaded);
+			CdpConnection.await(CompletableFuture.allOf(burst.toArray(new CompletableFuture<?>[0])),
+					"session reset", timeout);
+		} finally {
+			connection.removeListener("Page.loadEventFired", loadListener);
+		}
+		origins.clear();
+		lastDuration = System.currentTimeMillis() - started;
+		if (debug) {
+			System.err.println(String.format("Reset session in %d ms, cleared %s", lastDuration, cleared));
+		}
+	}
+
+	private CompletableFuture<Map<String, Object>> clearDataForOrigin(String origin) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("origin", origin);
+		params.put("storageTypes", "all");
+		return connection.send("Storage.clearDataForOrigin", params);
+	}
+
+	// https://chromedevtools.github.io/devtools-protocol/tot/Page#event-frameNavigated
+	@SuppressWarnings("unchecked")
+	private void onFrameNavigated(Map<String, Object> params) {
+		Object origin = ((Map<String, Object>) params.get("frame")).get("securityOrigin");
+		if (isHttp(origin)) {
+			origins.add((String) origin);
+		}
+	}
+
+	private static boolean isHttp(Object origin) {
+		return origin instanceof String && ((String) origin).startsWith("http");
+	}
+}
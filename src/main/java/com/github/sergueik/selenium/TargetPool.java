@@ -0,0 +1,318 @@
+package com.github.sergueik.selenium;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Drives a number of tabs of one or more browsers concurrently, each through
+ * its own flattened session (Target.createTarget, Target.attachToTarget with
+ * flatten: true) over the single websocket of its browser, instead of
+ * switching the one driver between the windows. The page tasks are queued
+ * to the tabs round robin; a tab worker out of tasks takes the oldest task
+ * queued to another tab, so the slow pages do not hold the others back
+ * e.g.
+ *
+ * <pre>
+ * try (TargetPool pool = new TargetPool(8, connection)) {
+ *   pool.open();
+ *   List&lt;CompletableFuture&lt;Object&gt;&gt; titles = new ArrayList&lt;&gt;();
+ *   for (String url : urls) {
+ *     titles.add(pool.submit(tab -&gt; {
+ *       tab.navigate(url);
+ *       return tab.evaluate("document.title");
+ *     }));
+ *   }
+ *   // before close cancels the tasks still queued
+ *   for (CompletableFuture&lt;Object&gt; title : titles) {
+ *     System.err.println(title.join());
+ *   }
+ * }
+ * </pre>
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Target#method-createTarget
+ * https://chromedevtools.github.io/devtools-protocol/tot/Target#method-attachToTarget
+ */
+public class TargetPool implements Closeable {
+
+	private static boolean debug = false;
+
+	@FunctionalInterface
+	public interface PageTask<T> {
+		T run(Tab tab) throws Exception;
+	}
+
+	private final int tabsPerBrowser;
+	private final List<CdpConnection> connections = new ArrayList<>();
+	private final List<Tab> tabs = new ArrayList<>();
+	private final List<Thread> workers = new ArrayList<>();
+	private final AtomicInteger next = new AtomicInteger(0);
+	private final AtomicLong stolen = new AtomicLong(0);
+	private volatile boolean closed = false;
+	private Duration navigationTimeout = Duration.ofSeconds(30);
+
+	// connections to the browsers, the tabs are created next to the pages
+	// the connections are attached to
+	public TargetPool(int tabsPerBrowser, CdpConnection... connections) {
+		this.tabsPerBrowser = tabsPerBrowser;
+		for (CdpConnection connection : connections) {
+			this.connections.add(connection);
+		}
+	}
+
+	public void setNavigationTimeout(Duration navigationTimeout) {
+		this.navigationTimeout = navigationTimeout;
+	}
+
+	// creates the tabs and starts a worker per tab; when a tab cannot be
+	// created the ones already created are closed and open can be retried
+	public synchronized TargetPool open() {
+		if (!tabs.isEmpty()) {
+			return this;
+		}
+		List<Tab> created = new ArrayList<>();
+		try {
+			for (CdpConnection connection : connections) {
+				for (int cnt = 0; cnt < tabsPerBrowser; cnt++) {
+					created.add(createTab(created.size(), connection));
+				}
+			}
+		} catch (RuntimeException e) {
+			for (Tab tab : created) {
+				closeTarget(tab);
+			}
+			throw e;
+		}
+		tabs.addAll(created);
+		for (Tab tab : tabs) {
+			Thread worker = new Thread(() -> work(tab), "target-pool-" + tab.index);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+		return this;
+	}
+
+	public <T> CompletableFuture<T> submit(PageTask<T> task) {
+		if (tabs.isEmpty()) {
+			throw new IllegalStateException("Target pool is not open");
+		}
+		if (closed) {
+			throw new IllegalStateException("Target pool is closed");
+		}
+		Job<T> job = new Job<>(task);
+		tabs.get(Math.floorMod(next.getAndIncrement(), tabs.size())).queue.addLast(job);
+		return job.result;
+	}
+
+	public <T> List<CompletableFuture<T>> submitAll(List<PageTask<T>> tasks) {
+		List<CompletableFuture<T>> results = new ArrayList<>();
+		for (PageTask<T> task : tasks) {
+			results.add(submit(task));
+		}
+		return results;
+	}
+
+	public int getTabCount() {
+		return tabs.size();
+	}
+
+	public List<Tab> getTabs() {
+		return new ArrayList<>(tabs);
+	}
+
+	// tasks run by a tab other than the one they were queued to
+	public long getStolenCount() {
+		return stolen.get();
+	}
+
+	// the running tasks are interrupted and waited for, the queued ones are
+	// cancelled, then the tabs are closed
+	@Override
+	public void close() {
+		closed = true;
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join(navigationTimeout.toMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for (Tab tab : tabs) {
+			for (Job<?> job = tab.queue.pollFirst(); job != null; job = tab.queue.pollFirst()) {
+				job.result.cancel(false);
+			}
+			closeTarget(tab);
+		}
+		workers.clear();
+	}
+
+	private static void closeTarget(Tab tab) {
+		if (!tab.connection.isClosed()) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("targetId", tab.targetId);
+			tab.connection.send(null, "Target.closeTarget", params);
+		}
+	}
+
+	private Tab createTab(int index, CdpConnection connection) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("url", "about:blank");
+		params.put("background", true);
+		String targetId = (String) connection.execute(null, "Target.createTarget", params).get("targetId");
+		String sessionId = connection.attachToTarget(targetId);
+		connection.execute(sessionId, "Page.enable", new HashMap<>());
+		Tab tab = new Tab(index, connection, targetId, sessionId);
+		if (debug) {
+			System.err.println(String.format("Created tab %d: target %s session %s", tab.index, targetId, sessionId));
+		}
+		return tab;
+	}
+
+	private void work(Tab tab) {
+		while (!closed) {
+			Job<?> job = tab.queue.pollFirst();
+			if (job == null) {
+				job = steal(tab);
+			}
+			if (job == null) {
+				try {
+					job = tab.queue.pollFirst(10, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			if (job != null) {
+				job.run(tab);
+				tab.completed.incrementAndGet();
+			}
+		}
+	}
+
+	// the oldest task of another tab, starting from a random one so the idle
+	// workers do not all drain the same queue
+	private Job<?> steal(Tab thief) {
+		int size = tabs.size();
+		int start = ThreadLocalRandom.current().nextInt(size);
+		for (int cnt = 0; cnt < size; cnt++) {
+			Tab victim = tabs.get((start + cnt) % size);
+			if (victim != thief) {
+				Job<?> job = victim.queue.pollFirst();
+				if (job != null) {
+					stolen.incrementAndGet();
+					return job;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static class Job<T> {
+		private final PageTask<T> task;
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+
+		Job(PageTask<T> task) {
+			this.task = task;
+		}
+
+		void run(Tab tab) {
+			if (result.isDone()) {
+				return;
+			}
+			try {
+				result.complete(task.run(tab));
+			} catch (Exception | AssertionError e) {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+
+	// a page target and its session, used by one task at a time
+	public class Tab {
+		private final int index;
+		private final CdpConnection connection;
+		private final String targetId;
+		private final String sessionId;
+		private final LinkedBlockingDeque<Job<?>> queue = new LinkedBlockingDeque<>();
+		private final AtomicInteger completed = new AtomicInteger(0);
+
+		Tab(int index, CdpConnection connection, String targetId, String sessionId) {
+			this.index = index;
+			this.connection = connection;
+			this.targetId = targetId;
+			this.sessionId = sessionId;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public CdpConnection getConnection() {
+			return connection;
+		}
+
+		public String getTargetId() {
+			return targetId;
+		}
+
+		public String getSessionId() {
+			return sessionId;
+		}
+
+		public int getCompletedCount() {
+			return completed.get();
+		}
+
+		public Map<String, Object> execute(String method, Map<String, Object> params) {
+			return connection.execute(sessionId, method, params);
+		}
+
+		// navigates and waits for the load event of the tab
+		public void navigate(String url) {
+			CompletableFuture<Map<String, Object>> loaded = new CompletableFuture<>();
+			Consumer<Map<String, Object>> listener = o -> loaded.complete(o);
+			connection.addListener(sessionId, "Page.loadEventFired", listener);
+			try {
+				Map<String, Object> params = new HashMap<>();
+				params.put("url", url);
+				Map<String, Object> result = execute("Page.navigate", params);
+				if (result.get("errorText") != null) {
+					throw new WebDriverException(String.format("Navigation to %s failed: %s", url, result.get("errorText")));
+				}
+				CdpConnection.await(loaded, "Page.loadEventFired", navigationTimeout);
+			} finally {
+				connection.removeListener("Page.loadEventFired", listener);
+			}
+		}
+
+		// the value of the expression, awaited when a promise
+		@SuppressWarnings("unchecked")
+		public Object evaluate(String expression) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("expression", expression);
+			params.put("returnByValue", true);
+			params.put("awaitPromise", true);
+			Map<String, Object> result = execute("Runtime.evaluate", params);
+			if (result.get("exceptionDetails") != null) {
+				throw new WebDriverException("Exception in " + expression + ": " + result.get("exceptionDetails"));
+			}
+			return ((Map<String, Object>) result.get("result")).get("value");
+		}
+	}
+}
@@ -0,0 +1,457 @@
+package com.github.sergueik.selenium;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.openqa.selenium.devtools.DevToolsException;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonInput;
+import org.openqa.selenium.json.JsonType;
+
+/**
+ * Records a Chrome trace with Tracing.start / Tracing.end in the
+ * ReturnAsStream transfer mode: the trace is read back with IO.read chunk
+ * by chunk and written straight to a file, and is summarized (long tasks,
+ * layout, style and script time) by a streaming parser, so traces of any
+ * size are handled in constant memory e.g.
+ *
+ * <pre>
+ * TraceRecorder recorder = new TraceRecorder(connection);
+ * recorder.start();
+ * driver.get("https://www.wikipedia.org");
+ * recorder.stop(Paths.get("trace.json"));
+ * TraceRecorder.Summary summary = TraceRecorder.summarize(Paths.get("trace.json"));
+ * </pre>
+ *
+ * The trace file opens in the Performance panel of DevTools.
+ *
+ * https://chromedevtools.github.io/devtools-protocol/tot/Tracing#method-start
+ * https://chromedevtools.github.io/devtools-protocol/tot/IO#method-read
+ */
+public class TraceRecorder {
+
+	private static boolean debug = false;
+	private static final Json json = new Json();
+	// the categories the Performance panel of DevTools records
+	private static final List<String> defaultCategories = Arrays.asList("devtools.timeline",
+			"disabled-by-default-devtools.timeline", "disabled-by-default-devtools.timeline.frame", "v8.execute",
+			"blink.user_timing", "loading", "toplevel");
+
+	private final CdpConnection connection;
+	private List<String> categories = defaultCategories;
+	private int chunkSize = 1024 * 1024;
+	private boolean compressed = false;
+	private Duration timeout = Duration.ofSeconds(60);
+	private CompletableFuture<Map<String, Object>> complete = null;
+	private Consumer<Map<String, Object>> listener = null;
+	private boolean dataLossOccurred = false;
+
+	public TraceRecorder(CdpConnection connection) {
+		this.connection = connection;
+	}
+
+	public void setCategories(String... categories) {
+		this.categories = Arrays.asList(categories);
+	}
+
+	// bytes requested per IO.read
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	// gzip the trace in the browser, the file is then written compressed
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	// how long to wait for the browser to flush the trace
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	// true when the trace buffer overflowed during the last recording
+	public boolean isDataLossOccurred() {
+		return dataLossOccurred;
+	}
+
+	public synchronized TraceRecorder start() {
+		if (complete != null) {
+			return this;
+		}
+		CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+		listener = o -> future.complete(o);
+		connection.addListener("Tracing.tracingComplete", listener);
+		Map<String, Object> traceConfig = new HashMap<>();
+		traceConfig.put("recordMode", "recordUntilFull");
+		traceConfig.put("includedCategories", categories);
+		Map<String, Object> params = new HashMap<>();
+		params.put("traceConfig", traceConfig);
+		params.put("transferMode", "ReturnAsStream");
+		params.put("streamFormat", "json");
+		params.put("streamCompression", compressed ? "gzip" : "none");
+		try {
+			connection.execute("Tracing.start", params);
+		} catch (RuntimeException e) {
+			connection.removeListener("Tracing.tracingComplete", listener);
+			throw e;
+		}
+		complete = future;
+		return this;
+	}
+
+	// ends the recording and writes the trace to the file, returns the number
+	// of bytes written
+	public synchronized long stop(Path path) throws IOException {
+		if (complete == null) {
+			throw new IllegalStateException("Tracing is not started");
+		}
+		Map<String, Object> event;
+		try {
+			connection.execute("Tracing.end", new HashMap<>());
+			event = CdpConnection.await(complete, "Tracing.tracingComplete", timeout);
+		} finally {
+			connection.removeListener("Tracing.tracingComplete", listener);
+			complete = null;
+		}
+		dataLossOccurred = Boolean.TRUE.equals(event.get("dataLossOccurred"));
+		String handle = (String) event.get("stream");
+		if (handle == null) {
+			throw new DevToolsException("Tracing.tracingComplete did not return a stream");
+		}
+		long written = 0;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("handle", handle);
+			params.put("size", chunkSize);
+			boolean eof = false;
+			while (!eof) {
+				Map<String, Object> chunk = connection.execute("IO.read", params);
+				String data = (String) chunk.get("data");
+				// compressed streams are returned base64 encoded
+				ByteBuffer buffer = ByteBuffer.wrap(Boolean.TRUE.equals(chunk.get("base64Encoded"))
+						? Base64.getDecoder().decode(data) : data.getBytes(StandardCharsets.UTF_8));
+				while (buffer.hasRemaining()) {
+					written += channel.write(buffer);
+				}
+				eof = Boolean.TRUE.equals(chunk.get("eof"));
+			}
+		} finally {
+			Map<String, Object> params = new HashMap<>();
+			params.put("handle", handle);
+			connection.send("IO.close", params);
+		}
+		if (debug) {
+			System.err.println(String.format("Wrote %d bytes of trace to %s%s", written, path,
+					dataLossOccurred ? " (data loss occurred)" : ""));
+		}
+		return written;
+	}
+
+	public static Summary summarize(Path path) throws IOException {
+		return summarize(path, Duration.ofMillis(50));
+	}
+
+	// reads the trace file (plain or gzip) as a stream of events
+	public static Summary summarize(Path path, Duration longTaskThreshold) throws IOException {
+		InputStream input = new BufferedInputStream(Files.newInputStream(path));
+		input.mark(2);
+		boolean gzip = input.read() == 0x1f && input.read() == 0x8b;
+		input.reset();
+		try (Reader reader = new InputStreamReader(gzip ? new GZIPInputStream(input) : input,
+				StandardCharsets.UTF_8)) {
+			return summarize(reader, longTaskThreshold);
+		}
+	}
+
+	// the trace is either {"traceEvents": [...], ...} or a bare array of
+	// events
+	public static Summary summarize(Reader reader, Duration longTaskThreshold) {
+		Summary summary = new Summary(longTaskThreshold.toNanos() / 1000);
+		try (JsonInput input = json.newInput(reader)) {
+			if (input.peek() == JsonType.START_COLLECTION) {
+				readEvents(input, summary);
+			} else {
+				input.beginObject();
+				while (input.hasNext()) {
+					if ("traceEvents".equals(input.nextName())) {
+						readEvents(input, summary);
+					} else {
+						input.skipValue();
+					}
+				}
+				input.endObject();
+			}
+		}
+		return summary;
+	}
+
+	private static void readEvents(JsonInput input, Summary summary) {
+		TraceEvent event = new TraceEvent();
+		input.beginArray();
+		while (input.hasNext()) {
+			event.read(input);
+			summary.add(event);
+		}
+		input.endArray();
+	}
+
+	// the fields of one event the summary needs, reused across the events
+	private static class TraceEvent {
+		private String name;
+		private String phase;
+		private String thread;
+		private double timestamp;
+		private double duration;
+		// args.name of the metadata events
+		private String argName;
+
+		void read(JsonInput input) {
+			name = null;
+			phase = null;
+			timestamp = 0;
+			duration = 0;
+			argName = null;
+			Object pid = null;
+			Object tid = null;
+			input.beginObject();
+			while (input.hasNext()) {
+				switch (input.nextName()) {
+				case "name":
+					name = input.nextString();
+					break;
+				case "ph":
+					phase = input.nextString();
+					break;
+				case "pid":
+					pid = readScalar(input);
+					break;
+				case "tid":
+					tid = readScalar(input);
+					break;
+				case "ts":
+					timestamp = input.nextNumber().doubleValue();
+					break;
+				case "dur":
+					duration = input.nextNumber().doubleValue();
+					break;
+				case "args":
+					readArgs(input);
+					break;
+				default:
+					input.skipValue();
+				}
+			}
+			input.endObject();
+			thread = pid + ":" + tid;
+		}
+
+		// only the top level name is kept, the rest is skipped unread
+		private void readArgs(JsonInput input) {
+			if (input.peek() != JsonType.START_MAP) {
+				input.skipValue();
+				return;
+			}
+			input.beginObject();
+			while (input.hasNext()) {
+				if ("name".equals(input.nextName()) && input.peek() == JsonType.STRING) {
+					argName = input.nextString();
+				} else {
+					input.skipValue();
+				}
+			}
+			input.endObject();
+		}
+
+		private static Object readScalar(JsonInput input) {
+			return (input.peek() == JsonType.STRING) ? input.nextString() : input.nextNumber().longValue();
+		}
+	}
+
+	/**
+	 * Main thread activity of the trace, in milliseconds. Totals are kept per
+	 * thread while reading and merged for the renderer main threads
+	 * (CrRendererMain) once the thread names are known: the metadata events
+	 * naming the threads come last in the streamed trace.
+	 */
+	public static class Summary {
+		// the top level task of the Chromium scheduler, by version
+		private static final Set<String> taskEvents = new HashSet<>(Arrays.asList("RunTask",
+				"ThreadControllerImpl::RunTask", "ThreadControllerImpl::DoWork",
+				"TaskQueueManager::ProcessTaskFromWorkQueue"));
+		private static final Set<String> scriptEvents = new HashSet<>(
+				Arrays.asList("EvaluateScript", "FunctionCall", "v8.evaluateModule", "v8.compile", "V8.Execute"));
+		private static final Set<String> styleEvents = new HashSet<>(
+				Arrays.asList("UpdateLayoutTree", "RecalculateStyles"));
+		private static final String layoutEvent = "Layout";
+		private static final String mainThreadName = "CrRendererMain";
+
+		private final double longTaskThreshold;
+		private final Map<String, ThreadTotals> threads = new HashMap<>();
+		private final Set<String> mainThreads = new HashSet<>();
+		private long eventCount = 0;
+		private ThreadTotals totals = null;
+
+		Summary(double longTaskThreshold) {
+			this.longTaskThreshold = longTaskThreshold;
+		}
+
+		public long getEventCount() {
+			return eventCount;
+		}
+
+		public int getTaskCount() {
+			return getTotals().taskCount;
+		}
+
+		// tasks longer than the threshold, 50 ms by default
+		public int getLongTaskCount() {
+			return getTotals().longTaskCount;
+		}
+
+		public double getLongTaskTime() {
+			return getTotals().longTaskTime / 1000;
+		}
+
+		public double getLongestTask() {
+			return getTotals().longestTask / 1000;
+		}
+
+		// time of the tasks beyond the threshold, as in Total Blocking Time
+		public double getBlockingTime() {
+			return getTotals().blockingTime / 1000;
+		}
+
+		public double getScriptTime() {
+			return getTotals().scriptTime / 1000;
+		}
+
+		public int getLayoutCount() {
+			return getTotals().layoutCount;
+		}
+
+		public double getLayoutTime() {
+			return getTotals().layoutTime / 1000;
+		}
+
+		public double getStyleTime() {
+			return getTotals().styleTime / 1000;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"events: %d tasks: %d long tasks: %d (%.1f ms, longest %.1f ms, blocking %.1f ms) script: %.1f ms layouts: %d (%.1f ms) style: %.1f ms",
+					eventCount, getTaskCount(), getLongTaskCount(), getLongTaskTime(), getLongestTask(),
+					getBlockingTime(), getScriptTime(), getLayoutCount(), getLayoutTime(), getStyleTime());
+		}
+
+		void add(TraceEvent event) {
+			eventCount++;
+			if (event.name == null || event.phase == null) {
+				return;
+			}
+			if (event.phase.equals("M")) {
+				if (event.name.equals("thread_name") && mainThreadName.equals(event.argName)) {
+					mainThreads.add(event.thread);
+				}
+				return;
+			}
+			// the other phases (async, instant, the begin / end pairs of
+			// the other events) do not add up to main thread time
+			if (!event.phase.equals("X")) {
+				return;
+			}
+			ThreadTotals thread = threads.computeIfAbsent(event.thread, o -> new ThreadTotals());
+			thread.add(event, longTaskThreshold);
+			totals = null;
+		}
+
+		// all the threads when the trace does not name them
+		private ThreadTotals getTotals() {
+			if (totals == null) {
+				totals = new ThreadTotals();
+				for (Map.Entry<String, ThreadTotals> entry : threads.entrySet()) {
+					if (mainThreads.isEmpty() || mainThreads.contains(entry.getKey())) {
+						totals.merge(entry.getValue());
+					}
+				}
+			}
+			return totals;
+		}
+
+		// microseconds
+		private static class ThreadTotals {
+			private int taskCount;
+			private int longTaskCount;
+			private double longTaskTime;
+			private double longestTask;
+			private double blockingTime;
+			private double scriptTime;
+			private int layoutCount;
+			private double layoutTime;
+			private double styleTime;
+			// complete events are written in the order they begin: an event
+			// starting before the end of the previous one is nested in it
+			private double taskEnd = Double.NEGATIVE_INFINITY;
+			private double scriptEnd = Double.NEGATIVE_INFINITY;
+
+			void add(TraceEvent event, double longTaskThreshold) {
+				if (taskEvents.contains(event.name)) {
+					if (event.timestamp >= taskEnd) {
+						taskEnd = event.timestamp + event.duration;
+						taskCount++;
+						longestTask = Math.max(longestTask, event.duration);
+						if (event.duration > longTaskThreshold) {
+							longTaskCount++;
+							longTaskTime += event.duration;
+							blockingTime += event.duration - longTaskThreshold;
+						}
+					}
+				} else if (scriptEvents.contains(event.name)) {
+					if (event.timestamp >= scriptEnd) {
+						scriptEnd = event.timestamp + event.duration;
+						scriptTime += event.duration;
+					}
+				} else if (event.name.equals(layoutEvent)) {
+					layoutCount++;
+					layoutTime += event.duration;
+				} else if (styleEvents.contains(event.name)) {
+					styleTime += event.duration;
+				}
+			}
+
+			void merge(ThreadTotals other) {
+				taskCount += other.taskCount;
+				longTaskCount += other.longTaskCount;
+				longTaskTime += other.longTaskTime;
+				longestTask = Math.max(longestTask, other.longestTask);
+				blockingTime += other.blockingTime;
+				scriptTime += other.scriptTime;
+				layoutCount += other.layoutCount;
+				layoutTime += other.layoutTime;
+				styleTime += other.styleTime;
+			}
+		}
+	}
+}
@@ -23,18 +23,12 @@ import org.openqa.selenium.chromium.ChromiumDriver;
 
 public class Utils {
 	private static String osName;
-	private static ChromiumDriver driver;
-	private static JavascriptExecutor js;
 	private static long highlightInterval = 100;
 	private static boolean debug = false;
 
+	// binds the driver to the calling thread, see DriverContext
 	public static void setDriver(ChromiumDriver data) {
-		Utils.driver = data;
-		if (driver instanceof JavascriptExecutor) {
-			Utils.js = JavascriptExecutor.class.cast(driver);
-		} else {
-			throw new RuntimeException("Script executor initialization failed.");
-		}
+		DriverContext.bind(data);
 	}
 
 	public static String getOSName() {
@@ -65,10 +59,13 @@ public class Utils {
 	}
 
 	public static void highlight(WebElement element, long highlightInterval, String color) {
+		JavascriptExecutor js = DriverContext.current().getJavascriptExecutor();
 		try {
-			js.executeScript(String.format("arguments[0].style.border='3px %s'", color), element);
+			// constant script text, the border is an argument: the browser
+			// compiles each script once
+			js.executeScript("arguments[0].style.border = arguments[1];", element, "3px " + color);
 			Thread.sleep(highlightInterval);
-			js.executeScript("arguments[0].style.border=''", element);
+			js.executeScript("arguments[0].style.border = arguments[1];", element, "");
 		} catch (InterruptedException e) {
 			// System.err.println("Exception (ignored): " + e.toString());
 		}
@@ -86,7 +83,7 @@ public class Utils {
 
 	// http://www.javawithus.com/tutorial/using-ellipsis-to-accept-variable-number-of-arguments
 	public static Object executeScript(String script, Object... arguments) {
-		return js.executeScript(script, arguments);
+		return DriverContext.current().getJavascriptExecutor().executeScript(script, arguments);
 	}
 
 	public static String processExceptionMessage(String message) {
@@ -0,0 +1,44 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeOptions;
+
+/**
+ * Launch failures of the BrowserPool: needs neither the browser nor
+ * chromedriver.
+ */
+public class BrowserPoolTest {
+
+	// every launch attempt fails: acquire gives up once the retries are over,
+	// not after its timeout
+	@Test
+	public void launchFailureTest() {
+		String driverPath = System.getProperty("webdriver.chrome.driver");
+		System.setProperty("webdriver.chrome.driver", "/nonexistent/chromedriver");
+		long started = System.currentTimeMillis();
+		try (BrowserPool pool = new BrowserPool(1, new ChromeOptions())) {
+			try {
+				pool.acquire(Duration.ofSeconds(60));
+				throw new AssertionError("expected WebDriverException");
+			} catch (WebDriverException e) {
+				assertThat(e.getMessage().startsWith("No browser could be launched"), is(true));
+			}
+			assertThat(pool.getFailedLaunchCount(), is(3));
+			assertThat(System.currentTimeMillis() - started, lessThan(30000L));
+		} finally {
+			if (driverPath == null) {
+				System.clearProperty("webdriver.chrome.driver");
+			} else {
+				System.setProperty("webdriver.chrome.driver", driverPath);
+			}
+		}
+	}
+}
@@ -7,6 +7,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.greaterThan;
 
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IllegalFormatConversionException;
@@ -64,6 +65,8 @@ public class ChromeDevToolsTest {
 	private static String osName = Utils.getOSName();
 	private static ChromiumDriver driver;
 	private static DevTools chromeDevTools;
+	// keeps the slow listeners off the connection thread
+	private static EventBus eventBus;
 
 	private static String baseURL = "about:blank";
 
@@ -98,6 +101,7 @@ public class ChromeDevToolsTest {
 		Utils.setDriver(driver);
 		chromeDevTools = driver.getDevTools();
 		chromeDevTools.createSession();
+		eventBus = new EventBus();
 	}
 
 	@BeforeClass
@@ -116,6 +120,9 @@ public class ChromeDevToolsTest {
 
 	@AfterClass
 	public static void tearDown() {
+		if (eventBus != null) {
+			eventBus.close();
+		}
 		if (driver != null) {
 			driver.quit();
 		}
@@ -169,13 +176,14 @@ public class ChromeDevToolsTest {
 		// https://github.com/SeleniumHQ/selenium/blob/master/java/client/src/org/openqa/selenium/devtools/DevTools.java
 		// https://github.com/SeleniumHQ/selenium/blob/master/java/client/test/org/openqa/selenium/devtools/ChromeDevToolsNetworkTest.java
 		// but Browser has no events, Network has
-		chromeDevTools.addListener(Network.dataReceived(), o -> {
+		eventBus.subscribe(chromeDevTools, Network.dataReceived(), o -> {
 			Assert.assertNotNull(o.getRequestId());
 			// TODO: Command<GetResponseBodyResponse> - get something practical
 			System.err.println("Response body: "
 					+ Network.getResponseBody(o.getRequestId()).getMethod());
 		});
 		driver.get("https://apache.org");
+		eventBus.flush(Duration.ofSeconds(10));
 		if (bounds != null) {
 			System.err.println(String.format(
 					"Method Browser.getWindowBounds(%d) result: top: %d, left: %d, width: %d, height: %d",
@@ -205,11 +213,11 @@ public class ChromeDevToolsTest {
 		chromeDevTools.send(Network.setExtraHTTPHeaders(headersData));
 		// add event listener to log that requests are sending with the custom
 		// header
-		chromeDevTools.addListener(Network.requestWillBeSent(),
+		eventBus.subscribe(chromeDevTools, Network.requestWillBeSent(),
 				o -> Assert.assertEquals(
 						o.getRequest().getHeaders().get("customHeaderName"),
 						"customHeaderValue"));
-		chromeDevTools.addListener(Network.requestWillBeSent(),
+		eventBus.subscribe(chromeDevTools, Network.requestWillBeSent(),
 				o -> System.err.println("addCustomHeaders Listener invoked with "
 						+ o.getRequest().getHeaders().get("customHeaderName")));
 		// to test with a dummy server fire on locally and inspect the headers
@@ -217,6 +225,8 @@ public class ChromeDevToolsTest {
 		// driver.get("http://127.0.0.1:8080/demo/Demo");
 		// otherwise just hit a generic web site
 		driver.get("https://apache.org");
+		eventBus.flush(Duration.ofSeconds(10));
+		System.err.println("Dropped events: " + eventBus.getDroppedCounts());
 	}
 
 	// origin:
@@ -4,10 +4,12 @@ import static java.lang.System.err;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 
 import static org.junit.Assert.assertTrue;
 
@@ -25,19 +27,25 @@ import java.time.LocalDate;
 
 import javax.imageio.ImageIO;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import java.util.Optional;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import org.apache.commons.codec.binary.Base64;
 
@@ -60,8 +68,6 @@ import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.chromium.ChromiumDriver;
 import org.openqa.selenium.devtools.network.Network;
 import org.openqa.selenium.interactions.Actions;
@@ -83,9 +89,11 @@ public class ChromiumCdpTest {
 
 	private static String osName = Utils.getOSName();
 
+	private static BrowserPool.Lease lease;
 	private static ChromiumDriver driver;
 	private static WebDriverWait wait;
-	private static boolean runHeadless = false;
+	private static EventWait events;
+	private static ResponseCache responseCache = null;
 
 	private static int flexibleWait = 60;
 	private static int pollingInterval = 500;
@@ -107,33 +115,24 @@ public class ChromiumCdpTest {
 
 	@BeforeClass
 	public static void beforeClass() throws Exception {
-
-		if ((System.getenv().containsKey("HEADLESS")
-				&& System.getenv("HEADLESS").matches("(?:true|yes|1)"))
-				|| (!(Utils.getOSName().equals("windows"))
-						&& !(System.getenv().containsKey("DISPLAY")))) {
-			runHeadless = true;
-		}
-
-		System
-				.setProperty("webdriver.chrome.driver",
-						Paths.get(System.getProperty("user.home"))
-								.resolve("Downloads").resolve(osName.equals("windows")
-										? "chromedriver.exe" : "chromedriver")
-								.toAbsolutePath().toString());
-
-		ChromeOptions options = new ChromeOptions();
-		options.addArguments("--ssl-protocol=any", "--ignore-ssl-errors=true",
-				"--disable-extensions", "--ignore-certificate-errors");
-		options.setExperimentalOption("useAutomationExtension", false);
-		if (runHeadless) {
-			options.addArguments("--headless", "--disable-gpu");
-		}
-
-		driver = new ChromeDriver(options);
+		// browser launched once and shared with other test classes
+		lease = BrowserPool.getDefault().acquire();
+		driver = lease.getDriver();
 		wait = new WebDriverWait(driver, Duration.ofSeconds(flexibleWait));
 		Utils.setDriver(driver);
 		wait.pollingEvery(Duration.ofMillis(pollingInterval));
+		events = new EventWait(lease.getConnection()).enable();
+		// replay the pages recorded by the earlier runs, RESPONSE_CACHE_MODE=REPLAY
+		// to run offline
+		if (System.getenv().containsKey("RESPONSE_CACHE")) {
+			responseCache = new ResponseCache(lease.getConnection(),
+					Paths.get(System.getenv("RESPONSE_CACHE")));
+			if (System.getenv().containsKey("RESPONSE_CACHE_MODE")) {
+				responseCache.setMode(ResponseCache.Mode
+						.valueOf(System.getenv("RESPONSE_CACHE_MODE").toUpperCase()));
+			}
+			responseCache.start();
+		}
 	}
 
 	@Before
@@ -142,15 +141,24 @@ public class ChromiumCdpTest {
 	}
 
 	@AfterClass
-	public static void tearDown() {
-		if (driver != null) {
-			driver.quit();
+	public static void tearDown() throws IOException {
+		if (responseCache != null) {
+			System.err.println("Response cache hits: " + responseCache.getHitCount()
+					+ " misses: " + responseCache.getMissCount());
+			responseCache.close();
+		}
+		if (events != null) {
+			events.close();
+		}
+		if (lease != null) {
+			lease.close();
 		}
 	}
 
+	// cookies, storage and stray tabs are cleared too
 	@After
 	public void clearPage() {
-		driver.get("about:blank");
+		lease.reset();
 	}
 
 	// https://github.com/qtacore/chrome_master/blob/master/chrome_master/input_handler.py#L32
@@ -158,8 +166,8 @@ public class ChromiumCdpTest {
 	public void dispatchMouseEventTest() {
 		// Arrange
 		driver.get("https://www.wikipedia.org");
-		element = wait.until(ExpectedConditions
-				.visibilityOfElementLocated(By.cssSelector("#js-link-box-ru")));
+		events.await(events.visible("#js-link-box-ru"));
+		element = driver.findElement(By.cssSelector("#js-link-box-ru"));
 		org.openqa.selenium.Rectangle rect = element.getRect();
 
 		System.err.println(String.format(
@@ -193,8 +201,9 @@ public class ChromiumCdpTest {
 			params.put("clickCount", 1);
 			params.put("modifiers", 0);
 			// Alt=1, Ctrl=2, Meta/Command=4, Shift=8 (default: 0).
+			CompletableFuture<Map<String, Object>> loaded = events.load();
 			result = driver.executeCdpCommand(command, params);
-			Utils.sleep(3000);
+			events.await(loaded);
 			// Assert
 			assertThat(driver.getCurrentUrl(), containsString("ru"));
 		} catch (WebDriverException e) {
@@ -394,6 +403,7 @@ public class ChromiumCdpTest {
 			command = "DOM.resolveNode";
 			params.clear();
 			params.put("nodeId", nodeId);
+			params.put("objectGroup", "resolveNodTest");
 
 			result = driver.executeCdpCommand(command, params);
 			// Assert
@@ -422,6 +432,11 @@ public class ChromiumCdpTest {
 		} catch (Exception e) {
 			System.err.println("Exception in " + command + "  " + e.toString());
 			throw (new RuntimeException(e));
+		} finally {
+			// release the remote objects resolved by the test
+			params = new HashMap<>();
+			params.put("objectGroup", "resolveNodTest");
+			driver.executeCdpCommand("Runtime.releaseObjectGroup", params);
 		}
 	}
 
@@ -453,6 +468,7 @@ public class ChromiumCdpTest {
 			command = "DOM.resolveNode";
 			params.clear();
 			params.put("nodeId", nodeId);
+			params.put("objectGroup", "callFunctionOnTest");
 			result = driver.executeCdpCommand(command, params);
 			// Assert
 			assertThat(result, hasKey("object"));
@@ -471,6 +487,7 @@ public class ChromiumCdpTest {
 			params = new HashMap<>();
 			params.put("functionDeclaration", "function() { this.value=''; }");
 			params.put("objectId", dataString);
+			params.put("objectGroup", "callFunctionOnTest");
 			result = driver.executeCdpCommand(command, params);
 			// Assert
 			assertThat(result, hasKey("result"));
@@ -501,6 +518,47 @@ public class ChromiumCdpTest {
 		} catch (Exception e) {
 			System.err.println("Exception in " + command + "  " + e.toString());
 			throw (new RuntimeException(e));
+		} finally {
+			// release the remote objects resolved by the test
+			params = new HashMap<>();
+			params.put("objectGroup", "callFunctionOnTest");
+			driver.executeCdpCommand("Runtime.releaseObjectGroup", params);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void objectGroupTest() {
+		// Arrange
+		driver.get("https://www.wikipedia.org");
+		CdpConnection connection = lease.getConnection();
+		try (ObjectGroup group = new ObjectGroup(connection)) {
+			Map<String, Object> document = connection.execute("DOM.getDocument",
+					new HashMap<>());
+			params = new HashMap<>();
+			params.put("nodeId",
+					((Map<String, Object>) document.get("root")).get("nodeId"));
+			params.put("selector", "input#searchInput");
+			long inputNodeId = ((Number) connection.execute("DOM.querySelector", params)
+					.get("nodeId")).longValue();
+			// Act
+			for (int cnt = 0; cnt != 5; cnt++) {
+				String objectId = group.resolveNode(inputNodeId);
+				group.callFunctionOn(objectId,
+						"function(value) { this.value = value; }", "text " + cnt);
+			}
+			// Assert
+			assertThat(group.getResolveCount(), is(1));
+			assertThat(group.getReuseCount(), is(4));
+			assertThat(driver.findElement(By.id("searchInput")).getAttribute("value"),
+					is("text 4"));
+			// a new document starts a new generation
+			driver.get("about:blank");
+			connection.flushEvents().join();
+			assertThat(group.getGeneration(), greaterThan(0));
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in object group (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
 		}
 	}
 
@@ -604,6 +662,99 @@ public class ChromiumCdpTest {
 		// TODO: command = "Runtime.callFunctionOn";
 	}
 
+	// same chain as multiCommandTest sent over one websocket in a single batch
+	// @Ignore
+	@Test
+	public void batchCommandTest() {
+		// Arrange
+		driver.get("https://www.google.com");
+		CdpConnection connection = CdpConnection.create(driver);
+		try {
+			CdpBatch batch = new CdpBatch(connection);
+			params = new HashMap<>();
+			params.put("pierce", false);
+			params.put("depth", 0);
+			int document = batch.add("DOM.getDocument", params);
+			params = new HashMap<>();
+			params.put("nodeId", batch.ref(document, "root.nodeId"));
+			params.put("selector", "input[name='q']");
+			int node = batch.add("DOM.querySelector", params);
+			params = new HashMap<>();
+			params.put("nodeId", batch.ref(node, "nodeId"));
+			int html = batch.add("DOM.getOuterHTML", params);
+			// Act
+			List<Map<String, Object>> results = batch.execute();
+			// Assert
+			assertThat(results.get(node), hasKey("nodeId"));
+			assertThat(results.get(html), hasKey("outerHTML"));
+			dataString = (String) results.get(html).get("outerHTML");
+			assertThat(dataString, containsString("input"));
+			err.println("Batch of " + batch.size() + " commands returned outerHTML: "
+					+ dataString);
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in batch (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			connection.close();
+		}
+	}
+
+	// the wait completes on the DOM mutation event, without polling: on a
+	// static page the condition, which counts its own evaluations, is only
+	// evaluated up front and when the element is inserted
+	@Test
+	public void eventWaitTest() {
+		// Arrange
+		driver.get("data:text/html,<html><body></body></html>");
+		CompletableFuture<Object> present = events.until(
+				"(window.checks = (window.checks || 0) + 1) && document.querySelector('#injected') !== null");
+		// Act
+		Utils.executeScript(
+				"setTimeout(function() { var element = document.createElement('div'); element.id = 'injected'; document.body.appendChild(element); }, 1000);");
+		events.await(present);
+		long checks = (Long) Utils.executeScript("return window.checks;");
+		System.err.println("Element injected after 1000 ms was found in " + checks + " evaluations");
+		// Assert
+		// the late events of the navigation may add a couple, polling every
+		// 100 ms would have taken about ten
+		assertThat(checks, lessThanOrEqualTo(4L));
+	}
+
+	// attribute and outerHTML lookups answered from the mirrored tree
+	@Test
+	public void domMirrorTest() {
+		// Arrange
+		driver.get("https://www.wikipedia.org");
+		try (DomMirror mirror = new DomMirror(lease.getConnection())) {
+			DomMirror.Node input = mirror.querySelector("#searchInput");
+			assertThat(input, notNullValue());
+			Map<String, Object> params = new HashMap<>();
+			params.put("nodeId", input.getNodeId());
+			// Act
+			String outerHTML = (String) lease.getConnection()
+					.execute(mirror.getSessionId(), "DOM.getOuterHTML", params)
+					.get("outerHTML");
+			// Assert
+			assertThat(mirror.getOuterHTML(input), is(outerHTML));
+			assertThat(input.getAttribute("name"), is("search"));
+			// Act
+			// on the session of the mirror, the event arrives before the result
+			params = new HashMap<>();
+			params.put("expression",
+					"document.getElementById('searchInput').setAttribute('data-mirror', 'updated')");
+			lease.getConnection().execute(mirror.getSessionId(), "Runtime.evaluate",
+					params);
+			mirror.sync();
+			// Assert
+			assertThat(input.getAttribute("data-mirror"), is("updated"));
+			err.println("Mirror of " + mirror.size() + " nodes applied "
+					+ mirror.getMutationCount() + " mutations");
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in DOM mirror (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		}
+	}
+
 	// @Ignore
 	@Test
 	public void getIsolatedIdTest() {
@@ -661,6 +812,39 @@ public class ChromiumCdpTest {
 
 	}
 
+	@Test
+	public void scriptRegistryTest() {
+		// Arrange
+		baseURL = "https://www.google.com";
+		driver.get(baseURL);
+		ScriptRegistry scripts = new ScriptRegistry(lease.getConnection());
+		try {
+			scripts.start();
+			// Act
+			for (int cnt = 0; cnt != 10; cnt++) {
+				assertThat(scripts.evaluate("document.title"), is(driver.getTitle()));
+				assertThat(scripts.call(
+						"return document.querySelectorAll(arguments[0]).length;", "a"),
+						notNullValue());
+			}
+			// Assert
+			assertThat(scripts.getCompileCount(), is(2));
+			assertThat(scripts.getHitCount(), is(18));
+			assertThat(scripts.size(), is(2));
+			// the compiled scripts go away with the page
+			driver.get("about:blank");
+			lease.getConnection().flushEvents().join();
+			assertThat(scripts.size(), is(0));
+			assertThat(scripts.evaluate("document.title"), is(""));
+			assertThat(scripts.getCompileCount(), is(3));
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in script registry (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			scripts.stop();
+		}
+	}
+
 	// @Ignore
 	@Test
 	public void evaluateTest() {
@@ -955,6 +1139,46 @@ public class ChromiumCdpTest {
 		}
 	}
 
+
+	// bodies of the whole page load, pulled on demand, kept off heap and
+	// exported as HAR
+	@Test
+	public void networkRecorderTest() {
+		// Arrange
+		baseURL = "https://apache.org/";
+		NetworkRecorder recorder = new NetworkRecorder(lease.getConnection());
+		recorder.setBodyStoreSize(8 * 1024 * 1024);
+		Path har = null;
+		try {
+			recorder.start();
+			// Act
+			driver.get(baseURL);
+			events.await(events.networkIdle(Duration.ofMillis(500)));
+			recorder.stop();
+			List<NetworkRecorder.Entry> entries = recorder.getEntries();
+			// Assert
+			assertThat(entries.size(), greaterThan(1));
+			NetworkRecorder.Entry document = entries.stream()
+					.filter(o -> o.getUrl().equals(baseURL)).findFirst().get();
+			assertThat(document.getStatus(), is(200));
+			assertThat(recorder.getBody(document), containsString("Apache"));
+			har = Files.createTempFile("apache", ".har");
+			recorder.writeHar(har);
+			err.println("Recorded " + entries.size() + " requests, bodies stored: "
+					+ recorder.getBodyStore().size() + " using "
+					+ recorder.getBodyStore().getUsed() + " bytes");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in network recorder (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			recorder.close();
+			if (har != null) {
+				har.toFile().delete();
+			}
+		}
+	}
 	// @Ignore
 	@SuppressWarnings("unchecked")
 	@Test
@@ -1076,67 +1300,64 @@ public class ChromiumCdpTest {
 		List<WebElement> elements = driver.findElements(By.xpath(xpath));
 		int cnt = 0;
 		int maxCnt = 10;
-		cards: for (WebElement element : elements) {
-			if (null == element
-					.findElement(By.xpath("div[contains(@class, \"card-body\")]"))) {
-				continue;
-			}
-			cnt++;
-			if (cnt >= maxCnt) {
-				break cards;
-			}
-			Utils.highlight(element);
-			int x = element.getLocation().getX();
-			int y = element.getLocation().getY();
-			int width = element.getSize().getWidth();
-			int height = element.getSize().getHeight();
-			int scale = 1;
+		// card images are decoded and saved on the writer thread, close waits
+		// for them
+		List<CompletableFuture<ScreenshotSink.Screenshot>> screenshots = new ArrayList<>();
+		try (ScreenshotSink sink = new ScreenshotSink(1)) {
+			cards: for (WebElement element : elements) {
+				if (null == element
+						.findElement(By.xpath("div[contains(@class, \"card-body\")]"))) {
+					continue;
+				}
+				cnt++;
+				if (cnt >= maxCnt) {
+					break cards;
+				}
+				Utils.highlight(element);
+				int x = element.getLocation().getX();
+				int y = element.getLocation().getY();
+				int width = element.getSize().getWidth();
+				int height = element.getSize().getHeight();
+				int scale = 1;
+
+				command = "Page.captureScreenshot";
+				params = new HashMap<String, Object>();
+				Map<String, Object> viewport = new HashMap<>();
+				System.err.println("Specified viewport: " + String
+						.format("x=%d, y=%d, width=%d, height=%d", x, y, width, height));
+				viewport.put("x", (double) x);
+				viewport.put("y", (double) y);
+				viewport.put("width", (double) width);
+				viewport.put("height", (double) height);
+				viewport.put("scale", scale);
+				params.put("clip", viewport);
+				try {
+					// Act
+					result = driver.executeCdpCommand(command, params);
+					// Assert
+					assertThat(result, notNullValue());
+					assertThat(result, hasKey("data"));
+					dataString = (String) result.get("data");
+					assertThat(dataString, notNullValue());
+				} catch (WebDriverException e) {
+					System.err.println("Web Driver exception in " + command + " (ignored): "
+							+ Utils.processExceptionMessage(e.getMessage()));
+				} catch (Exception e) {
+					System.err.println("Exception in " + command + "  " + e.toString());
+					throw (new RuntimeException(e));
+				}
 
-			command = "Page.captureScreenshot";
-			params = new HashMap<String, Object>();
-			Map<String, Object> viewport = new HashMap<>();
-			System.err.println("Specified viewport: " + String
-					.format("x=%d, y=%d, width=%d, height=%d", x, y, width, height));
-			viewport.put("x", (double) x);
-			viewport.put("y", (double) y);
-			viewport.put("width", (double) width);
-			viewport.put("height", (double) height);
-			viewport.put("scale", scale);
-			params.put("clip", viewport);
-			try {
-				// Act
-				result = driver.executeCdpCommand(command, params);
-				// Assert
-				assertThat(result, notNullValue());
-				assertThat(result, hasKey("data"));
-				dataString = (String) result.get("data");
-				assertThat(dataString, notNullValue());
-			} catch (WebDriverException e) {
-				System.err.println("Web Driver exception in " + command + " (ignored): "
-						+ Utils.processExceptionMessage(e.getMessage()));
-			} catch (Exception e) {
-				System.err.println("Exception in " + command + "  " + e.toString());
-				throw (new RuntimeException(e));
+				String screenshotFileName = String.format("card%02d.png", cnt);
+				screenshots.add(sink.writeAsync(dataString, Paths.get(screenshotFileName)));
 			}
-
-			Base64 base64 = new Base64();
-			byte[] image = base64.decode(dataString);
+		}
+		for (CompletableFuture<ScreenshotSink.Screenshot> screenshot : screenshots) {
 			try {
-				BufferedImage o = ImageIO.read(new ByteArrayInputStream(image));
+				ScreenshotSink.Screenshot o = screenshot.join();
 				assertThat(o.getWidth(), greaterThan(0));
 				assertThat(o.getHeight(), greaterThan(0));
-			} catch (IOException e) {
-				System.err
-						.println("Exception loading image (	ignored): " + e.toString());
-			}
-			String screenshotFileName = String.format("card%02d.png", cnt);
-			try {
-				FileOutputStream fileOutputStream = new FileOutputStream(
-						screenshotFileName);
-				fileOutputStream.write(image);
-				fileOutputStream.close();
-			} catch (IOException e) {
-				System.err.println("Exception saving image (ignored): " + e.toString());
+			} catch (CompletionException e) {
+				System.err.println("Exception saving image (ignored): " + e.getCause().toString());
 			}
 		}
 	}
@@ -1166,23 +1387,49 @@ public class ChromiumCdpTest {
 			throw (new RuntimeException(e));
 		}
 
-		Base64 base64 = new Base64();
-		byte[] image = base64.decode(dataString);
-		try {
-			BufferedImage o = ImageIO.read(new ByteArrayInputStream(image));
+		String screenshotFileName = "temp.png";
+		try (ScreenshotSink sink = new ScreenshotSink()) {
+			// dimensions are read from the PNG header
+			ScreenshotSink.Screenshot o = sink.write(dataString,
+					Paths.get(screenshotFileName));
 			assertThat(o.getWidth(), greaterThan(0));
 			assertThat(o.getHeight(), greaterThan(0));
 		} catch (IOException e) {
-			System.err.println("Exception loading image (ignored): " + e.toString());
+			System.err.println("Exception saving image (ignored): " + e.toString());
 		}
-		String screenshotFileName = "temp.png";
+	}
+
+	// continuous capture: the browser pushes the frames while the page scrolls,
+	// the test thread is not blocked
+	@Test
+	// https://chromedevtools.github.io/devtools-protocol/tot/Page#method-startScreencast
+	public void screencastTest() {
+		// Arrange
+		baseURL = "https://www.wikipedia.org";
+		driver.get(baseURL);
+		ScreencastRecorder recorder = new ScreencastRecorder(lease.getConnection());
+		recorder.setFormat("jpeg");
+		recorder.setQuality(60);
+		recorder.setMaxSize(800, 600);
+		recorder.setEveryNthFrame(1);
+		try {
+			// Act
+			recorder.start(recorder.toDirectory(Paths.get("screencast")));
+			for (int cnt = 0; cnt < 10; cnt++) {
+				Utils.executeScript("window.scrollBy(0, 100);");
+				Utils.sleep(100);
+			}
+		} finally {
+			recorder.stop();
+		}
+		// Assert
+		System.err.println(String.format("Screencast frames received: %d written: %d dropped: %d",
+				recorder.getReceivedCount(), recorder.getWrittenFrames().size(), recorder.getDroppedCount()));
+		assertThat(recorder.getWrittenFrames().size(), greaterThan(0));
 		try {
-			FileOutputStream fileOutputStream = new FileOutputStream(
-					screenshotFileName);
-			fileOutputStream.write(image);
-			fileOutputStream.close();
+			ScreencastRecorder.writeGif(recorder.getWrittenFrames(), Paths.get("screencast.gif"), 100);
 		} catch (IOException e) {
-			System.err.println("Exception saving image (ignored): " + e.toString());
+			System.err.println("Exception encoding animation (ignored): " + e.toString());
 		}
 	}
 
@@ -1286,6 +1533,7 @@ public class ChromiumCdpTest {
 	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-performSearch
 	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-getSearchResults
 	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#type-NodeId
+	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-discardSearchResults
 	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-getOuterHTML
 	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-highlightNode
 	public void performSearchTest() {
@@ -1324,6 +1572,11 @@ public class ChromiumCdpTest {
 			assertThat(nodes.get(0), notNullValue());
 			nodeId = nodes.get(0);
 			System.err.println("nodeId: " + nodeId);
+			// release the search results held by the renderer
+			command = "DOM.discardSearchResults";
+			params = new HashMap<String, Object>();
+			params.put("searchId", dataString);
+			driver.executeCdpCommand(command, params);
 
 			command = "DOM.getOuterHTML";
 			params = new HashMap<String, Object>();
@@ -1355,6 +1608,66 @@ public class ChromiumCdpTest {
 		}
 	}
 
+
+	// the second resolution of the same locators is a cache hit
+	@Test
+	public void selectorCacheTest() {
+		// Arrange
+		driver.get("https://www.wikipedia.org");
+		try (SelectorCache selectors = new SelectorCache(lease.getConnection())) {
+			// Act
+			int nodeId = selectors.querySelector("img.central-featured-logo");
+			int[] links = selectors
+					.search("//div[contains(@class, 'central-featured-lang')]//a");
+			// Assert
+			assertThat(nodeId, not(is(0)));
+			assertThat(links.length, greaterThan(1));
+			assertThat(selectors.querySelector("img.central-featured-logo"),
+					is(nodeId));
+			assertThat(selectors
+					.search("//div[contains(@class, 'central-featured-lang')]//a")[0],
+					is(links[0]));
+			assertThat(selectors.getHitCount(), is(2));
+			assertThat(selectors.getMissCount(), is(2));
+			// Act
+			driver.navigate().refresh();
+			// Assert
+			assertThat(selectors.querySelector("img.central-featured-logo"),
+					not(is(0)));
+			err.println("Selector cache generation: " + selectors.getGeneration()
+					+ " misses: " + selectors.getMissCount());
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in selector cache (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		}
+	}
+
+	// every cell of the table in one round trip, compare to performSearchTest
+	@Test
+	public void domSnapshotTableTest() {
+		// Arrange
+		baseURL = "https://datatables.net/examples/api/highlight.html";
+		driver.get(baseURL);
+		command = "DOMSnapshot.captureSnapshot";
+		try {
+			// Act
+			DomSnapshot snapshot = DomSnapshot.capture(lease.getConnection(),
+					"display");
+			int[] tables = snapshot.findByAttribute("id", "example");
+			assertThat(tables.length, is(1));
+			List<List<String>> rows = snapshot.getTable(tables[0]);
+			// Assert
+			assertThat(rows.size(), greaterThan(1));
+			WebElement element = driver.findElement(
+					By.xpath("//table[@id='example']/tbody/tr[1]/td[1]"));
+			assertThat(rows.get(1).get(0), is(element.getText()));
+			err.println("Snapshot of " + snapshot.size() + " nodes, table rows: "
+					+ rows.size() + " first: " + rows.get(1));
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in " + command + " (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		}
+	}
 	// @Ignore
 	@Test
 	// https://chromedevtools.github.io/devtools-protocol/tot/DOM#method-getNodeForLocation
@@ -1454,6 +1767,70 @@ public class ChromiumCdpTest {
 		Utils.sleep(1000);
 	}
 
+
+	// the page is served from the fixture, the images are blocked
+	@Test
+	public void requestInterceptorTest() {
+		// Arrange
+		baseURL = "https://www.wikipedia.org/";
+		RequestInterceptor interceptor = new RequestInterceptor(
+				lease.getConnection());
+		interceptor.block("*.png").block("*.svg");
+		interceptor.fulfill(baseURL, 200, "text/html",
+				"<html><body><h1 id=\"fixture\">served locally</h1></body></html>");
+		try {
+			interceptor.start();
+			// Act
+			driver.get(baseURL);
+			// Assert
+			assertThat(driver.findElement(By.id("fixture")).getText(),
+					is("served locally"));
+			assertThat(interceptor.getHandledCount(), greaterThan(0));
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in request interceptor (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			interceptor.close();
+		}
+	}
+
+	// the second load is served from the store, with the network cut off
+	@Test
+	public void responseCacheTest() throws IOException {
+		// Arrange
+		baseURL = "http://www.example.com/";
+		Path directory = Files.createTempDirectory("response-cache");
+		try {
+			try (ResponseCache cache = new ResponseCache(lease.getConnection(),
+					directory)) {
+				cache.setMode(ResponseCache.Mode.RECORD);
+				cache.start();
+				driver.get(baseURL);
+				events.await(events.networkIdle(Duration.ofMillis(500)));
+				assertThat(cache.getRecordedCount(), greaterThan(0));
+			}
+			// Act
+			try (ResponseCache cache = new ResponseCache(lease.getConnection(),
+					directory)) {
+				cache.setMode(ResponseCache.Mode.REPLAY);
+				cache.start();
+				driver.navigate().refresh();
+				// Assert
+				assertThat(driver.findElement(By.tagName("h1")).getText(),
+						is("Example Domain"));
+				assertThat(cache.getHitCount(), greaterThan(0));
+			}
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in response cache (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			// the recorded bodies first, then the directory
+			try (Stream<Path> paths = Files.walk(directory)) {
+				paths.sorted(Comparator.reverseOrder())
+						.forEach(path -> path.toFile().delete());
+			}
+		}
+	}
 	// @Ignore
 	@Test
 	// based on:
@@ -1487,8 +1864,8 @@ public class ChromiumCdpTest {
 			element = wait.until(ExpectedConditions.visibilityOfElementLocated(By
 					.cssSelector("div[class *='widget-mylocation-button-icon-common']")));
 			element.click();
-			// unclear what event to wait for here
-			Utils.sleep(5000);
+			// the map is redrawn once the tiles of the new location are loaded
+			events.await(events.networkIdle(Duration.ofMillis(500)));
 			result = null;
 			dataString = null;
 			command = "Page.captureScreenshot";
@@ -1500,16 +1877,13 @@ public class ChromiumCdpTest {
 			dataString = (String) result.get("data");
 			assertThat(dataString, notNullValue());
 
-			Base64 base64 = new Base64();
-			byte[] image = base64.decode(dataString);
-			BufferedImage o = ImageIO.read(new ByteArrayInputStream(image));
-			assertThat(o.getWidth(), greaterThan(0));
-			assertThat(o.getHeight(), greaterThan(0));
 			String screenshotFileName = "map.png";
-			FileOutputStream fileOutputStream = new FileOutputStream(
-					screenshotFileName);
-			fileOutputStream.write(image);
-			fileOutputStream.close();
+			try (ScreenshotSink sink = new ScreenshotSink()) {
+				ScreenshotSink.Screenshot o = sink.write(dataString,
+						Paths.get(screenshotFileName));
+				assertThat(o.getWidth(), greaterThan(0));
+				assertThat(o.getHeight(), greaterThan(0));
+			}
 		} catch (IOException e) {
 			System.err
 					.println("Exception saving image file (ignored): " + e.toString());
@@ -1736,4 +2110,112 @@ public class ChromiumCdpTest {
 			throw (new RuntimeException(e));
 		}
 	}
+
+	@Test
+	public void metricsSamplerTest() {
+		// Arrange
+		MetricsSampler sampler = new MetricsSampler(lease.getConnection());
+		sampler.setInterval(Duration.ofMillis(100));
+		Path csv = null;
+		try {
+			sampler.start();
+			// Act
+			driver.get("https://www.wikipedia.org");
+			events.await(events.networkIdle(Duration.ofMillis(500)));
+			driver.findElement(By.id("searchInput")).sendKeys("Chromium");
+			sampler.sample();
+			sampler.stop();
+			// Assert
+			assertThat(sampler.size(), greaterThan(1));
+			assertThat(sampler.getMetricNames().contains("Nodes"), is(true));
+			assertThat(sampler.getPercentile("JSHeapUsedSize", 95), greaterThan(0.0));
+			assertThat(sampler.getLast("Nodes"), greaterThan(0.0));
+			err.println(String.format(
+					"Samples: %d JSHeapUsedSize p50: %.0f p95: %.0f delta: %.0f LayoutCount rate: %.2f/s",
+					sampler.size(), sampler.getPercentile("JSHeapUsedSize", 50),
+					sampler.getPercentile("JSHeapUsedSize", 95),
+					sampler.getDelta("JSHeapUsedSize"), sampler.getRate("LayoutCount")));
+			csv = Files.createTempFile("metrics", ".csv");
+			sampler.writeCsv(csv);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in metrics sampler (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			sampler.close();
+			if (csv != null) {
+				csv.toFile().delete();
+			}
+		}
+	}
+
+	@Test
+	public void traceRecorderTest() {
+		// Arrange
+		TraceRecorder recorder = new TraceRecorder(lease.getConnection());
+		Path trace = null;
+		try {
+			trace = Files.createTempFile("trace", ".json");
+			recorder.start();
+			// Act
+			driver.get("https://www.wikipedia.org");
+			events.await(events.networkIdle(Duration.ofMillis(500)));
+			long size = recorder.stop(trace);
+			TraceRecorder.Summary summary = TraceRecorder.summarize(trace);
+			// Assert
+			assertThat(size, greaterThan(0L));
+			assertThat(Files.size(trace), is(size));
+			assertThat(summary.getEventCount(), greaterThan(0L));
+			assertThat(summary.getTaskCount(), greaterThan(0));
+			assertThat(summary.getLayoutCount(), greaterThan(0));
+			err.println("Trace of " + size + " bytes: " + summary);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in trace recorder (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			if (trace != null) {
+				trace.toFile().delete();
+			}
+		}
+	}
+
+	@Test
+	public void consoleCaptureTest() {
+		// Arrange
+		driver.get("about:blank");
+		ConsoleCapture capture = new ConsoleCapture(lease.getConnection(), 500);
+		Path lines = null;
+		try {
+			capture.start();
+			long mark = capture.mark();
+			// Act
+			Utils.executeScript(
+					"for (var i = 0; i < 1000; i++) { console.log('line ' + i); } console.error('failure'); setTimeout(function() { throw new Error('boom'); }, 0);");
+			Utils.sleep(500);
+			lease.getConnection().flushEvents().join();
+			// Assert
+			assertThat(capture.getCount() - mark, greaterThan(1000L));
+			assertThat(capture.size(), is(500));
+			assertThat(capture.countErrors(mark), is(2));
+			assertThat(capture.findFirst(mark, Pattern.compile("Error: boom")),
+					greaterThan(-1L));
+			assertThat(capture.getTexts(mark, Pattern.compile("^line 99[0-9]$")).size(),
+					is(10));
+			lines = Files.createTempFile("console", ".jsonl");
+			capture.writeJsonLines(lines);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (WebDriverException e) {
+			System.err.println("Web Driver exception in console capture (ignored): "
+					+ Utils.processExceptionMessage(e.getMessage()));
+		} finally {
+			capture.stop();
+			if (lines != null) {
+				lines.toFile().delete();
+			}
+		}
+	}
 }
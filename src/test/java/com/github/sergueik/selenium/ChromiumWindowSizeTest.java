@@ -55,6 +55,7 @@ public class ChromiumWindowSizeTest {
 
 	private static boolean debug = false;
 	private static ChromiumDriver driver;
+	private static CdpConnection connection;
 	private static WebElement element = null;
 
 	private static WebDriverWait wait;
@@ -94,10 +95,14 @@ public class ChromiumWindowSizeTest {
 		wait = new WebDriverWait(driver, Duration.ofSeconds(flexibleWait));
 		wait.pollingEvery(Duration.ofMillis(pollingInterval));
 		Utils.setDriver(driver);
+		connection = CdpConnection.create(driver);
 	}
 
 	@AfterClass
 	public static void afterClass() {
+		if (connection != null) {
+			connection.close();
+		}
 		if (driver != null) {
 			driver.quit();
 		}
@@ -238,25 +243,28 @@ public class ChromiumWindowSizeTest {
 		getFullPageScreenShot();
 	}
 
+	// page far taller than the window and than the texture size of a single
+	// capture
+	@Test
+	public void tallPageScreenshotTest() {
+		driver.get(Utils.getPageContent(imagePage));
+		Utils.executeScript(
+				"document.body.style.height = '12000px'; document.body.style.background = 'linear-gradient(red, blue)';");
+		screenshotFileName = "tall_page.png";
+		getFullPageScreenShot();
+		Map<String, Integer> dimension = Utils
+				.getImageDimension(screenshotFileName);
+		assertThat(dimension.get("height"), greaterThan(12000));
+	}
+
+	// the whole page in tiles, without resizing the browser window
 	private void getFullPageScreenShot() {
-		String dataString = null;
 		try {
-
 			command = "Page.captureScreenshot";
-			result = driver.executeCdpCommand(command, new HashMap<>());
-			assertThat(result, notNullValue());
-			assertThat(result, hasKey("data"));
-			dataString = (String) result.get("data");
-			assertThat(dataString, notNullValue());
-			Base64 base64 = new Base64();
-			byte[] image = base64.decode(dataString);
-			BufferedImage o = ImageIO.read(new ByteArrayInputStream(image));
+			ScreenshotSink.Screenshot o = new FullPageScreenshot(connection)
+					.capture(Paths.get(screenshotFileName));
 			assertThat(o.getWidth(), greaterThan(0));
 			assertThat(o.getHeight(), greaterThan(0));
-			FileOutputStream fileOutputStream = new FileOutputStream(
-					screenshotFileName);
-			fileOutputStream.write(image);
-			fileOutputStream.close();
 			// read it back
 			getScreenshotSize(screenshotFileName);
 		} catch (JsonSyntaxException e) {
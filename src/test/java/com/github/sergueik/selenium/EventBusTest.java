@@ -0,0 +1,163 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Overflow policies, drop counts and per type ordering of the EventBus,
+ * flooded by the FakeCdpServer: the handler of the first event is held until
+ * the rest have been offered, so the queue contents are deterministic.
+ */
+public class EventBusTest {
+
+	private static final String method = "Network.dataReceived";
+	private static final String otherMethod = "Network.loadingFinished";
+	private FakeCdpServer server;
+	private CdpConnection connection;
+	private EventBus bus;
+	private final List<Integer> received = new CopyOnWriteArrayList<>();
+	private final CountDownLatch entered = new CountDownLatch(1);
+	private final CountDownLatch gate = new CountDownLatch(1);
+
+	@Before
+	public void beforeTest() throws Exception {
+		server = new FakeCdpServer();
+		connection = new CdpConnection(server.getWebSocketUri());
+		connection.setSessionId(connection.attachToTarget(server.getTargetId()));
+		bus = new EventBus();
+	}
+
+	@After
+	public void afterTest() {
+		gate.countDown();
+		bus.close();
+		connection.close();
+		server.close();
+	}
+
+	@Test
+	public void dropOldestTest() throws Exception {
+		bus.setCapacity(method, 10, EventBus.OverflowPolicy.DROP_OLDEST);
+		bus.subscribe(connection, method, this::holdFirst);
+		List<Integer> other = new CopyOnWriteArrayList<>();
+		bus.subscribe(connection, otherMethod, event -> other.add(((Number) event.get("index")).intValue()));
+		flood(99);
+		stream(otherMethod, 0, 100);
+		settle();
+		// the other type is not held up by the blocked one
+		for (int cnt = 0; cnt < 100 && other.size() < 100; cnt++) {
+			Utils.sleep(100);
+		}
+		assertThat(other, is(range(0, 100)));
+		assertThat(bus.getDroppedCount(method), is(89L));
+		assertThat(bus.getDroppedCount(otherMethod), is(0L));
+
+		gate.countDown();
+		bus.flush(Duration.ofSeconds(10));
+		List<Integer> expected = range(0, 1);
+		expected.addAll(range(90, 100));
+		assertThat(received, is(expected));
+		assertThat(bus.getDeliveredCount(method), is(11L));
+	}
+
+	@Test
+	public void blockTest() throws Exception {
+		bus.setCapacity(method, 10, EventBus.OverflowPolicy.BLOCK);
+		bus.subscribe(connection, method, this::holdFirst);
+		flood(50);
+		gate.countDown();
+		settle();
+		bus.flush(Duration.ofSeconds(10));
+		assertThat(bus.getDroppedCount(method), is(0L));
+		assertThat(received, is(range(0, 51)));
+	}
+
+	// with capacity 10 and rate 3: the first 5 queued, then one in 3 until
+	// the queue is full, then none
+	@Test
+	public void sampleTest() throws Exception {
+		bus.setSampleRate(3);
+		bus.setCapacity(method, 10, EventBus.OverflowPolicy.SAMPLE);
+		bus.subscribe(connection, method, this::holdFirst);
+		flood(99);
+		settle();
+		gate.countDown();
+		bus.flush(Duration.ofSeconds(10));
+		List<Integer> expected = range(0, 7);
+		for (int index = 9; index <= 18; index += 3) {
+			expected.add(index);
+		}
+		assertThat(received, is(expected));
+		assertThat(bus.getDroppedCount(method), is(89L));
+	}
+
+	@Test(expected = AssertionError.class)
+	public void handlerFailureTest() throws Exception {
+		bus.subscribe(connection, method, event -> assertThat(event.get("index"), is(-1)));
+		stream(method, 0, 1);
+		settle();
+		bus.flush(Duration.ofSeconds(10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroCapacityTest() {
+		bus.setCapacity(method, 0, EventBus.OverflowPolicy.DROP_OLDEST);
+	}
+
+	// records the event index, holds the handler of the first event
+	private void holdFirst(Map<String, Object> event) {
+		int index = ((Number) event.get("index")).intValue();
+		received.add(index);
+		if (index == 0) {
+			entered.countDown();
+			try {
+				gate.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// event 0 reaches the held handler, then count more are offered
+	private void flood(int count) throws Exception {
+		stream(method, 0, 1);
+		assertThat(entered.await(10, TimeUnit.SECONDS), is(true));
+		stream(method, 1, count);
+	}
+
+	private void stream(String method, int first, int count) throws Exception {
+		server.stream(connection.getSessionId(), method, cnt -> {
+			Map<String, Object> event = new HashMap<>();
+			event.put("index", first + cnt);
+			return event;
+		}, count, Duration.ZERO).get(10, TimeUnit.SECONDS);
+	}
+
+	// the reply follows the events on the socket: once it is in and the
+	// connection listeners ran, every event has been offered to the bus
+	private void settle() {
+		connection.execute("Runtime.evaluate", new HashMap<>());
+		CdpConnection.await(connection.flushEvents(), "event dispatch", Duration.ofSeconds(10));
+	}
+
+	private static List<Integer> range(int from, int to) {
+		List<Integer> result = new ArrayList<>();
+		for (int index = from; index < to; index++) {
+			result.add(index);
+		}
+		return result;
+	}
+}
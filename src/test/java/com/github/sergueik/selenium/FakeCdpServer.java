@@ -0,0 +1,643 @@
+package com.github.sergueik.selenium;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import org.openqa.selenium.MutableCapabilities;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.remote.CommandInfo;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.http.HttpMethod;
+
+/**
+ * In-process stand-in for the browser and chromedriver: speaks the devtools
+ * websocket protocol (CdpConnection, DevTools) and the chromedriver
+ * endpoints ChromiumDriver.executeCdpCommand goes through
+ * (/session/{id}/goog/cdp/execute), with scripted responses, event streams
+ * and reply latency. The client side layers (batching, caching, dispatch)
+ * can be tested and measured without the browser and the network e.g.
+ *
+ * <pre>
+ * try (FakeCdpServer server = new FakeCdpServer()) {
+ *   server.respond("Page.captureScreenshot", result);
+ *   server.fail("Page.printToPDF", -32000, "PrintToPDF is not implemented");
+ *   server.setLatency(Duration.ofMillis(20));
+ *   ChromiumDriver driver = server.createDriver();
+ *   driver.executeCdpCommand("Page.captureScreenshot", new HashMap<>());
+ *   CdpConnection connection = CdpConnection.create(driver);
+ *   server.stream(connection.getSessionId(), "Network.dataReceived", o -&gt; params, 1000, Duration.ZERO);
+ * }
+ * </pre>
+ *
+ * Answers out of the box the Target commands of a single page target,
+ * Browser.getVersion and the enable / disable commands of every domain;
+ * the unknown methods get the -32601 error the browser returns.
+ *
+ * https://tools.ietf.org/html/rfc6455
+ */
+public class FakeCdpServer implements Closeable {
+
+	private static boolean debug = false;
+	private static final Json json = new Json();
+	private static final String acceptGuid = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final String targetId = "0A1B2C3D4E5F60718293A4B5C6D7E8F9";
+
+	@FunctionalInterface
+	public interface Handler {
+		// the result of the command, null when the method is not known
+		Map<String, Object> handle(Exchange exchange) throws Exception;
+	}
+
+	private final ServerSocket server;
+	private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+	private final Map<String, Duration> latencies = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> commandCounts = new ConcurrentHashMap<>();
+	private final List<Peer> peers = new CopyOnWriteArrayList<>();
+	private final AtomicLong commandCount = new AtomicLong(0);
+	private final AtomicInteger sessionCount = new AtomicInteger(0);
+	// the delayed replies only: the connections and streams have threads of
+	// their own, so that they cannot starve the timers
+	private final ScheduledExecutorService scheduler;
+	private final AtomicInteger threadCount = new AtomicInteger(0);
+	private volatile Duration latency = Duration.ZERO;
+	private volatile String url = "about:blank";
+	private volatile boolean closed = false;
+
+	// listens on an ephemeral port of the loopback interface
+	public FakeCdpServer() throws IOException {
+		this(0);
+	}
+
+	public FakeCdpServer(int port) throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> newThread(runnable, "timer"));
+		addDefaultHandlers();
+		newThread(this::accept, "accept").start();
+	}
+
+	public URI getWebSocketUri() {
+		return URI.create(String.format("ws://127.0.0.1:%d/devtools/browser/fake", server.getLocalPort()));
+	}
+
+	// the chromedriver end
+	public URL getUrl() {
+		try {
+			return new URL(String.format("http://127.0.0.1:%d", server.getLocalPort()));
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// the only page target, the window handle is CDwindow-{targetId}
+	public String getTargetId() {
+		return targetId;
+	}
+
+	// a driver with a session on this server: executeCdpCommand goes through
+	// the chromedriver endpoint, getDevTools through the websocket
+	public ChromiumDriver createDriver() {
+		Map<String, CommandInfo> commands = new HashMap<>();
+		commands.put("executeCdpCommand", new CommandInfo("/session/:sessionId/goog/cdp/execute", HttpMethod.POST));
+		MutableCapabilities capabilities = new MutableCapabilities();
+		capabilities.setCapability("browserName", "chrome");
+		return new ChromiumDriver(new HttpCommandExecutor(commands, getUrl()), capabilities, "goog:chromeOptions") {
+		};
+	}
+
+	// replaces the handler of the method
+	public void on(String method, Handler handler) {
+		handlers.put(method, handler);
+	}
+
+	// the same result every time
+	public void respond(String method, Map<String, Object> result) {
+		on(method, exchange -> result);
+	}
+
+	// the protocol error every time e.g. -32000 "PrintToPDF is not implemented"
+	public void fail(String method, int code, String message) {
+		on(method, exchange -> {
+			throw new CdpException(method, code, message);
+		});
+	}
+
+	// delay of every reply
+	public void setLatency(Duration latency) {
+		this.latency = latency;
+	}
+
+	// delay of the replies of the method, the replies may then arrive out of
+	// order as they do from the browser
+	public void setLatency(String method, Duration latency) {
+		latencies.put(method, latency);
+	}
+
+	public long getCommandCount() {
+		return commandCount.get();
+	}
+
+	public long getCommandCount(String method) {
+		LongAdder count = commandCounts.get(method);
+		return (count == null) ? 0 : count.sum();
+	}
+
+	// sends the event to every websocket client, with the session id unless
+	// null (browser level events)
+	public void emit(String sessionId, String method, Map<String, Object> params) {
+		for (Peer peer : peers) {
+			peer.sendEvent(sessionId, method, params);
+		}
+	}
+
+	// emits count events, the params of each made by the factory from its
+	// index, interval apart; completes once the last is sent
+	public CompletableFuture<Void> stream(String sessionId, String method, IntFunction<Map<String, Object>> factory,
+			int count, Duration interval) {
+		return CompletableFuture.runAsync(() -> {
+			for (int cnt = 0; cnt < count && !closed; cnt++) {
+				emit(sessionId, method, factory.apply(cnt));
+				if (!interval.isZero()) {
+					Utils.sleep((int) interval.toMillis());
+				}
+			}
+		}, runnable -> newThread(runnable, "stream").start());
+	}
+
+	// deterministic text of the length, to size the scripted payloads
+	public static String payload(int length) {
+		StringBuilder text = new StringBuilder(length);
+		for (int cnt = 0; cnt < length; cnt++) {
+			text.append((char) ('a' + cnt % 26));
+		}
+		return text.toString();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			server.close();
+		} catch (IOException e) {
+			// ignored
+		}
+		for (Peer peer : peers) {
+			peer.close();
+		}
+		scheduler.shutdownNow();
+	}
+
+	private Thread newThread(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable,
+				String.format("fake-cdp-server-%s-%d", name, threadCount.incrementAndGet()));
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private void addDefaultHandlers() {
+		on("Browser.getVersion", exchange -> {
+			Map<String, Object> result = new HashMap<>();
+			result.put("protocolVersion", "1.3");
+			result.put("product", "HeadlessChrome/85.0.4183.83");
+			result.put("revision", "@94abc2237ae0c9a4cb5f035431c8adfb94324633");
+			result.put("userAgent",
+					"Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) HeadlessChrome/85.0.4183.83 Safari/537.36");
+			result.put("jsVersion", "8.5.210.20");
+			return result;
+		});
+		on("Target.getTargets", exchange -> {
+			Map<String, Object> targetInfo = new HashMap<>();
+			targetInfo.put("targetId", targetId);
+			targetInfo.put("type", "page");
+			targetInfo.put("title", url);
+			targetInfo.put("url", url);
+			targetInfo.put("attached", true);
+			targetInfo.put("canAccessOpener", false);
+			targetInfo.put("browserContextId", "context-1");
+			List<Object> targetInfos = new ArrayList<>();
+			targetInfos.add(targetInfo);
+			Map<String, Object> result = new HashMap<>();
+			result.put("targetInfos", targetInfos);
+			return result;
+		});
+		on("Target.attachToTarget", exchange -> {
+			if (!targetId.equals(exchange.getParams().get("targetId"))) {
+				throw new CdpException("Target.attachToTarget", -32602, "No target with given id found");
+			}
+			Map<String, Object> result = new HashMap<>();
+			result.put("sessionId", String.format("%032X", sessionCount.incrementAndGet()));
+			return result;
+		});
+		for (String method : new String[] { "Target.setAutoAttach", "Target.detachFromTarget", "Log.clear",
+				"Runtime.releaseObjectGroup" }) {
+			on(method, exchange -> new HashMap<>());
+		}
+		on("Runtime.evaluate", exchange -> {
+			Map<String, Object> remoteObject = new HashMap<>();
+			remoteObject.put("type", "undefined");
+			Map<String, Object> result = new HashMap<>();
+			result.put("result", remoteObject);
+			return result;
+		});
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				// held for as long as the client keeps the connection open
+				newThread(() -> serve(socket), "connection").start();
+			} catch (IOException e) {
+				if (!closed) {
+					System.err.println("Exception (ignored): " + e.toString());
+				}
+			}
+		}
+	}
+
+	// the http requests of the connection until it is upgraded to websocket
+	// or closed
+	private void serve(Socket socket) {
+		Peer peer = null;
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+			while (peer == null) {
+				String requestLine = readLine(input);
+				Map<String, String> headers = new HashMap<>();
+				for (String line = readLine(input); !line.isEmpty(); line = readLine(input)) {
+					int colon = line.indexOf(':');
+					headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+				}
+				String key = headers.get("sec-websocket-key");
+				if (key != null) {
+					output.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+							+ "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+					output.flush();
+					peer = new Peer(socket, output);
+				} else {
+					byte[] body = new byte[Integer.parseInt(headers.getOrDefault("content-length", "0"))];
+					input.readFully(body);
+					String[] parts = requestLine.split(" ");
+					respondHttp(output, parts[0], parts[1], new String(body, StandardCharsets.UTF_8));
+					if ("close".equalsIgnoreCase(headers.get("connection"))) {
+						return;
+					}
+				}
+			}
+			peers.add(peer);
+			for (String text = peer.read(input); text != null; text = peer.read(input)) {
+				dispatch(peer, text);
+			}
+		} catch (IOException e) {
+			if (debug && !closed) {
+				System.err.println("Connection closed: " + e.toString());
+			}
+		} finally {
+			if (peer != null) {
+				peers.remove(peer);
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignored
+			}
+		}
+	}
+
+	// handled on the reading thread: the handlers, and the events they emit,
+	// keep the order of the commands; the replies are delayed by the latency
+	@SuppressWarnings("unchecked")
+	private void dispatch(Peer peer, String text) {
+		Map<String, Object> message = json.toType(text, Json.MAP_TYPE);
+		String method = (String) message.get("method");
+		Map<String, Object> params = (message.get("params") == null) ? new HashMap<>()
+				: (Map<String, Object>) message.get("params");
+		Exchange exchange = new Exchange(peer, method, params, (String) message.get("sessionId"));
+		Map<String, Object> reply = new HashMap<>();
+		reply.put("id", message.get("id"));
+		if (exchange.sessionId != null) {
+			reply.put("sessionId", exchange.sessionId);
+		}
+		try {
+			reply.put("result", handle(exchange));
+		} catch (CdpException e) {
+			reply.put("error", error((int) e.getCode(), e.getErrorMessage()));
+		}
+		Duration delay = latencies.getOrDefault(method, latency);
+		if (delay.isZero()) {
+			peer.send(json.toJson(reply));
+		} else {
+			scheduler.schedule(() -> peer.send(json.toJson(reply)), delay.toNanos(), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private Map<String, Object> handle(Exchange exchange) {
+		String method = exchange.method;
+		commandCount.incrementAndGet();
+		commandCounts.computeIfAbsent(method, o -> new LongAdder()).increment();
+		Handler handler = handlers.get(method);
+		Map<String, Object> result;
+		try {
+			result = (handler != null) ? handler.handle(exchange)
+					: (method.endsWith(".enable") || method.endsWith(".disable")) ? new HashMap<>() : null;
+		} catch (CdpException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new CdpException(method, -32000, e.getMessage());
+		}
+		if (result == null) {
+			throw new CdpException(method, -32601, String.format("'%s' wasn't found", method));
+		}
+		return result;
+	}
+
+	// the chromedriver commands of a session: the W3C handshake, the window
+	// handle and the url, executeCdpCommand
+	@SuppressWarnings("unchecked")
+	private void respondHttp(OutputStream output, String httpMethod, String path, String body) throws IOException {
+		if (debug) {
+			System.err.println(String.format("%s %s %s", httpMethod, path, body));
+		}
+		Map<String, Object> request = body.isEmpty() ? new HashMap<>() : json.toType(body, Json.MAP_TYPE);
+		Object value = null;
+		int status = 200;
+		if (path.equals("/json/version")) {
+			Map<String, Object> version = new HashMap<>();
+			version.put("Browser", "HeadlessChrome/85.0.4183.83");
+			version.put("Protocol-Version", "1.3");
+			version.put("webSocketDebuggerUrl", getWebSocketUri().toString());
+			writeHttp(output, status, json.toJson(version));
+			return;
+		} else if (httpMethod.equals("POST") && path.equals("/session")) {
+			Map<String, Object> chromeOptions = new HashMap<>();
+			chromeOptions.put("debuggerAddress", String.format("127.0.0.1:%d", server.getLocalPort()));
+			Map<String, Object> capabilities = new HashMap<>();
+			capabilities.put("browserName", "chrome");
+			capabilities.put("browserVersion", "85.0.4183.83");
+			capabilities.put("platformName", "linux");
+			capabilities.put("goog:chromeOptions", chromeOptions);
+			Map<String, Object> session = new HashMap<>();
+			session.put("sessionId", "fake-" + sessionCount.incrementAndGet());
+			session.put("capabilities", capabilities);
+			value = session;
+		} else if (path.endsWith("/goog/cdp/execute")) {
+			Map<String, Object> params = (Map<String, Object>) request.get("params");
+			Exchange exchange = new Exchange(null, (String) request.get("cmd"),
+					(params == null) ? new HashMap<>() : params, null);
+			try {
+				value = handle(exchange);
+				Duration delay = latencies.getOrDefault(exchange.method, latency);
+				if (!delay.isZero()) {
+					Utils.sleep((int) delay.toMillis());
+				}
+			} catch (CdpException e) {
+				// the way chromedriver reports the protocol errors
+				status = 500;
+				Map<String, Object> error = new HashMap<>();
+				error.put("error", "unknown error");
+				error.put("message",
+						String.format("unknown error: unhandled inspector error: {\"code\":%d,\"message\":%s}",
+								e.getCode(), json.toJson(e.getErrorMessage())));
+				error.put("stacktrace", "");
+				value = error;
+			}
+		} else if (path.endsWith("/window")) {
+			value = "CDwindow-" + targetId;
+		} else if (path.endsWith("/window/handles")) {
+			List<Object> handles = new ArrayList<>();
+			handles.add("CDwindow-" + targetId);
+			value = handles;
+		} else if (path.endsWith("/url")) {
+			if (httpMethod.equals("POST")) {
+				url = (String) request.get("url");
+			} else {
+				value = url;
+			}
+		} else if (!(httpMethod.equals("DELETE") && path.startsWith("/session/"))) {
+			status = 404;
+			Map<String, Object> error = new HashMap<>();
+			error.put("error", "unknown command");
+			error.put("message", String.format("unknown command: %s %s", httpMethod, path));
+			error.put("stacktrace", "");
+			value = error;
+		}
+		Map<String, Object> response = new HashMap<>();
+		response.put("value", value);
+		writeHttp(output, status, json.toJson(response));
+	}
+
+	private static void writeHttp(OutputStream output, int status, String text) throws IOException {
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		output.write(String.format("HTTP/1.1 %d %s\r\nContent-Type: application/json; charset=utf-8\r\n"
+				+ "Content-Length: %d\r\nCache-Control: no-cache\r\n\r\n", status, (status == 200) ? "OK" : "Error",
+				data.length).getBytes(StandardCharsets.ISO_8859_1));
+		output.write(data);
+		output.flush();
+	}
+
+	private static Map<String, Object> error(int code, String message) {
+		Map<String, Object> error = new HashMap<>();
+		error.put("code", code);
+		error.put("message", message);
+		return error;
+	}
+
+	private static String accept(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return Base64.getEncoder()
+					.encodeToString(digest.digest((key + acceptGuid).getBytes(StandardCharsets.ISO_8859_1)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String readLine(InputStream input) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int data = input.read(); data != '\n'; data = input.read()) {
+			if (data == -1) {
+				throw new EOFException();
+			}
+			if (data != '\r') {
+				line.append((char) data);
+			}
+		}
+		return line.toString();
+	}
+
+	// the command being handled
+	public class Exchange {
+		private final Peer peer;
+		private final String method;
+		private final Map<String, Object> params;
+		private final String sessionId;
+
+		Exchange(Peer peer, String method, Map<String, Object> params, String sessionId) {
+			this.peer = peer;
+			this.method = method;
+			this.params = params;
+			this.sessionId = sessionId;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public Map<String, Object> getParams() {
+			return params;
+		}
+
+		// null for the browser level commands and executeCdpCommand
+		public String getSessionId() {
+			return sessionId;
+		}
+
+		// sent ahead of the reply to the session of the command, to every
+		// websocket client when the command came through chromedriver
+		public void emit(String method, Map<String, Object> params) {
+			if (peer != null) {
+				peer.sendEvent(sessionId, method, params);
+			} else {
+				FakeCdpServer.this.emit(null, method, params);
+			}
+		}
+	}
+
+	private static class Peer {
+		private final Socket socket;
+		private final OutputStream output;
+		private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+
+		Peer(Socket socket, OutputStream output) {
+			this.socket = socket;
+			this.output = output;
+		}
+
+		// the next text message, null once the client closed
+		String read(DataInputStream input) throws IOException {
+			message.reset();
+			while (true) {
+				int head = input.readUnsignedByte();
+				int opcode = head & 0x0F;
+				boolean last = (head & 0x80) != 0;
+				int second = input.readUnsignedByte();
+				long length = second & 0x7F;
+				if (length == 126) {
+					length = input.readUnsignedShort();
+				} else if (length == 127) {
+					length = input.readLong();
+				}
+				byte[] mask = new byte[4];
+				if ((second & 0x80) != 0) {
+					input.readFully(mask);
+				}
+				byte[] payload = new byte[(int) length];
+				input.readFully(payload);
+				for (int cnt = 0; cnt < payload.length; cnt++) {
+					payload[cnt] ^= mask[cnt & 3];
+				}
+				switch (opcode) {
+				case 0x8:
+					write(0x8, payload);
+					return null;
+				case 0x9:
+					write(0xA, payload);
+					break;
+				case 0xA:
+					break;
+				default:
+					// text and continuation frames
+					message.write(payload);
+					if (last) {
+						return new String(message.toByteArray(), StandardCharsets.UTF_8);
+					}
+				}
+			}
+		}
+
+		void sendEvent(String sessionId, String method, Map<String, Object> params) {
+			Map<String, Object> event = new HashMap<>();
+			event.put("method", method);
+			event.put("params", params);
+			if (sessionId != null) {
+				event.put("sessionId", sessionId);
+			}
+			send(json.toJson(event));
+		}
+
+		void send(String text) {
+			if (debug) {
+				System.err.println("<- " + text);
+			}
+			try {
+				write(0x1, text.getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				if (debug) {
+					System.err.println("Exception (ignored): " + e.toString());
+				}
+			}
+		}
+
+		// unmasked, unfragmented server frame
+		synchronized void write(int opcode, byte[] payload) throws IOException {
+			output.write(0x80 | opcode);
+			if (payload.length < 126) {
+				output.write(payload.length);
+			} else if (payload.length < 65536) {
+				output.write(126);
+				output.write(payload.length >>> 8);
+				output.write(payload.length & 0xFF);
+			} else {
+				output.write(127);
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					output.write((int) (((long) payload.length >>> shift) & 0xFF));
+				}
+			}
+			output.write(payload);
+			output.flush();
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignored
+			}
+		}
+	}
+}
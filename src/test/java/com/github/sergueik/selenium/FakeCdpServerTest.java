@@ -0,0 +1,231 @@
+package com.github.sergueik.selenium;
+
+import static java.lang.System.err;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.devtools.browser.Browser;
+
+/**
+ * Protocol level tests against the in-process FakeCdpServer: need neither
+ * the browser nor chromedriver.
+ */
+public class FakeCdpServerTest {
+
+	private static boolean debug = false;
+	private FakeCdpServer server;
+	private ChromiumDriver driver;
+	private CdpConnection connection;
+	private Map<String, Object> params = new HashMap<>();
+	private Map<String, Object> result = new HashMap<>();
+
+	@Before
+	public void beforeTest() throws Exception {
+		server = new FakeCdpServer();
+		driver = server.createDriver();
+		connection = CdpConnection.create(driver);
+	}
+
+	@After
+	public void afterTest() {
+		connection.close();
+		driver.quit();
+		server.close();
+	}
+
+	@Test
+	public void executeCdpCommandTest() {
+		result = driver.executeCdpCommand("Browser.getVersion", new HashMap<>());
+		if (debug) {
+			err.println("Browser.getVersion result: " + result);
+		}
+		assertThat(result.get("product"), notNullValue());
+		assertThat((String) result.get("userAgent"), containsString("HeadlessChrome"));
+		assertThat(server.getCommandCount("Browser.getVersion"), is(1L));
+	}
+
+	@Test
+	public void scriptedResponseTest() {
+		String data = FakeCdpServer.payload(1 << 20);
+		result.put("data", data);
+		server.respond("Page.captureScreenshot", result);
+		params.put("format", "png");
+		assertThat(driver.executeCdpCommand("Page.captureScreenshot", params).get("data"), is(data));
+		assertThat(connection.execute("Page.captureScreenshot", params).get("data"), is(data));
+	}
+
+	@Test
+	public void errorTest() {
+		server.fail("Page.printToPDF", -32000, "PrintToPDF is not implemented");
+		try {
+			driver.executeCdpCommand("Page.printToPDF", params);
+			throw new AssertionError("expected WebDriverException");
+		} catch (WebDriverException e) {
+			assertThat(Utils.processExceptionMessage(e.getMessage(), true),
+					containsString("PrintToPDF is not implemented"));
+		}
+		try {
+			connection.execute("Page.printToPDF", params);
+			throw new AssertionError("expected CdpException");
+		} catch (CdpException e) {
+			assertThat(e.getCode(), is(-32000L));
+			assertThat(e.getErrorMessage(), is("PrintToPDF is not implemented"));
+		}
+		try {
+			connection.execute("Page.unknownMethod", params);
+			throw new AssertionError("expected CdpException");
+		} catch (CdpException e) {
+			assertThat(e.getCode(), is(-32601L));
+		}
+	}
+
+	@Test
+	public void eventStreamTest() {
+		int count = 1000;
+		AtomicInteger received = new AtomicInteger(0);
+		List<Object> indexes = new ArrayList<>();
+		Consumer<Map<String, Object>> listener = event -> {
+			received.incrementAndGet();
+			indexes.add(event.get("index"));
+		};
+		connection.addListener(connection.getSessionId(), "Network.dataReceived", listener);
+		CompletableFuture<Void> stream = server.stream(connection.getSessionId(), "Network.dataReceived", cnt -> {
+			Map<String, Object> event = new HashMap<>();
+			event.put("index", cnt);
+			event.put("dataLength", 1024);
+			return event;
+		}, count, Duration.ZERO);
+		CdpConnection.await(stream, "event stream", Duration.ofSeconds(10));
+		// the reply follows the events on the socket: once it is in, so are they
+		connection.execute("Runtime.evaluate", params);
+		CdpConnection.await(connection.flushEvents(), "event dispatch", Duration.ofSeconds(10));
+		assertThat(received.get(), is(count));
+		assertThat(((Number) indexes.get(count - 1)).intValue(), is(count - 1));
+	}
+
+	// the independent commands of a batch are in flight together: the batch
+	// takes about one reply latency, not one per command
+	@Test
+	public void latencyTest() {
+		int latency = 200;
+		server.setLatency("Runtime.evaluate", Duration.ofMillis(latency));
+		long started = System.currentTimeMillis();
+		connection.execute("Runtime.evaluate", params);
+		assertThat(System.currentTimeMillis() - started, greaterThanOrEqualTo((long) latency));
+		CdpBatch batch = new CdpBatch(connection);
+		for (int cnt = 0; cnt < 5; cnt++) {
+			params = new HashMap<>();
+			params.put("expression", String.format("%d", cnt));
+			batch.add("Runtime.evaluate", params);
+		}
+		started = System.currentTimeMillis();
+		assertThat(batch.execute().size(), is(5));
+		long elapsed = System.currentTimeMillis() - started;
+		if (debug) {
+			err.println("Batch of 5 commands: " + elapsed + " ms");
+		}
+		assertThat(elapsed, greaterThanOrEqualTo((long) latency));
+		assertThat(elapsed, lessThan(4L * latency));
+		assertThat(server.getCommandCount("Runtime.evaluate"), is(6L));
+	}
+
+	// each connection has its own thread: the open ones do not hold up the
+	// delayed replies of the next
+	@Test
+	public void connectionsTest() {
+		server.setLatency(Duration.ofMillis(50));
+		List<CdpConnection> connections = new ArrayList<>();
+		try {
+			for (int cnt = 0; cnt < 6; cnt++) {
+				CdpConnection connection = new CdpConnection(server.getWebSocketUri());
+				connections.add(connection);
+				connection.setTimeout(Duration.ofSeconds(5));
+				assertThat(connection.execute(null, "Browser.getVersion", params).get("product"), notNullValue());
+			}
+		} finally {
+			for (CdpConnection connection : connections) {
+				connection.close();
+			}
+		}
+	}
+
+	@Test
+	public void metricsTest() throws Exception {
+		CdpMetrics metrics = new CdpMetrics();
+		connection.setMetrics(metrics);
+		server.fail("Page.printToPDF", -32000, "PrintToPDF is not implemented");
+		try {
+			metrics.executeCdpCommand(driver, "Page.printToPDF", params);
+		} catch (WebDriverException e) {
+			// expected
+		}
+		metrics.send(driver.getDevTools(), Browser.getVersion());
+		int latency = 20;
+		server.setLatency("Runtime.evaluate", Duration.ofMillis(latency));
+		params.put("expression", "1 + 1");
+		for (int cnt = 0; cnt < 10; cnt++) {
+			connection.execute("Runtime.evaluate", params);
+		}
+		server.stream(connection.getSessionId(), "Network.dataReceived", cnt -> new HashMap<>(), 100, Duration.ZERO)
+				.get();
+		connection.execute("Runtime.evaluate", params);
+		server.respond("Page.getLayoutMetrics", new HashMap<>());
+		server.setLatency("Page.getLayoutMetrics", Duration.ofMillis(500));
+		connection.setTimeout(Duration.ofMillis(100));
+		try {
+			connection.execute("Page.getLayoutMetrics", new HashMap<>());
+			throw new AssertionError("expected TimeoutException");
+		} catch (TimeoutException e) {
+			// expected
+		}
+
+		CdpMetrics.Snapshot snapshot = metrics.snapshot();
+		if (debug) {
+			err.println("Metrics: " + snapshot.toJson());
+		}
+		CdpMetrics.MethodSnapshot printToPDF = snapshot.getMethod("Page.printToPDF");
+		assertThat(printToPDF.getCount(), is(1L));
+		assertThat(printToPDF.getErrorCodes().get("-32000"), is(1L));
+		assertThat(snapshot.getMethod("Browser.getVersion").getErrorCount(), is(0L));
+		CdpMetrics.MethodSnapshot evaluate = snapshot.getMethod("Runtime.evaluate");
+		assertThat(evaluate.getCount(), is(11L));
+		assertThat(evaluate.getPercentile(50).toMillis(), greaterThanOrEqualTo((long) latency));
+		assertThat(evaluate.getBytesOut(), greaterThan(0L));
+		assertThat(snapshot.getMethodsByTotalTime().get(0).getMethod(), is("Runtime.evaluate"));
+		assertThat(snapshot.getEvent("Network.dataReceived").getCount(), is(100L));
+		assertThat(snapshot.getMethod("Page.getLayoutMetrics").getErrorCodes().get("timeout"), is(1L));
+		// a, e acute, euro sign, an emoji (surrogate pair)
+		assertThat(CdpMetrics.utf8Length("a\u00e9\u20ac\ud83d\ude00"), is(10L));
+
+		Path path = Files.createTempFile("cdp-metrics", ".json");
+		metrics.writeJson(path);
+		assertThat(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), containsString("Page.printToPDF"));
+		Files.delete(path);
+		metrics.close();
+	}
+}
@@ -4,6 +4,7 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertThat;
 
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -35,6 +36,8 @@ public class LoggingDevToolsTest {
 	private static String osName = Utils.getOSName();
 	private static ChromiumDriver driver;
 	private static DevTools chromeDevTools;
+	// keeps the slow listeners off the connection thread
+	private static EventBus eventBus;
 
 	private final static String baseURL = "https://www.google.com";
 
@@ -60,6 +63,7 @@ public class LoggingDevToolsTest {
 		Utils.setDriver(driver);
 		chromeDevTools = driver.getDevTools();
 		chromeDevTools.createSession();
+		eventBus = new EventBus();
 	}
 
 	@SuppressWarnings("deprecation")
@@ -68,19 +72,24 @@ public class LoggingDevToolsTest {
 		// enable Console
 		chromeDevTools.send(Log.enable());
 		// add event listener to show in host console the browser console message
-		chromeDevTools.addListener(Log.entryAdded(), o -> {
+		eventBus.subscribe(chromeDevTools, Log.entryAdded(), o -> {
 			assertThat(o.getText(), notNullValue());
 			assertThat(o.getLineNumber(), notNullValue());
 			assertThat(o.getTimestamp(), notNullValue());
 			assertThat(o.getSource(), notNullValue());
 
 		});
-		chromeDevTools.addListener(Log.entryAdded(), System.err::println);
+		eventBus.subscribe(chromeDevTools, Log.entryAdded(), System.err::println);
 		driver.get(baseURL);
+		// runs the listener assertions
+		eventBus.flush(Duration.ofSeconds(10));
 	}
 
 	@AfterClass
 	public static void tearDown() {
+		if (eventBus != null) {
+			eventBus.close();
+		}
 		if (driver != null) {
 			driver.quit();
 		}
@@ -91,6 +100,7 @@ public class LoggingDevToolsTest {
 	public void test1() {
 		chromeDevTools
 				.send(Page.navigate(baseURL, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
+		eventBus.flush(Duration.ofSeconds(10));
 	}
 
 }
@@ -0,0 +1,155 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * When the NetworkRecorder pulls the response bodies, replaying the events of
+ * a single request from the FakeCdpServer.
+ */
+public class NetworkRecorderTest {
+
+	private static final String body = "<html><title>Apache</title></html>";
+	private FakeCdpServer server;
+	private CdpConnection connection;
+	private NetworkRecorder recorder;
+
+	@Before
+	public void beforeTest() throws Exception {
+		server = new FakeCdpServer();
+		Map<String, Object> result = new HashMap<>();
+		result.put("body", body);
+		result.put("base64Encoded", false);
+		server.respond("Network.getResponseBody", result);
+		connection = new CdpConnection(server.getWebSocketUri());
+		connection.setSessionId(connection.attachToTarget(server.getTargetId()));
+		recorder = new NetworkRecorder(connection);
+	}
+
+	@After
+	public void afterTest() {
+		recorder.close();
+		connection.close();
+		server.close();
+	}
+
+	@Test
+	public void onDemandTest() throws Exception {
+		recorder.start();
+		load("1000.1");
+		recorder.stop();
+		assertThat(recorder.getEntries().size(), is(1));
+		assertThat(server.getCommandCount("Network.getResponseBody"), is(0L));
+		assertThat(recorder.getBody(recorder.getEntries().get(0)), is(body));
+		Path path = Files.createTempFile("network-recorder", ".har");
+		try {
+			recorder.writeHar(path);
+			assertThat(new String(Files.readAllBytes(path), StandardCharsets.UTF_8),
+					containsString("Apache"));
+		} finally {
+			Files.delete(path);
+		}
+		// pulled once, the export reads the store
+		assertThat(server.getCommandCount("Network.getResponseBody"), is(1L));
+	}
+
+	@Test
+	public void prefetchTest() {
+		recorder.setBodyFilter(entry -> entry.getMimeType().startsWith("text/"));
+		recorder.start();
+		load("1000.1");
+		recorder.stop();
+		assertThat(server.getCommandCount("Network.getResponseBody"), is(1L));
+		assertThat(recorder.getBody(recorder.getEntries().get(0)), is(body));
+		assertThat(server.getCommandCount("Network.getResponseBody"), is(1L));
+	}
+
+	// http://apache.org/ redirects to https://apache.org/, the hop and the
+	// final response share the requestId
+	@Test
+	public void redirectTest() throws Exception {
+		recorder.start();
+		requestWillBeSent("1000.1", "http://apache.org/", null);
+		Map<String, Object> redirectResponse = new HashMap<>();
+		redirectResponse.put("status", 301);
+		redirectResponse.put("statusText", "Moved Permanently");
+		redirectResponse.put("mimeType", "text/html");
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("Location", "https://apache.org/");
+		redirectResponse.put("headers", headers);
+		load("1000.1", redirectResponse);
+		recorder.stop();
+		assertThat(recorder.getEntries().size(), is(2));
+		NetworkRecorder.Entry hop = recorder.getEntries().get(0);
+		NetworkRecorder.Entry document = recorder.getEntries().get(1);
+		assertThat(hop.getStatus(), is(301));
+		assertThat(hop.isRedirected(), is(true));
+		assertThat(recorder.getBody(hop), is((String) null));
+		Path path = Files.createTempFile("network-recorder", ".har");
+		try {
+			recorder.writeHar(path);
+			String har = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+			// the body is exported once, with the final response
+			assertThat(har.indexOf("Apache"), is(har.lastIndexOf("Apache")));
+			assertThat(har.indexOf("Apache"), greaterThan(har.indexOf("\"status\":200")));
+		} finally {
+			Files.delete(path);
+		}
+		assertThat(recorder.getBody(document), is(body));
+		assertThat(server.getCommandCount("Network.getResponseBody"), is(1L));
+		assertThat(recorder.getBodyStore().size(), is(1));
+	}
+
+	private void load(String requestId) {
+		load(requestId, null);
+	}
+
+	private void requestWillBeSent(String requestId, String url, Map<String, Object> redirectResponse) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("requestId", requestId);
+		Map<String, Object> request = new HashMap<>();
+		request.put("url", url);
+		request.put("method", "GET");
+		params.put("request", request);
+		params.put("type", "Document");
+		params.put("timestamp", 1.0);
+		if (redirectResponse != null) {
+			params.put("redirectResponse", redirectResponse);
+		}
+		server.emit(connection.getSessionId(), "Network.requestWillBeSent", params);
+	}
+
+	private void load(String requestId, Map<String, Object> redirectResponse) {
+		String sessionId = connection.getSessionId();
+		requestWillBeSent(requestId, "https://apache.org/", redirectResponse);
+		Map<String, Object> params = new HashMap<>();
+		params.put("requestId", requestId);
+		Map<String, Object> response = new HashMap<>();
+		response.put("status", 200);
+		response.put("statusText", "OK");
+		response.put("mimeType", "text/html");
+		params.put("response", response);
+		server.emit(sessionId, "Network.responseReceived", params);
+		params = new HashMap<>();
+		params.put("requestId", requestId);
+		params.put("timestamp", 1.5);
+		params.put("encodedDataLength", body.length());
+		server.emit(sessionId, "Network.loadingFinished", params);
+		// the reply follows the events on the socket
+		connection.execute("Runtime.evaluate", new HashMap<>());
+		CdpConnection.await(connection.flushEvents(), "event dispatch", Duration.ofSeconds(10));
+	}
+}
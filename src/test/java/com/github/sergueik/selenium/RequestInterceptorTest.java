@@ -0,0 +1,111 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The compiled rule table of the RequestInterceptor, and the patterns sent
+ * to the FakeCdpServer on rule changes.
+ */
+public class RequestInterceptorTest {
+
+	@Test
+	public void wildcardTest() {
+		List<RequestInterceptor.Rule> rules = rules("*://example.com/?.png", "*/a\\*b", "*/c\\?d");
+		RequestInterceptor.UrlMatcher matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("https://example.com/1.png"), sameInstance(rules.get(0)));
+		assertThat(matcher.match("https://example.com/12.png"), nullValue());
+		assertThat(matcher.match("https://example.com/.png"), nullValue());
+		// escaped wildcards are literal
+		assertThat(matcher.match("http://host/a*b"), sameInstance(rules.get(1)));
+		assertThat(matcher.match("http://host/aXb"), nullValue());
+		assertThat(matcher.match("http://host/c?d"), sameInstance(rules.get(2)));
+		assertThat(matcher.match("http://host/cXd"), nullValue());
+	}
+
+	@Test
+	public void patternLessTest() {
+		List<RequestInterceptor.Rule> rules = rules("*.png", "*", "?");
+		RequestInterceptor.UrlMatcher matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("http://host/logo.png"), sameInstance(rules.get(0)));
+		assertThat(matcher.match("http://host/"), sameInstance(rules.get(1)));
+		assertThat(matcher.match(""), sameInstance(rules.get(1)));
+		rules = rules("?", "*.png");
+		matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("x"), sameInstance(rules.get(0)));
+		assertThat(matcher.match("xy"), nullValue());
+		assertThat(new RequestInterceptor.UrlMatcher(rules()).match("http://host/"), nullValue());
+	}
+
+	@Test
+	public void firstAddedWinsTest() {
+		// the fragment of the later rule occurs first in the URL
+		List<RequestInterceptor.Rule> rules = rules("*.png", "*logo*");
+		RequestInterceptor.UrlMatcher matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("http://host/logo.png"), sameInstance(rules.get(0)));
+		assertThat(matcher.match("http://host/logo.gif"), sameInstance(rules.get(1)));
+		rules = rules("*logo*", "*.png");
+		matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("http://host/logo.png"), sameInstance(rules.get(0)));
+		// a pattern-less rule added later loses too
+		rules = rules("*.png", "*");
+		matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("http://host/logo.png"), sameInstance(rules.get(0)));
+	}
+
+	@Test
+	public void overlappingFragmentsTest() {
+		// "he" ends "she", "hers" starts inside "she"
+		List<RequestInterceptor.Rule> rules = rules("*he", "*she*", "*hers*");
+		RequestInterceptor.UrlMatcher matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("http://host/she"), sameInstance(rules.get(0)));
+		assertThat(matcher.match("http://host/ushers"), sameInstance(rules.get(1)));
+		assertThat(matcher.match("http://host/hers"), sameInstance(rules.get(2)));
+		assertThat(matcher.match("http://host/his"), nullValue());
+		// the fragment occurs, the full pattern does not match
+		rules = rules("*/she/*.js", "*hers*");
+		matcher = new RequestInterceptor.UrlMatcher(rules);
+		assertThat(matcher.match("http://host/she/app.css"), nullValue());
+		assertThat(matcher.match("http://host/shers/app.js"), sameInstance(rules.get(1)));
+		assertThat(matcher.match("http://host/she/hers.js"), sameInstance(rules.get(0)));
+	}
+
+	@Test
+	public void clearRulesTest() throws Exception {
+		try (FakeCdpServer server = new FakeCdpServer();
+				CdpConnection connection = new CdpConnection(server.getWebSocketUri())) {
+			connection.setSessionId(connection.attachToTarget(server.getTargetId()));
+			List<Object> patterns = new ArrayList<>();
+			server.on("Fetch.enable", exchange -> {
+				patterns.add(exchange.getParams().get("patterns"));
+				return new HashMap<>();
+			});
+			RequestInterceptor interceptor = new RequestInterceptor(connection);
+			interceptor.block("*.woff2");
+			interceptor.start();
+			interceptor.clearRules();
+			interceptor.close();
+			assertThat(patterns.size(), is(2));
+			assertThat(((List<?>) patterns.get(0)).size(), is(1));
+			// no request is paused any more
+			assertThat(((List<?>) patterns.get(1)).size(), is(0));
+		}
+	}
+
+	private static List<RequestInterceptor.Rule> rules(String... patterns) {
+		List<RequestInterceptor.Rule> rules = new ArrayList<>();
+		for (String pattern : patterns) {
+			rules.add(new RequestInterceptor.Rule(pattern, false, request -> {
+			}));
+		}
+		return rules;
+	}
+}
@@ -0,0 +1,150 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records and replays a redirected navigation through the Fetch.requestPaused
+ * events scripted on the FakeCdpServer: http://example.com/ redirects to
+ * https://example.com/.
+ */
+public class ResponseCacheTest {
+
+	private static final String body = "<h1>Example Domain</h1>";
+	private static final String redirectUrl = "http://example.com/";
+	private static final String url = "https://example.com/";
+	private final AtomicInteger interceptionId = new AtomicInteger(0);
+	private final List<Map<String, Object>> fulfilled = new CopyOnWriteArrayList<>();
+	private FakeCdpServer server;
+	private CdpConnection connection;
+	private Path directory;
+
+	@Before
+	public void beforeTest() throws Exception {
+		server = new FakeCdpServer();
+		Map<String, Object> result = new HashMap<>();
+		result.put("body", body);
+		result.put("base64Encoded", false);
+		server.respond("Fetch.getResponseBody", result);
+		server.on("Fetch.fulfillRequest", exchange -> {
+			fulfilled.add(exchange.getParams());
+			return new HashMap<>();
+		});
+		server.respond("Fetch.continueRequest", new HashMap<>());
+		server.respond("Fetch.failRequest", new HashMap<>());
+		server.respond("Target.detachFromTarget", new HashMap<>());
+		connection = new CdpConnection(server.getWebSocketUri());
+		connection.setSessionId(connection.attachToTarget(server.getTargetId()));
+		directory = Files.createTempDirectory("response-cache");
+	}
+
+	@After
+	public void afterTest() throws IOException {
+		connection.close();
+		server.close();
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void redirectReplayTest() throws Exception {
+		try (ResponseCache cache = new ResponseCache(connection, directory)) {
+			cache.setMode(ResponseCache.Mode.RECORD);
+			cache.start();
+			paused(cache, redirectUrl, 301, header("Location", url));
+			paused(cache, url, 200, header("Content-Type", "text/html"));
+			assertThat(cache.getRecordedCount(), is(2));
+		}
+		// the body of the redirect is not asked for
+		assertThat(server.getCommandCount("Fetch.getResponseBody"), is(1L));
+
+		try (ResponseCache cache = new ResponseCache(connection, directory)) {
+			cache.setMode(ResponseCache.Mode.REPLAY);
+			cache.start();
+			paused(cache, redirectUrl, 0, null);
+			paused(cache, url, 0, null);
+			assertThat(cache.getHitCount(), is(2));
+			assertThat(cache.getMissCount(), is(0));
+		}
+		assertThat(server.getCommandCount("Fetch.failRequest"), is(0L));
+		assertThat(fulfilled.size(), is(2));
+		Map<String, Object> redirect = fulfilled.get(0);
+		assertThat(((Number) redirect.get("responseCode")).intValue(), is(301));
+		assertThat(getHeader(redirect, "Location"), is(url));
+		assertThat(redirect.get("body"), is(""));
+		Map<String, Object> document = fulfilled.get(1);
+		assertThat(((Number) document.get("responseCode")).intValue(), is(200));
+		assertThat(new String(Base64.getDecoder().decode((String) document.get("body")), StandardCharsets.UTF_8),
+				is(body));
+	}
+
+	// the response stage when status is not 0, else the request stage;
+	// waits until the cache has handled the previous one
+	private void paused(ResponseCache cache, String url, int status, Map<String, Object> header) {
+		int id = interceptionId.incrementAndGet();
+		Map<String, Object> params = new HashMap<>();
+		params.put("requestId", "interception-job-" + id + ".0");
+		Map<String, Object> request = new HashMap<>();
+		request.put("url", url);
+		request.put("method", "GET");
+		params.put("request", request);
+		params.put("resourceType", "Document");
+		if (status != 0) {
+			params.put("responseStatusCode", status);
+			List<Map<String, Object>> headers = new ArrayList<>();
+			headers.add(header);
+			params.put("responseHeaders", headers);
+		}
+		long resolved = resolvedCount();
+		server.emit(cache.getSessionId(), "Fetch.requestPaused", params);
+		awaitResolved(resolved + 1);
+	}
+
+	private long resolvedCount() {
+		return server.getCommandCount("Fetch.continueRequest") + server.getCommandCount("Fetch.fulfillRequest")
+				+ server.getCommandCount("Fetch.failRequest");
+	}
+
+	private void awaitResolved(long count) {
+		for (int cnt = 0; cnt < 100 && resolvedCount() < count; cnt++) {
+			Utils.sleep(50);
+		}
+		assertThat(resolvedCount(), is(count));
+	}
+
+	private static Map<String, Object> header(String name, String value) {
+		Map<String, Object> header = new HashMap<>();
+		header.put("name", name);
+		header.put("value", value);
+		return header;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String getHeader(Map<String, Object> params, String name) {
+		for (Map<String, Object> header : (List<Map<String, Object>>) params.get("responseHeaders")) {
+			if (name.equals(header.get("name"))) {
+				return (String) header.get("value");
+			}
+		}
+		return null;
+	}
+}
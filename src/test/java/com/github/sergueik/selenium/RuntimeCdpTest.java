@@ -4,7 +4,6 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasKey;
 
-import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -12,17 +11,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.junit.After;
-import org.junit.AfterClass;
 import org.junit.Before;
-import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.chromium.ChromiumDriver;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
@@ -32,78 +27,47 @@ import com.google.gson.Gson;
  * Selected test scenarios for Selenium 4 Chrome Developer Tools bridge inspired
  * by https://toster.ru/q/653249?e=7897302#comment_1962398
  * https://chromedevtools.github.io/devtools-protocol/1-3/Runtime/#method-evaluate
+ * The test methods run concurrently, each on a browser of the pool, see
+ * ParallelRunner
  * 
  * @author: Serguei Kouzmine (kouzmine_serguei@yahoo.com)
  */
 
+@RunWith(ParallelRunner.class)
 public class RuntimeCdpTest {
 
 	private static String osName = Utils.getOSName();
 
-	private static ChromiumDriver driver;
-	private static WebDriverWait wait;
-	private static boolean runHeadless = false;
+	// bound to the thread of the method by the runner
+	private final ChromiumDriver driver = DriverContext.current().getDriver();
+	private WebDriverWait wait;
 
 	private static int flexibleWait = 60;
 	private static int pollingInterval = 500;
 
 	private static final String command = "Runtime.evaluate";
 
-	private static Map<String, Object> result = new HashMap<>();
-	private static Map<String, Object> params = new HashMap<>();
-	private static Map<String, Object> data = new HashMap<>();
-	private static Map<String, Object> data2 = new HashMap<>();
+	private Map<String, Object> result = new HashMap<>();
+	private Map<String, Object> params = new HashMap<>();
+	private Map<String, Object> data = new HashMap<>();
+	private Map<String, Object> data2 = new HashMap<>();
 
 	private static Gson gson = new Gson();
 	private String expression;
 	private static final boolean returnByValue = false;
 
-	private static WebElement element = null;
-	private static By locator = null;
+	private WebElement element = null;
+	private By locator = null;
 	private final static String baseURL = "https://www.google.com";
 
-	@BeforeClass
-	public static void beforeClass() throws Exception {
-
-		if ((System.getenv().containsKey("HEADLESS") && System.getenv("HEADLESS").matches("(?:true|yes|1)"))
-				|| (!(Utils.getOSName().equals("windows")) && !(System.getenv().containsKey("DISPLAY")))) {
-			runHeadless = true;
-		}
-
-		System.setProperty("webdriver.chrome.driver", Paths.get(System.getProperty("user.home")).resolve("Downloads")
-				.resolve(osName.equals("windows") ? "chromedriver.exe" : "chromedriver").toAbsolutePath().toString());
-
-		ChromeOptions options = new ChromeOptions();
-		options.addArguments("--ssl-protocol=any", "--ignore-ssl-errors=true", "--disable-extensions",
-				"--ignore-certificate-errors");
-		options.setExperimentalOption("useAutomationExtension", false);
-		if (runHeadless) {
-			options.addArguments("--headless", "--disable-gpu");
-		}
-
-		driver = new ChromeDriver(options);
-		wait = new WebDriverWait(driver, Duration.ofSeconds(flexibleWait));
-		Utils.setDriver(driver);
-		wait.pollingEvery(Duration.ofMillis(pollingInterval));
-	}
-
+	// the browser is reset by the runner when the lease is returned
 	@Before
 	public void beforeTest() throws Exception {
+		wait = new WebDriverWait(driver, Duration.ofSeconds(flexibleWait));
+		wait.pollingEvery(Duration.ofMillis(pollingInterval));
 		driver.get(baseURL);
 	}
 
-	@AfterClass
-	public static void tearDown() {
-		if (driver != null) {
-			driver.quit();
-		}
-	}
-
-	@After
-	public void clearPage() {
-		driver.get("about:blank");
-	}
-
 	@Ignore
 	@SuppressWarnings("unchecked")
 	@Test
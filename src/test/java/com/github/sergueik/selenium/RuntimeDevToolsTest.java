@@ -5,7 +5,13 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -17,6 +23,8 @@ import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.chromium.ChromiumDriver;
 import org.openqa.selenium.devtools.DevTools;
 import org.openqa.selenium.devtools.DevToolsException;
+import org.openqa.selenium.devtools.performance.Performance;
+import org.openqa.selenium.devtools.performance.model.Metric;
 import org.openqa.selenium.devtools.runtime.Runtime;
 import org.openqa.selenium.devtools.runtime.Runtime.EvaluateResponse;
 import org.openqa.selenium.devtools.runtime.model.ExecutionContextId;
@@ -257,4 +265,39 @@ public class RuntimeDevToolsTest {
 
 	}
 
+
+	// the three commands are in flight at the same time
+	@Test
+	public void asyncCommandsTest() throws Exception {
+		try (CdpAsyncClient client = CdpAsyncClient.create(driver)) {
+			client.send(Performance.enable(Optional.empty())).get();
+			CompletableFuture<Map<String, Object>> screenshot = client
+					.send("Page.captureScreenshot", new HashMap<>());
+			CompletableFuture<Map<String, Object>> cookies = client
+					.send("Network.getAllCookies", new HashMap<>());
+			CompletableFuture<List<Metric>> metrics = client
+					.send(Performance.getMetrics());
+			CompletableFuture.allOf(screenshot, cookies, metrics).get();
+			assertThat(screenshot.get().get("data"), notNullValue());
+			assertThat(cookies.get().get("cookies"), notNullValue());
+			assertThat(metrics.get().isEmpty(), is(false));
+			client.send(Performance.disable()).get();
+		}
+	}
+
+	// the promise never resolves: the command deadline fails the future
+	// without blocking the test thread for the devtools timeout
+	@Test(expected = org.openqa.selenium.TimeoutException.class)
+	public void asyncDeadlineTest() throws Throwable {
+		try (CdpAsyncClient client = CdpAsyncClient.create(driver)) {
+			Map<String, Object> params = new HashMap<>();
+			params.put("expression", "new Promise(function(resolve) {})");
+			params.put("awaitPromise", true);
+			client.send("Runtime.evaluate", params, Duration.ofMillis(500)).get();
+		} catch (ExecutionException e) {
+			System.err.println("Exception (rethrowing cause): " + e.toString());
+			throw e.getCause();
+		}
+	}
+
 }
@@ -0,0 +1,156 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The base64 decoder and the image header reader of the ScreenshotSink,
+ * checked against java.util.Base64 and ImageIO.
+ */
+public class ScreenshotSinkTest {
+
+	private final ScreenshotSink sink = new ScreenshotSink();
+	private final Random random = new Random(42);
+
+	@After
+	public void afterTest() {
+		sink.close();
+	}
+
+	// the lengths around the groups of 4 and the 64 K char blocks
+	@Test
+	public void decodeTest() {
+		for (int length : new int[] { 0, 1, 2, 3, 4, 5, 1000, 49151, 49152, 49153, 200000 }) {
+			byte[] data = randomBytes(length);
+			assertThat(decode(Base64.getEncoder().encodeToString(data)), is(data));
+			assertThat(decode(Base64.getEncoder().withoutPadding().encodeToString(data)), is(data));
+		}
+	}
+
+	@Test
+	public void whitespaceTest() {
+		byte[] data = randomBytes(100000);
+		// line breaks every 76 chars
+		assertThat(decode(Base64.getMimeEncoder().encodeToString(data)), is(data));
+		assertThat(decode(" QUJD\tREVG\nR0g= "), is("ABCDEFGH".getBytes()));
+		// a group split by whitespace
+		assertThat(decode("QU JDRE\r\nVGR0g"), is("ABCDEFGH".getBytes()));
+	}
+
+	@Test
+	public void urlSafeTest() {
+		byte[] data = randomBytes(30000);
+		assertThat(decode(Base64.getUrlEncoder().encodeToString(data)), is(data));
+		// both alphabets in the same text
+		assertThat(decode("-_+/"), is(new byte[] { (byte) 0xFB, (byte) 0xFF, (byte) 0xBF }));
+	}
+
+	@Test
+	public void nonStringTest() {
+		byte[] data = randomBytes(70000);
+		assertThat(decode(new StringBuilder(Base64.getEncoder().encodeToString(data))), is(data));
+	}
+
+	@Test
+	public void illegalCharacterTest() {
+		assertIllegal("QUJ$REVG", "0x24 at 3");
+		assertIllegal("QUJDREVGé", "0xe9 at 8");
+		// past the first block
+		StringBuilder data = new StringBuilder(Base64.getEncoder().encodeToString(randomBytes(60000)));
+		data.setCharAt(70000, '!');
+		assertIllegal(data, "0x21 at 70000");
+		// not truncated to the 'A' of its low byte
+		data.setCharAt(70000, '\u0141');
+		assertIllegal(data.toString(), "0x141 at 70000");
+		data.setCharAt(70000, '!');
+		// the buffer of the failed decode is returned to the pool
+		int allocated = sink.getAllocatedCount();
+		assertIllegal(data, "0x21 at 70000");
+		byte[] expected = randomBytes(1000);
+		assertThat(decode(Base64.getEncoder().encodeToString(expected)), is(expected));
+		assertThat(sink.getAllocatedCount(), is(allocated));
+	}
+
+	@Test
+	public void pngDimensionsTest() throws IOException {
+		String data = Base64.getEncoder().encodeToString(encode(new BufferedImage(17, 9, BufferedImage.TYPE_INT_RGB), "png"));
+		assertThat(sink.getDimensions(data), is(new int[] { 17, 9 }));
+	}
+
+	@Test
+	public void jpegDimensionsTest() throws IOException {
+		String data = Base64.getEncoder().encodeToString(encode(new BufferedImage(33, 21, BufferedImage.TYPE_INT_RGB), "jpg"));
+		assertThat(sink.getDimensions(data), is(new int[] { 33, 21 }));
+	}
+
+	@Test
+	public void unknownFormatTest() {
+		assertThat(ScreenshotSink.readDimensions(ByteBuffer.wrap("GIF89a".getBytes())), is(new int[] { 0, 0 }));
+		assertThat(ScreenshotSink.readDimensions(ByteBuffer.allocate(0)), is(new int[] { 0, 0 }));
+		// the PNG signature without a complete IHDR
+		assertThat(ScreenshotSink.readDimensions(ByteBuffer.wrap(new byte[] { (byte) 0x89, 'P', 'N', 'G' })),
+				is(new int[] { 0, 0 }));
+	}
+
+	@Test
+	public void writeTest() throws IOException {
+		byte[] png = encode(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "png");
+		Path path = Files.createTempFile("screenshot", ".png");
+		try {
+			ScreenshotSink.Screenshot screenshot = sink.write(Base64.getEncoder().encodeToString(png), path);
+			assertThat(Files.readAllBytes(path), is(png));
+			assertThat(screenshot.getWidth(), is(64));
+			assertThat(screenshot.getHeight(), is(48));
+			assertThat(screenshot.getSize(), is(png.length));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	private byte[] decode(CharSequence data) {
+		ByteBuffer buffer = sink.decode(data);
+		try {
+			byte[] result = new byte[buffer.remaining()];
+			buffer.get(result);
+			return result;
+		} finally {
+			sink.release(buffer);
+		}
+	}
+
+	private void assertIllegal(CharSequence data, String position) {
+		try {
+			sink.decode(data);
+			throw new AssertionError("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), containsString(position));
+		}
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+		return data;
+	}
+
+	private static byte[] encode(BufferedImage image, String format) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ImageIO.write(image, format, data);
+		return data.toByteArray();
+	}
+}
@@ -0,0 +1,121 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ScriptRegistry against the FakeCdpServer, where Runtime.enable reports no
+ * contexts, as when Runtime was enabled on the session already.
+ */
+public class ScriptRegistryTest {
+
+	private FakeCdpServer server;
+	private CdpConnection connection;
+	private ScriptRegistry scripts;
+	// executionContextId of every Runtime.compileScript, null when omitted
+	private final List<Object> compiledIn = Collections.synchronizedList(new ArrayList<>());
+
+	@Before
+	public void beforeTest() throws Exception {
+		server = new FakeCdpServer();
+		Map<String, Object> frame = new HashMap<>();
+		frame.put("id", "F1");
+		Map<String, Object> frameTree = new HashMap<>();
+		frameTree.put("frame", frame);
+		Map<String, Object> tree = new HashMap<>();
+		tree.put("frameTree", frameTree);
+		server.respond("Page.getFrameTree", tree);
+		server.on("Runtime.compileScript", exchange -> {
+			compiledIn.add(exchange.getParams().get("executionContextId"));
+			Map<String, Object> result = new HashMap<>();
+			result.put("scriptId", "s" + compiledIn.size());
+			return result;
+		});
+		server.on("Runtime.runScript", exchange -> {
+			Map<String, Object> value = new HashMap<>();
+			value.put("value", exchange.getParams().get("executionContextId") == null ? "default" : "by id");
+			Map<String, Object> result = new HashMap<>();
+			result.put("result", value);
+			return result;
+		});
+		connection = new CdpConnection(server.getWebSocketUri());
+		connection.setSessionId(connection.attachToTarget(server.getTargetId()));
+		scripts = new ScriptRegistry(connection).start();
+	}
+
+	@After
+	public void afterTest() {
+		scripts.stop();
+		connection.close();
+		server.close();
+	}
+
+	@Test
+	public void defaultContextTest() {
+		for (int cnt = 0; cnt < 3; cnt++) {
+			assertThat(scripts.evaluate("document.title"), is("default"));
+		}
+		assertThat(compiledIn, is(Collections.singletonList(null)));
+		assertThat(scripts.getHitCount(), is(2));
+		assertThat(scripts.getFallbackCount(), is(0));
+		assertThat(scripts.size(), is(1));
+		// the main frame id is asked for once
+		assertThat(server.getCommandCount("Page.getFrameTree"), is(1L));
+		assertThat(server.getCommandCount("Runtime.evaluate"), is(0L));
+	}
+
+	@Test
+	public void contextCreatedTest() {
+		assertThat(scripts.evaluate("document.title"), is("default"));
+		// navigation
+		server.emit(connection.getSessionId(), "Runtime.executionContextsCleared", new HashMap<>());
+		Map<String, Object> auxData = new HashMap<>();
+		auxData.put("isDefault", true);
+		auxData.put("frameId", "F1");
+		Map<String, Object> context = new HashMap<>();
+		context.put("id", 7);
+		context.put("auxData", auxData);
+		Map<String, Object> params = new HashMap<>();
+		params.put("context", context);
+		server.emit(connection.getSessionId(), "Runtime.executionContextCreated", params);
+		settle();
+		assertThat(scripts.size(), is(0));
+		assertThat(scripts.evaluate("document.title"), is("by id"));
+		assertThat(scripts.evaluate("document.title"), is("by id"));
+		assertThat(compiledIn, is(Arrays.asList(null, 7L)));
+		assertThat(scripts.getHitCount(), is(1));
+		assertThat(scripts.getFallbackCount(), is(0));
+	}
+
+	@Test
+	public void contextDestroyedTest() {
+		assertThat(scripts.evaluate("document.title"), is("default"));
+		// the default context not known by id may be the one destroyed
+		Map<String, Object> params = new HashMap<>();
+		params.put("executionContextId", 3);
+		server.emit(connection.getSessionId(), "Runtime.executionContextDestroyed", params);
+		settle();
+		assertThat(scripts.size(), is(0));
+		assertThat(scripts.evaluate("document.title"), is("default"));
+		assertThat(scripts.getCompileCount(), is(2));
+		assertThat(scripts.getHitCount(), is(0));
+	}
+
+	// the reply follows the event on the socket
+	private void settle() {
+		connection.execute("Page.enable", new HashMap<>());
+		CdpConnection.await(connection.flushEvents(), "event dispatch", Duration.ofSeconds(10));
+	}
+}
@@ -0,0 +1,97 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Invalidation of the SelectorCache against the FakeCdpServer: the document
+ * is the root 1 with the children 2 (holding 3) and 4.
+ */
+public class SelectorCacheTest {
+
+	private FakeCdpServer server;
+	private CdpConnection connection;
+	private SelectorCache selectors;
+
+	@Before
+	public void beforeTest() throws Exception {
+		server = new FakeCdpServer();
+		Map<String, Object> document = new HashMap<>();
+		document.put("root", node(1));
+		server.respond("DOM.getDocument", document);
+		// the path to the result is pushed ahead of the reply
+		server.on("DOM.querySelector", exchange -> {
+			Map<String, Object> params = new HashMap<>();
+			params.put("parentId", 1);
+			Map<String, Object> child = node(2);
+			child.put("children", Arrays.asList(node(3)));
+			params.put("nodes", Arrays.asList(child, node(4)));
+			exchange.emit("DOM.setChildNodes", params);
+			Map<String, Object> result = new HashMap<>();
+			result.put("nodeId", "#a".equals(exchange.getParams().get("selector")) ? 3 : 4);
+			return result;
+		});
+		connection = new CdpConnection(server.getWebSocketUri());
+		connection.setSessionId(connection.attachToTarget(server.getTargetId()));
+		selectors = new SelectorCache(connection);
+	}
+
+	@After
+	public void afterTest() {
+		selectors.close();
+		connection.close();
+		server.close();
+	}
+
+	@Test
+	public void removedSubtreeTest() {
+		assertThat(selectors.querySelector("#a"), is(3));
+		assertThat(selectors.querySelector("#b"), is(4));
+		removed(2);
+		// the ancestor of #a is gone, #b is still cached
+		assertThat(selectors.querySelector("#b"), is(4));
+		assertThat(selectors.getHitCount(), is(1));
+		assertThat(selectors.querySelector("#a"), is(3));
+		assertThat(selectors.getMissCount(), is(3));
+		assertThat(selectors.getGeneration(), is(0));
+	}
+
+	@Test
+	public void documentUpdatedTest() {
+		assertThat(selectors.querySelector("#b"), is(4));
+		server.emit(selectors.getSessionId(), "DOM.documentUpdated", new HashMap<>());
+		settle();
+		assertThat(selectors.querySelector("#b"), is(4));
+		assertThat(selectors.getMissCount(), is(2));
+		assertThat(selectors.getGeneration(), is(1));
+	}
+
+	private void removed(int nodeId) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("parentNodeId", 1);
+		params.put("nodeId", nodeId);
+		server.emit(selectors.getSessionId(), "DOM.childNodeRemoved", params);
+		settle();
+	}
+
+	// the reply follows the event on the socket
+	private void settle() {
+		connection.execute(selectors.getSessionId(), "Runtime.evaluate", new HashMap<>());
+		CdpConnection.await(connection.flushEvents(), "event dispatch", Duration.ofSeconds(10));
+	}
+
+	private static Map<String, Object> node(int nodeId) {
+		Map<String, Object> node = new HashMap<>();
+		node.put("nodeId", nodeId);
+		return node;
+	}
+}
@@ -0,0 +1,104 @@
+package com.github.sergueik.selenium;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.io.Reader;
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Streaming summary of a generated trace: the events are produced by the
+ * reader as they are parsed, so the trace is never held in memory or on
+ * disk.
+ */
+public class TraceRecorderTest {
+
+	private static boolean debug = false;
+
+	// 150000 iterations of about 1 KB: a 150 MB trace
+	@Test
+	public void largeTraceTest() {
+		int count = 150000;
+		GeneratedTrace trace = new GeneratedTrace(count);
+		TraceRecorder.Summary summary = TraceRecorder.summarize(trace, Duration.ofMillis(50));
+		if (debug) {
+			System.err.println("Trace of " + trace.getLength() + " chars: " + summary);
+		}
+		assertThat(trace.getLength(), greaterThan(150L * 1000 * 1000));
+		assertThat(summary.getEventCount(), is(3L * count + 2));
+		// the compositor thread is not counted
+		assertThat(summary.getTaskCount(), is(count));
+		assertThat(summary.getLongTaskCount(), is(count / 100));
+		assertThat(summary.getLongestTask(), closeTo(60, 0.001));
+		assertThat(summary.getBlockingTime(), closeTo(count / 100 * 10, 0.001));
+		assertThat(summary.getLayoutCount(), is(count));
+		assertThat(summary.getLayoutTime(), closeTo(count * 0.1, 0.001));
+	}
+
+	// a task with a nested layout on the main thread and a task on the
+	// compositor thread per iteration, one in 100 main thread tasks takes
+	// 60 ms. The thread names come last, as in the streamed traces
+	private static class GeneratedTrace extends Reader {
+		private static final String padding = new String(new char[800]).replace('\0', 'x');
+		private final int count;
+		private final StringBuilder chunk = new StringBuilder();
+		private int index = -1;
+		private int position = 0;
+		private long length = 0;
+
+		GeneratedTrace(int count) {
+			this.count = count;
+		}
+
+		long getLength() {
+			return length;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int size) {
+			if (position == chunk.length() && !next()) {
+				return -1;
+			}
+			int read = Math.min(size, chunk.length() - position);
+			chunk.getChars(position, position + read, buffer, offset);
+			position += read;
+			length += read;
+			return read;
+		}
+
+		private boolean next() {
+			chunk.setLength(0);
+			position = 0;
+			if (index == -1) {
+				chunk.append("{\"traceEvents\":[");
+			} else if (index < count) {
+				long timestamp = index * 100000L;
+				chunk.append(String.format(
+						"{\"pid\":1,\"tid\":2,\"ts\":%d,\"ph\":\"X\",\"cat\":\"toplevel\",\"name\":\"RunTask\",\"dur\":%d,\"args\":{}},",
+						timestamp, (index % 100 == 0) ? 60000 : 1000));
+				chunk.append(String.format(
+						"{\"pid\":1,\"tid\":2,\"ts\":%d,\"ph\":\"X\",\"cat\":\"devtools.timeline\",\"name\":\"Layout\",\"dur\":100,\"args\":{\"beginData\":{\"frame\":\"%s\"}}},",
+						timestamp + 10, padding));
+				chunk.append(String.format(
+						"{\"pid\":1,\"tid\":3,\"ts\":%d,\"ph\":\"X\",\"cat\":\"toplevel\",\"name\":\"RunTask\",\"dur\":1000,\"args\":{}},",
+						timestamp));
+			} else if (index == count) {
+				chunk.append("{\"pid\":1,\"tid\":2,\"ts\":0,\"ph\":\"M\",\"name\":\"thread_name\",\"args\":{\"name\":\"CrRendererMain\"}},");
+				chunk.append("{\"pid\":1,\"tid\":3,\"ts\":0,\"ph\":\"M\",\"name\":\"thread_name\",\"args\":{\"name\":\"Compositor\"}}");
+				chunk.append("]}");
+			} else {
+				return false;
+			}
+			index++;
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -4,12 +4,14 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
-import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -17,8 +19,6 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.openqa.selenium.WindowType;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.chromium.ChromiumDriver;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
@@ -35,9 +35,9 @@ public class WindowsTabsTest {
 
 	private static String osName = Utils.getOSName();
 
+	private static BrowserPool.Lease lease;
 	private static ChromiumDriver driver;
 	private static WebDriverWait wait;
-	private static boolean runHeadless = false;
 
 	private static int flexibleWait = 60;
 	private static int pollingInterval = 500;
@@ -50,22 +50,6 @@ public class WindowsTabsTest {
 
 	@BeforeClass
 	public static void beforeClass() throws Exception {
-
-		if ((System.getenv().containsKey("HEADLESS") && System.getenv("HEADLESS").matches("(?:true|yes|1)"))
-				|| (!(Utils.getOSName().equals("windows")) && !(System.getenv().containsKey("DISPLAY")))) {
-			runHeadless = true;
-		}
-
-		System.setProperty("webdriver.chrome.driver", Paths.get(System.getProperty("user.home")).resolve("Downloads")
-				.resolve(osName.equals("windows") ? "chromedriver.exe" : "chromedriver").toAbsolutePath().toString());
-
-		ChromeOptions options = new ChromeOptions();
-		options.addArguments("--ssl-protocol=any", "--ignore-ssl-errors=true", "--disable-extensions",
-				"--ignore-certificate-errors");
-		options.setExperimentalOption("useAutomationExtension", false);
-		if (runHeadless) {
-			options.addArguments("--headless", "--disable-gpu");
-		}
 		// uncomment the next line to get
 		// java.lang.NoClassDefFoundError: Could not initialize class
 		// org.openqa.selenium.net.PortProber
@@ -78,7 +62,9 @@ public class WindowsTabsTest {
 		// the method FileReader​(File file, Charset charset) is added in JDK 11
 		// https://docs.oracle.com/en/java/javase/11/docs/api/java.base/java/io/FileReader.html
 		// int port = PortProber.findFreePort();
-		driver = new ChromeDriver(options);
+		// browser launched once and shared with other test classes
+		lease = BrowserPool.getDefault().acquire();
+		driver = lease.getDriver();
 		wait = new WebDriverWait(driver, Duration.ofSeconds(flexibleWait));
 		Utils.setDriver(driver);
 		wait.pollingEvery(Duration.ofMillis(pollingInterval));
@@ -91,15 +77,15 @@ public class WindowsTabsTest {
 
 	@AfterClass
 	public static void tearDown() {
-		if (driver != null) {
-			driver.quit();
+		if (lease != null) {
+			lease.close();
 		}
 	}
 
+	// cookies, storage and stray tabs are cleared too
 	@After
 	public void clearPage() {
-		driver.get("about:blank");
-		Utils.sleep(1000);
+		lease.reset();
 	}
 
 	// https://github.com/qtacore/chrome_master/blob/master/chrome_master/input_handler.py#L32
@@ -137,6 +123,33 @@ public class WindowsTabsTest {
 		Utils.sleep(1000);
 	}
 
+	// the tabs are driven concurrently through their own sessions, the
+	// driver stays on its window
+	@Test
+	public void targetPoolTest() throws Exception {
+		List<String> urls = new ArrayList<>();
+		for (int cnt = 0; cnt != 12; cnt++) {
+			urls.add("data:text/html,<title>Page " + cnt + "</title>");
+		}
+		String windowHandle = driver.getWindowHandle();
+		try (TargetPool pool = new TargetPool(4, lease.getConnection())) {
+			pool.open();
+			List<CompletableFuture<Object>> titles = new ArrayList<>();
+			for (String url : urls) {
+				titles.add(pool.submit(tab -> {
+					tab.navigate(url);
+					return tab.evaluate("document.title");
+				}));
+			}
+			for (int cnt = 0; cnt != urls.size(); cnt++) {
+				assertThat(titles.get(cnt).get(60, TimeUnit.SECONDS), is("Page " + cnt));
+			}
+			assertThat(pool.getTabCount(), is(4));
+			System.err.println("Tasks stolen between tabs: " + pool.getStolenCount());
+		}
+		assertThat(driver.getWindowHandle(), is(windowHandle));
+	}
+
 	// utilities
 	private void openNewTab(String url) {
 		this.driver.switchTo().newWindow(WindowType.TAB).get(url);